@@ -0,0 +1,521 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.SwingUtilities;
+
+/**
+ * Microbenchmarks for the hot paths of the model, the view and saving/loading. Every case is
+ * warmed up and then timed one invocation at a time, so per-invocation setup is excluded from
+ * both the time and the allocation figures. Allocation is read from the per-thread allocation
+ * counter of the JVM, which is the same source the JMH GC profiler uses. The view cases
+ * build, drive and are measured on the event dispatch thread, as Swing requires, so their
+ * allocation is that of the EDT.
+ *
+ * Usage: java Benchmark [name filter]
+ * The warmup and measurement times can be changed with -Dbench.warmup=ms and -Dbench.time=ms.
+ * The same cases run under JMH with its GC profiler through ./gradlew :jmh:jmh.
+ */
+public class Benchmark
+{
+    private static final long WARMUP = Long.getLong("bench.warmup", 300) * 1000000L;
+    private static final long TIME = Long.getLong("bench.time", 1000) * 1000000L;
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    private static volatile Object sink;
+
+    /**
+     * The board sizes every model benchmark runs on: the three presets of the file menu,
+     * and large custom boards at intermediate density and at an open 1% density.
+     */
+    static final Size[] SIZES =
+    {
+        new Size("Beginner", 10, 10, 10),
+        new Size("Intermediate", 16, 16, 40),
+        new Size("Expert", 16, 30, 99),
+        new Size("Custom", 256, 256, 10240),
+        new Size("Custom", 1024, 1024, 163840),
+        new Size("Open", 1024, 1024, 10485)
+    };
+
+    /**
+     * The dimensions of a benchmarked board.
+     */
+    static class Size
+    {
+        final String name;
+        final int rows, columns, mines;
+
+        Size(String name, int rows, int columns, int mines)
+        {
+            this.name = name;
+            this.rows = rows;
+            this.columns = columns;
+            this.mines = mines;
+        }
+
+        /**
+         * Creates a board of this size with mines generated around its center.
+         */
+        MineBoard generated()
+        {
+            MineBoard board = new MineBoard(rows, columns, mines, 42L);
+            board.generateMines(rows / 2, columns / 2);
+            return board;
+        }
+
+        /**
+         * Returns the board as rows x columns / mines, the form the JMH parameters use.
+         */
+        String key() {return rows + "x" + columns + "/" + mines;}
+
+        @Override
+        public String toString() {return name + " " + key();}
+    }
+
+    /**
+     * A single benchmarked operation.
+     */
+    abstract static class Case
+    {
+        final String name;
+        final Size size;
+
+        Case(String name, Size size)
+        {
+            this.name = name;
+            this.size = size;
+        }
+
+        /**
+         * Prepares the next invocation. Neither timed nor counted as allocation.
+         */
+        void setup() throws Exception {}
+
+        /**
+         * The measured operation. Its result is consumed so it cannot be optimized away.
+         */
+        abstract Object run() throws Exception;
+
+        /**
+         * Returns True if the case touches Swing components and must run on the EDT.
+         */
+        boolean onEventThread() {return false;}
+    }
+
+    /**
+     * A case for the view, set up, run and measured on the event dispatch thread.
+     */
+    abstract static class ViewCase extends Case
+    {
+        ViewCase(String name, Size size) {super(name, size);}
+
+        @Override
+        boolean onEventThread() {return true;}
+    }
+
+    /**
+     * Builds every benchmark case.
+     */
+    static List<Case> cases() throws Exception
+    {
+        List<Case> cases = new ArrayList<>();
+        for (Size size : SIZES) {cases.addAll(modelCases(size));}
+        cases.addAll(viewCases());
+        return cases;
+    }
+
+    /**
+     * Finds the case with the given name on the given board, as the JMH benchmarks look them up.
+     * @param name The name of the case, such as reveal.cascade.
+     * @param board The board, as rows x columns / mines, such as 16x30/99.
+     */
+    static Case find(String name, String board) throws Exception
+    {
+        Size size = null;
+        for (Size candidate : SIZES)
+        {
+            if (candidate.key().equals(board)) {size = candidate;}
+        }
+        if (size == null) {throw new IllegalArgumentException("Unknown board " + board);}
+
+        List<Case> cases = name.startsWith("MinePanel.") ? viewCases() : modelCases(size);
+        for (Case c : cases)
+        {
+            if (c.name.equals(name) && c.size == size) {return c;}
+        }
+        throw new IllegalArgumentException("No case " + name + " on " + board);
+    }
+
+    /**
+     * Builds the cases for the model and saving/loading on one board size.
+     */
+    static List<Case> modelCases(final Size size)
+    {
+        List<Case> cases = new ArrayList<>();
+
+        cases.add(new Case("generateMines", size)
+        {
+            MineBoard board;
+            void setup() {board = new MineBoard(size.rows, size.columns, size.mines, 42L);}
+            Object run() {board.generateMines(size.rows / 2, size.columns / 2); return board;}
+        });
+        cases.add(new Case("reveal.cascade", size)
+        {
+            MineBoard board;
+            void setup() {board = size.generated();}
+            Object run() {board.reveal(size.rows / 2, size.columns / 2); return board;}
+        });
+        cases.add(new Case("determineAdjacent.sweep", size)
+        {
+            MineBoard board = size.generated();
+            Object run()
+            {
+                int sum = 0;
+                for (int row = 0; row < size.rows; row++)
+                {
+                    for (int col = 0; col < size.columns; col++) {sum += board.determineAdjacent(row, col);}
+                }
+                return sum;
+            }
+        });
+        cases.add(new Case("flag.cycle", size)
+        {
+            MineBoard board = size.generated();
+            Object run()
+            {
+                //One full right-click cycle over every tile: flag, question, hide
+                for (int row = 0; row < size.rows; row++)
+                {
+                    for (int col = 0; col < size.columns; col++)
+                    {
+                        board.flag(row, col);
+                        board.question(row, col);
+                        board.hide(row, col);
+                    }
+                }
+                return board;
+            }
+        });
+        cases.add(new Case("flag.cycle.listened", size)
+        {
+            MineBoard board = size.generated();
+            {
+                //What a view pays today: one change set per move
+                board.addTileListener(changes -> sink = changes);
+            }
+            Object run()
+            {
+                for (int row = 0; row < size.rows; row++)
+                {
+                    for (int col = 0; col < size.columns; col++)
+                    {
+                        board.cycleMark(row, col);
+                        board.cycleMark(row, col);
+                        board.cycleMark(row, col);
+                    }
+                }
+                return board;
+            }
+        });
+        cases.add(new Case("flag.cycle.batch", size)
+        {
+            MineBoard board = size.generated();
+            MoveBatch batch = new MoveBatch();
+            {
+                //The same cycle as flag.cycle, applied as one batch with one merged change set
+                for (int row = 0; row < size.rows; row++)
+                {
+                    for (int col = 0; col < size.columns; col++)
+                    {
+                        batch.cycleMark(row, col).cycleMark(row, col).cycleMark(row, col);
+                    }
+                }
+            }
+            Object run() {return board.apply(batch);}
+        });
+        cases.add(new Case("serialization.save", size)
+        {
+            MineBoard board;
+            Path file = temporaryFile();
+            void setup() {board = size.generated(); board.reveal(size.rows / 2, size.columns / 2);}
+            Object run() throws IOException
+            {
+                try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file.toFile())))
+                {
+                    out.writeObject(board);
+                }
+                return file;
+            }
+        });
+        cases.add(new Case("serialization.load", size)
+        {
+            Path file = temporaryFile();
+            void setup() throws IOException
+            {
+                MineBoard board = size.generated();
+                board.reveal(size.rows / 2, size.columns / 2);
+                Files.write(file, serialize(board));
+            }
+            Object run() throws Exception
+            {
+                try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file.toFile())))
+                {
+                    return in.readObject();
+                }
+            }
+        });
+        cases.add(new Case("saveFormat.save", size)
+        {
+            MineBoard board;
+            Path file = temporaryFile();
+            void setup() {board = size.generated(); board.reveal(size.rows / 2, size.columns / 2);}
+            Object run() throws IOException {SaveFormat.save(board, file); return file;}
+        });
+        cases.add(new Case("saveFormat.load", size)
+        {
+            Path file = temporaryFile();
+            void setup() throws IOException
+            {
+                MineBoard board = size.generated();
+                board.reveal(size.rows / 2, size.columns / 2);
+                SaveFormat.save(board, file);
+            }
+            Object run() throws IOException {return SaveFormat.load(file);}
+        });
+        cases.add(new Case("Solver.analyze", size)
+        {
+            MineBoard board = opened(size);
+            Solver solver;
+            void setup() {solver = new Solver();}
+            Object run() {return solver.analyze(board);}
+        });
+        cases.add(new Case("Solver.analyze.cached", size)
+        {
+            MineBoard board = opened(size);
+            Solver solver = new Solver();
+            Object run() {return solver.analyze(board);}
+        });
+        return cases;
+    }
+
+    /**
+     * Hosts a MinePanel without a window, so the view can be measured without a display.
+     */
+    static class HeadlessHost implements PanelHost
+    {
+        MineBoard board;
+
+        HeadlessHost(MineBoard board) {this.board = board;}
+
+        @Override
+        public MineBoard getModel() {return board;}
+
+        //Moves are made with ModelThread.apply, not by clicking
+        @Override
+        public ModelThread getModelThread() {return null;}
+
+        @Override
+        public boolean isReplaying() {return false;}
+
+        @Override
+        public void showFlagCount(int flags) {}
+
+        @Override
+        public void dynamicResize() {}
+
+        @Override
+        public void showGameOver(String message) {}
+    }
+
+    /**
+     * Builds the cases for the view. The panel is hosted without a window and paints into
+     * an image, so they run headless too. The panel is built on the EDT like the rest of
+     * their work, with its images already loaded.
+     */
+    static List<Case> viewCases() throws Exception
+    {
+        TileAtlas.load().join();
+        List<Case> cases = new ArrayList<>();
+        for (final Size size : new Size[] {SIZES[0], SIZES[1], SIZES[2]})
+        {
+            final HeadlessHost host = new HeadlessHost(size.generated());
+            MinePanel[] built = new MinePanel[1];
+            SwingUtilities.invokeAndWait(() ->
+            {
+                built[0] = new MinePanel(host);
+                built[0].setSize(built[0].getPreferredSize());
+            });
+            final MinePanel panel = built[0];
+            final BufferedImage image = new BufferedImage(panel.getWidth(), panel.getHeight(), BufferedImage.TYPE_INT_RGB);
+            cases.add(new ViewCase("MinePanel.showMove", size)
+            {
+                void setup()
+                {
+                    host.board = size.generated();
+                    panel.refresh();
+                }
+                Object run()
+                {
+                    MoveResult result = ModelThread.apply(host.board, MoveBatch.REVEAL, size.rows / 2, size.columns / 2, null);
+                    panel.showMove(result);
+                    return panel;
+                }
+            });
+            cases.add(new ViewCase("MinePanel.refresh", size)
+            {
+                Object run() {panel.refresh(); return panel;}
+            });
+            cases.add(new ViewCase("MinePanel.paint", size)
+            {
+                Object run()
+                {
+                    Graphics2D g = image.createGraphics();
+                    panel.paint(g);
+                    g.dispose();
+                    return image;
+                }
+            });
+        }
+        return cases;
+    }
+
+    /**
+     * Creates a board of the given size partway through a game: the first click, then a
+     * few more safe tiles, so the solver has a frontier of several components to work on.
+     */
+    static MineBoard opened(Size size)
+    {
+        MineBoard board = size.generated();
+        board.reveal(size.rows / 2, size.columns / 2);
+        java.util.SplittableRandom random = new java.util.SplittableRandom(7);
+        for (int i = 0; i < 4; i++)
+        {
+            int row = random.nextInt(size.rows), col = random.nextInt(size.columns);
+            if (!board.isMine(row, col)) {board.reveal(row, col);}
+        }
+        return board;
+    }
+
+    /**
+     * Serializes a board the way the file menu saves it.
+     */
+    static byte[] serialize(MineBoard board) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(board);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Creates a file for the save benchmarks that is removed when the JVM exits.
+     */
+    static Path temporaryFile()
+    {
+        try
+        {
+            Path file = Files.createTempFile("minesweeper-bench", ".dat");
+            file.toFile().deleteOnExit();
+            return file;
+        }
+        catch (IOException ex)
+        {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Prints the size of a saved game in both formats for every board size.
+     */
+    static void printSaveSizes() throws IOException
+    {
+        System.out.printf("%n%-32s %16s %16s%n", "Save size", "serialized B", "binary B");
+        for (Size size : SIZES)
+        {
+            MineBoard board = size.generated();
+            board.reveal(size.rows / 2, size.columns / 2);
+            System.out.printf("%-32s %16d %16d%n", size, serialize(board).length, SaveFormat.encode(board).remaining());
+        }
+    }
+
+    /**
+     * Warms up and measures a single case.
+     * @return The mean time and allocation per invocation.
+     */
+    static double[] measure(Case c) throws Exception
+    {
+        long threadId = Thread.currentThread().getId();
+
+        for (long end = System.nanoTime() + WARMUP; System.nanoTime() < end; )
+        {
+            c.setup();
+            sink = c.run();
+        }
+
+        //Cases with a slow setup stop on wall-clock time rather than measured time
+        long time = 0, allocated = 0, count = 0, deadline = System.nanoTime() + 10 * TIME;
+        while ((time < TIME && System.nanoTime() < deadline) || count < 5)
+        {
+            c.setup();
+            long bytes = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            sink = c.run();
+            time += System.nanoTime() - start;
+            allocated += THREADS.getThreadAllocatedBytes(threadId) - bytes;
+            count++;
+        }
+        return new double[] {(double)time / count, (double)allocated / count};
+    }
+
+    /**
+     * Measures a case on the event dispatch thread.
+     * @return The mean time and allocation per invocation.
+     */
+    static double[] measureOnEventThread(Case c) throws Exception
+    {
+        double[][] result = new double[1][];
+        Exception[] failure = new Exception[1];
+        SwingUtilities.invokeAndWait(() ->
+        {
+            try
+            {
+                result[0] = measure(c);
+            }
+            catch (Exception ex)
+            {
+                failure[0] = ex;
+            }
+        });
+        if (failure[0] != null) {throw failure[0];}
+        return result[0];
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        String filter = args.length > 0 ? args[0] : "";
+
+        System.out.printf("%-28s %-32s %14s %14s %12s%n", "Benchmark", "Board", "us/op", "B/op", "MB/s");
+        for (Case c : cases())
+        {
+            if (!c.name.contains(filter)) {continue;}
+            double[] result = c.onEventThread() ? measureOnEventThread(c) : measure(c);
+            double microseconds = result[0] / 1000;
+            System.out.printf("%-28s %-32s %14.3f %14.0f %12.1f%n", c.name, c.size, microseconds,
+                result[1], result[1] / microseconds);
+        }
+        printSaveSizes();
+        System.exit(0);
+    }
+}
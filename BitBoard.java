@@ -0,0 +1,317 @@
+/**
+ * A grid of bits stored as rows of 64-bit words, used by the BITBOARD engine of the model.
+ * Bit j of word w in a row stands for column 64 * w + j. Whole-board operations such as
+ * counting neighbouring mines and flood filling work on 64 tiles at a time.
+ */
+public class BitBoard
+{
+    private final int rows, columns, words;
+    private final long lastMask;
+    private final long[] bits;
+    private int minRow, maxRow;
+
+    /**
+     * Creates an empty bitboard.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     */
+    public BitBoard(int rows, int columns)
+    {
+        this.rows = rows;
+        this.columns = columns;
+        words = (columns + 63) >>> 6;
+        lastMask = (columns & 63) == 0 ? -1L : (1L << (columns & 63)) - 1;
+        bits = new long[rows * words];
+        minRow = rows;
+        maxRow = -1;
+    }
+
+    /**
+     * Builds a bitboard with a bit set for every packed tile that has all the given bits.
+     * @param cells The packed tiles of the model, in row-major order.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param mask The tile bits to test for.
+     * @param value The value the masked tile bits must equal.
+     * @return The populated bitboard.
+     */
+    public static BitBoard of(byte[] cells, int rows, int columns, int mask, int value)
+    {
+        BitBoard board = new BitBoard(rows, columns);
+        for (int row = 0, cell = 0; row < rows; row++)
+        {
+            for (int col = 0; col < columns; col++, cell++)
+            {
+                if ((cells[cell] & mask) == value) {board.bits[row * board.words + (col >>> 6)] |= 1L << col;}
+            }
+        }
+        board.minRow = 0;
+        board.maxRow = rows - 1;
+        return board;
+    }
+
+    /**
+     * Sets the bit of the specified tile.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     */
+    public void set(int row, int col)
+    {
+        bits[row * words + (col >>> 6)] |= 1L << col;
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+    }
+
+    /**
+     * Returns True if the bit of the specified tile is set.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     */
+    public boolean get(int row, int col) {return (bits[row * words + (col >>> 6)] & (1L << col)) != 0;}
+
+    /**
+     * Treats this bitboard as the mine layout and writes the number of mines in the 3x3 square
+     * of every tile into the low nibble of its packed cell. The nine planes around a row are
+     * summed with a bit-sliced ripple adder into four count planes, one word at a time.
+     * @param cells The packed tiles of the model, in row-major order.
+     */
+    public void countNeighbours(byte[] cells)
+    {
+        long[] planes = new long[4];
+
+        for (int row = 0; row < rows; row++)
+        {
+            for (int w = 0; w < words; w++)
+            {
+                planes[0] = planes[1] = planes[2] = planes[3] = 0;
+                add(planes, west(row - 1, w));
+                add(planes, word(row - 1, w));
+                add(planes, east(row - 1, w));
+                add(planes, west(row, w));
+                add(planes, word(row, w));
+                add(planes, east(row, w));
+                add(planes, west(row + 1, w));
+                add(planes, word(row + 1, w));
+                add(planes, east(row + 1, w));
+
+                //Only tiles with a mine in their square need their count written
+                long any = planes[0] | planes[1] | planes[2] | planes[3];
+                if (w == words - 1) {any &= lastMask;}
+
+                for (; any != 0; any &= any - 1)
+                {
+                    int j = Long.numberOfTrailingZeros(any);
+                    int count = (int)((planes[0] >>> j) & 1) | (int)((planes[1] >>> j) & 1) << 1
+                        | (int)((planes[2] >>> j) & 1) << 2 | (int)((planes[3] >>> j) & 1) << 3;
+                    int cell = row * columns + (w << 6) + j;
+                    cells[cell] = (byte)((cells[cell] & ~MineBoard.COUNT_MASK) | count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Treats this bitboard as the set of zero-tiles and returns the tiles a reveal of the
+     * specified zero-tile opens: its 8-connected region of zero-tiles plus every tile bordering
+     * that region. The region grows by alternating downward and upward sweeps, each filling
+     * whole runs of a row at once, until a pair of sweeps adds nothing.
+     * @param row The row of the revealed zero-tile.
+     * @param col The column of the revealed zero-tile.
+     * @return The tiles to open, which may include mines bordering the region.
+     */
+    public BitBoard flood(int row, int col)
+    {
+        BitBoard region = new BitBoard(rows, columns);
+        region.set(row, col);
+        long[] seeds = new long[words];
+        boolean changed = true;
+
+        while (changed)
+        {
+            changed = false;
+            for (int r = Math.max(region.minRow - 1, 0); r < rows && r <= region.maxRow + 1; r++)
+            {
+                changed |= grow(region, r, r - 1, seeds);
+            }
+            for (int r = Math.min(region.maxRow + 1, rows - 1); r >= 0 && r >= region.minRow - 1; r--)
+            {
+                changed |= grow(region, r, r + 1, seeds);
+            }
+        }
+        return region.dilate();
+    }
+
+    /**
+     * Returns the next set bit at or after the given tile index, or -1 if there is none.
+     * @param from The row-major tile index to start from.
+     */
+    public int nextSetBit(int from)
+    {
+        int row = from / columns, col = from % columns;
+        if (row < minRow) {row = minRow; col = 0;}
+
+        for (; row <= maxRow; row++, col = 0)
+        {
+            for (int w = col >>> 6; w < words; w++)
+            {
+                long word = bits[row * words + w];
+                if (w == col >>> 6) {word &= -1L << col;}
+                if (word != 0) {return row * columns + (w << 6) + Long.numberOfTrailingZeros(word);}
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Extends the region in one row with the zero-tiles touching the region in the row
+     * itself or in the neighbouring row, filling every run of zero-tiles that is reached.
+     * @return True if the row gained any tiles.
+     */
+    private boolean grow(BitBoard region, int row, int neighbour, long[] seeds)
+    {
+        int base = row * words;
+        boolean touched = false;
+
+        for (int w = 0; w < words; w++)
+        {
+            seeds[w] = region.bits[base + w] | region.west(neighbour, w) | region.word(neighbour, w) | region.east(neighbour, w);
+            touched |= seeds[w] != 0;
+        }
+        if (!touched) {return false;}
+
+        //Fill towards higher columns, carrying across word boundaries
+        long carry = 0;
+        for (int w = 0; w < words; w++)
+        {
+            long zero = bits[base + w];
+            long gen = (seeds[w] | carry) & zero;
+            seeds[w] = fillUp(gen, zero);
+            carry = seeds[w] >>> 63;
+        }
+        //Then towards lower columns, so every run containing a seed is filled completely
+        carry = 0;
+        for (int w = words - 1; w >= 0; w--)
+        {
+            long zero = bits[base + w];
+            long gen = (seeds[w] | (carry << 63)) & zero;
+            seeds[w] = fillDown(gen, zero);
+            carry = seeds[w] & 1;
+        }
+
+        boolean changed = false;
+        for (int w = 0; w < words; w++)
+        {
+            long added = seeds[w] & ~region.bits[base + w];
+            if (added != 0)
+            {
+                region.bits[base + w] |= added;
+                changed = true;
+            }
+        }
+        if (changed)
+        {
+            region.minRow = Math.min(region.minRow, row);
+            region.maxRow = Math.max(region.maxRow, row);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns a new bitboard with every set bit grown into its 3x3 square.
+     */
+    private BitBoard dilate()
+    {
+        BitBoard result = new BitBoard(rows, columns);
+        if (maxRow < 0) {return result;}
+
+        result.minRow = Math.max(minRow - 1, 0);
+        result.maxRow = Math.min(maxRow + 1, rows - 1);
+        for (int row = result.minRow; row <= result.maxRow; row++)
+        {
+            for (int w = 0; w < words; w++)
+            {
+                long word = 0;
+                for (int r = row - 1; r <= row + 1; r++)
+                {
+                    word |= west(r, w) | word(r, w) | east(r, w);
+                }
+                result.bits[row * words + w] = w == words - 1 ? word & lastMask : word;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fills runs of the propagator towards higher bits from the generator (Kogge-Stone).
+     */
+    private static long fillUp(long gen, long pro)
+    {
+        gen |= pro & (gen << 1);
+        pro &= pro << 1;
+        gen |= pro & (gen << 2);
+        pro &= pro << 2;
+        gen |= pro & (gen << 4);
+        pro &= pro << 4;
+        gen |= pro & (gen << 8);
+        pro &= pro << 8;
+        gen |= pro & (gen << 16);
+        pro &= pro << 16;
+        gen |= pro & (gen << 32);
+        return gen;
+    }
+
+    /**
+     * Fills runs of the propagator towards lower bits from the generator (Kogge-Stone).
+     */
+    private static long fillDown(long gen, long pro)
+    {
+        gen |= pro & (gen >>> 1);
+        pro &= pro >>> 1;
+        gen |= pro & (gen >>> 2);
+        pro &= pro >>> 2;
+        gen |= pro & (gen >>> 4);
+        pro &= pro >>> 4;
+        gen |= pro & (gen >>> 8);
+        pro &= pro >>> 8;
+        gen |= pro & (gen >>> 16);
+        pro &= pro >>> 16;
+        gen |= pro & (gen >>> 32);
+        return gen;
+    }
+
+    /**
+     * Adds a plane of single bits into the bit-sliced counter.
+     */
+    private static void add(long[] planes, long carry)
+    {
+        for (int i = 0; i < planes.length && carry != 0; i++)
+        {
+            long next = planes[i] & carry;
+            planes[i] ^= carry;
+            carry = next;
+        }
+    }
+
+    /**
+     * Returns the word of a row, or 0 if the row lies outside the board.
+     */
+    private long word(int row, int w) {return row < 0 || row >= rows ? 0 : bits[row * words + w];}
+
+    /**
+     * Returns the word whose bit for each column holds the bit of the column to its left.
+     */
+    private long west(int row, int w)
+    {
+        long word = word(row, w) << 1;
+        return w > 0 ? word | (word(row, w - 1) >>> 63) : word;
+    }
+
+    /**
+     * Returns the word whose bit for each column holds the bit of the column to its right.
+     */
+    private long east(int row, int w)
+    {
+        long word = word(row, w) >>> 1;
+        return w < words - 1 ? word | (word(row, w + 1) << 63) : word;
+    }
+}
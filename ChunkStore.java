@@ -0,0 +1,157 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The on-disk store of the chunks an InfiniteBoard has evicted. Only what the player changed
+ * is kept: an opened plane with one bit per tile and a mark plane with two bits per tile, laid
+ * out like the planes of SaveFormat. Mines and adjacency counts are never stored because they
+ * are a pure function of the world seed. Every chunk has a fixed-size slot found through an
+ * in-memory index, so a chunk evicted again is rewritten in place. The store is scratch space for one
+ * game and its file is deleted when it is closed.
+ *
+ * Both the index and the file grow with every chunk the player changed, since what was opened
+ * or marked in a chunk must be remembered for as long as the game lasts. The index is an
+ * open-addressing table of primitive keys and slot numbers, 12 bytes per entry at a load
+ * factor between 3/8 and 3/4: 16 to 32 bytes a chunk on the heap, 25 as measured for a
+ * million chunks, against 1,536 bytes in the file and 4,096 in memory for a chunk of 64 x 64
+ * tiles. A million changed chunks, which take millions of moves, cost 25 MB of heap and
+ * 1.5 GB of disk.
+ */
+public class ChunkStore implements Closeable
+{
+    private final FileChannel channel;
+    private final int tiles, bitPlane, markPlane, slotSize;
+    private final ByteBuffer buffer;
+    //The index: the key of every stored chunk and its slot plus one, with 0 marking a free entry
+    private long[] keys = new long[64];
+    private int[] slots = new int[64];
+    private int count;
+
+    /**
+     * Creates an empty store, replacing the file if it exists.
+     * @param path The file holding the chunks.
+     * @param tiles The number of tiles in a chunk.
+     */
+    public ChunkStore(Path path, int tiles) throws IOException
+    {
+        this.tiles = tiles;
+        bitPlane = (tiles + 7) >>> 3;
+        markPlane = (tiles + 3) >>> 2;
+        slotSize = bitPlane + markPlane;
+        buffer = ByteBuffer.allocate(slotSize);
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Returns the number of chunks in the store.
+     */
+    public int size() {return count;}
+
+    /**
+     * Writes the opened and mark bits of a chunk, replacing what was stored for it before.
+     * @param key The key of the chunk.
+     * @param cells The packed tiles of the chunk.
+     */
+    public void write(long key, byte[] cells) throws IOException
+    {
+        int entry = find(key), slot = slots[entry];
+        if (slot == 0)
+        {
+            slot = ++count;
+            keys[entry] = key;
+            slots[entry] = slot;
+            if (count * 4 > slots.length * 3) {grow();}
+        }
+        long position = (long)(slot - 1) * slotSize;
+
+        buffer.clear();
+        for (int cell = 0; cell < tiles; cell += 8)
+        {
+            int open = 0;
+            for (int j = 0, end = Math.min(8, tiles - cell); j < end; j++)
+            {
+                open |= ((cells[cell + j] & MineBoard.OPENED_BIT) >>> 5) << j;
+            }
+            buffer.put((byte)open);
+        }
+        for (int cell = 0; cell < tiles; cell += 4)
+        {
+            int mark = 0;
+            for (int j = 0, end = Math.min(4, tiles - cell); j < end; j++)
+            {
+                mark |= ((cells[cell + j] & MineBoard.MARK_MASK) >>> 6) << (j << 1);
+            }
+            buffer.put((byte)mark);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {channel.write(buffer, position + buffer.position());}
+    }
+
+    /**
+     * Reads the opened and mark bits of a chunk into its tiles, keeping their other bits.
+     * @param key The key of the chunk.
+     * @param cells The packed tiles of the chunk, with no opened or mark bits set.
+     * @return True if the chunk was in the store.
+     */
+    public boolean read(long key, byte[] cells) throws IOException
+    {
+        int slot = slots[find(key)];
+        if (slot == 0) {return false;}
+        long position = (long)(slot - 1) * slotSize;
+
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {}
+        buffer.flip();
+
+        int marks = bitPlane;
+        for (int cell = 0; cell < tiles; cell++)
+        {
+            int open = (buffer.get(cell >>> 3) >>> (cell & 7)) & 1;
+            int mark = (buffer.get(marks + (cell >>> 2)) >>> ((cell & 3) << 1)) & 3;
+            cells[cell] |= (byte)(open << 5 | mark << 6);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the entry of the index holding a key, or the free entry where it belongs.
+     */
+    private int find(long key)
+    {
+        int mask = slots.length - 1;
+        //The high bits of a multiplicative hash, since neighbouring chunks differ in the low ones
+        int entry = (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (slots[entry] != 0 && keys[entry] != key) {entry = (entry + 1) & mask;}
+        return entry;
+    }
+
+    /**
+     * Doubles the index, placing every entry again.
+     */
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldKeys.length * 2];
+        slots = new int[oldSlots.length * 2];
+        for (int i = 0; i < oldSlots.length; i++)
+        {
+            if (oldSlots[i] == 0) {continue;}
+            int entry = find(oldKeys[i]);
+            keys[entry] = oldKeys[i];
+            slots[entry] = oldSlots[i];
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Plays the game in a terminal, for servers with no display. Only the model and a
+ * TerminalView are used, so no AWT classes are ever loaded.
+ *
+ * Keys: the arrows or h j k l move the cursor, and H J K L move it eight tiles. Space or
+ * Enter reveals the tile under the cursor, or chords it if it is open, and f cycles its
+ * mark. u and r undo and redo, n starts a new game, Ctrl-L redraws the screen after the
+ * terminal is resized, and q quits.
+ *
+ * The terminal is switched out of line mode with stty while the game runs. Without stty
+ * the keys are still read, but each line needs Enter. The outcome of every game is recorded
+ * in the same statistics as the window's.
+ *
+ * An endless game is played on an InfiniteBoard of the given mine density, with the cursor
+ * free to go anywhere. It has no undo and no statistics, and the chunks it evicts from
+ * memory go to a temporary file that is deleted when the game ends.
+ *
+ * Usage: java ConsoleGame [rows columns mines | endless [density]]
+ */
+public class ConsoleGame
+{
+    /** The mine density of an endless game when none is given, about that of Expert. */
+    public static final double ENDLESS_DENSITY = 0.2;
+
+    private final int rows, columns, mines;
+    //The mine density of an endless game, or 0 for a game on a MineBoard
+    private final double density;
+    private final TerminalView view;
+    private final StatsStore stats;
+    private MineBoard board;
+    private InfiniteBoard endless;
+    private MoveHistory history;
+    private String message = "";
+    //When the first click was made, the clicks, and whether the outcome is recorded
+    private long gameStart;
+    private int clicks;
+    private boolean recorded;
+
+    private ConsoleGame(int rows, int columns, int mines, double density, TerminalView view, StatsStore stats) throws IOException
+    {
+        this.rows = rows;
+        this.columns = columns;
+        this.mines = mines;
+        this.density = density;
+        this.view = view;
+        this.stats = stats;
+        newGame();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        boolean isEndless = args.length > 0 && args[0].equals("endless");
+        int rows = args.length > 2 && !isEndless ? Integer.parseInt(args[0]) : 16;
+        int columns = args.length > 2 && !isEndless ? Integer.parseInt(args[1]) : 30;
+        int mines = args.length > 2 && !isEndless ? Integer.parseInt(args[2]) : 99;
+        double density = !isEndless ? 0 : args.length > 1 ? Double.parseDouble(args[1]) : ENDLESS_DENSITY;
+        try
+        {
+            if (isEndless) {InfiniteBoard.validate(density);}
+            else {MineBoard.validate(rows, columns, mines);}
+        }
+        catch (IllegalArgumentException ex)
+        {
+            System.out.println(ex.getMessage());
+            System.out.println("Usage: java ConsoleGame [rows columns mines | endless [density]]");
+            return;
+        }
+
+        StatsStore stats = null;
+        try
+        {
+            stats = new StatsStore(StatsStore.DEFAULT_DIRECTORY);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Statistics disabled: " + ex.getMessage());
+        }
+
+        String saved = stty("-g");
+        if (saved != null) {stty("-icanon -echo min 1");}
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        int[] size = terminalSize();
+        TerminalView view = new TerminalView(out, size[0], size[1]);
+        ConsoleGame game = null;
+        try
+        {
+            game = new ConsoleGame(rows, columns, mines, density, view, stats);
+            game.play(System.in);
+        }
+        finally
+        {
+            if (game != null && game.endless != null) {game.endless.close();}
+            view.close();
+            if (stats != null) {stats.close();}
+            if (saved != null) {stty(saved.trim());}
+        }
+    }
+
+    /**
+     * Reads keys and makes moves until the player quits or the input ends.
+     */
+    private void play(InputStream in) throws IOException
+    {
+        render();
+        for (int key; (key = in.read()) >= 0;)
+        {
+            int row = view.getCursorRow(), column = view.getCursorColumn();
+            message = "";
+            switch (key)
+            {
+                case 27:
+                    //An arrow is ESC [ and a letter
+                    if (in.read() != '[') {break;}
+                    switch (in.read())
+                    {
+                        case 'A': view.setCursor(row - 1, column);
+                            break;
+                        case 'B': view.setCursor(row + 1, column);
+                            break;
+                        case 'C': view.setCursor(row, column + 1);
+                            break;
+                        case 'D': view.setCursor(row, column - 1);
+                            break;
+                    }
+                    break;
+                case 'k': view.setCursor(row - 1, column);
+                    break;
+                case 'j': view.setCursor(row + 1, column);
+                    break;
+                case 'l': view.setCursor(row, column + 1);
+                    break;
+                case 'h': view.setCursor(row, column - 1);
+                    break;
+                case 'K': view.setCursor(row - 8, column);
+                    break;
+                case 'J': view.setCursor(row + 8, column);
+                    break;
+                case 'L': view.setCursor(row, column + 8);
+                    break;
+                case 'H': view.setCursor(row, column - 8);
+                    break;
+                case ' ':
+                case '\r':
+                case '\n': move(row, column, true);
+                    break;
+                case 'f': move(row, column, false);
+                    break;
+                case 'u':
+                    if (endless != null) {message = "An endless game cannot be undone";}
+                    else if (history.undo() < 0) {message = "Nothing to undo";}
+                    break;
+                case 'r':
+                    if (endless != null) {message = "An endless game cannot be undone";}
+                    else if (history.redo() < 0) {message = "Nothing to redo";}
+                    break;
+                case 'n': newGame();
+                    break;
+                case 12:
+                    int[] size = terminalSize();
+                    view.resize(size[0], size[1]);
+                    break;
+                case 'q': return;
+            }
+            render();
+        }
+    }
+
+    /**
+     * Reveals, chords or marks a tile, unless the game is over.
+     */
+    private void move(int row, int column, boolean reveal)
+    {
+        if (endless != null)
+        {
+            moveEndless(row, column, reveal);
+            return;
+        }
+        if (board.isGameOver()) {return;}
+        history.begin();
+        if (!reveal) {board.cycleMark(row, column);}
+        else if (board.isOpened(row, column)) {board.chord(row, column);}
+        else {board.reveal(row, column);}
+        history.commit(row, column);
+        if (board.isGameOver() && board.getMineCount() > 0) {showExploded(row, column);}
+
+        long now = System.currentTimeMillis();
+        if (clicks++ == 0) {gameStart = now;}
+        //A game ended again after an undo keeps its first outcome
+        if (board.isGameOver() && !recorded && stats != null)
+        {
+            recorded = true;
+            try
+            {
+                stats.append(new GameRecord(board, gameStart, now, clicks));
+                stats.flush();
+            }
+            catch (IOException ex)
+            {
+                message = "The game could not be recorded";
+            }
+        }
+    }
+
+    /**
+     * Reveals, chords or marks a tile of an endless game, unless it is over.
+     */
+    private void moveEndless(int row, int column, boolean reveal)
+    {
+        if (endless.isGameOver()) {return;}
+        if (!reveal) {endless.cycleMark(row, column);}
+        else if (endless.isOpened(row, column)) {endless.chord(row, column);}
+        else {endless.reveal(row, column);}
+        if (!endless.isGameOver()) {return;}
+
+        //As on a MineBoard, the mine that lost is the tile revealed or the first one the chord reached
+        for (int i = row - 1; i <= row + 1; i++)
+        {
+            for (int j = column - 1; j <= column + 1; j++)
+            {
+                boolean clicked = i == row && j == column;
+                if ((clicked || endless.isOpened(row, column)) && endless.isMine(i, j) && endless.getState(i, j) != MineBoard.FLAGGED)
+                {
+                    view.setExploded(i, j);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the mine that lost the game: the tile revealed, or for a chord the first unflagged
+     * mine around it, which is where the chord stopped.
+     */
+    private void showExploded(int row, int column)
+    {
+        for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++)
+        {
+            for (int j = Math.max(column - 1, 0); j <= Math.min(column + 1, columns - 1); j++)
+            {
+                boolean clicked = i == row && j == column;
+                if ((clicked || board.isOpened(row, column)) && board.isMine(i, j) && board.getState(i, j) != MineBoard.FLAGGED)
+                {
+                    view.setExploded(i, j);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void newGame() throws IOException
+    {
+        if (density > 0)
+        {
+            if (endless != null) {endless.close();}
+            endless = new InfiniteBoard(new SplittableRandom().nextLong(), density);
+            view.setBoard(endless);
+            return;
+        }
+        if (history != null) {history.detach();}
+        board = new MineBoard(rows, columns, mines);
+        history = new MoveHistory(board, MoveHistory.DEFAULT_BUDGET);
+        view.setBoard(board);
+        clicks = 0;
+        recorded = false;
+    }
+
+    /**
+     * Shows the status line and brings the terminal up to date.
+     */
+    private void render() throws IOException
+    {
+        if (endless != null)
+        {
+            view.setStatus(String.format(" Opened %d  Flags %d  (%d, %d)%s  %s", endless.getOpenedCount(), endless.getFlagCount(),
+                view.getCursorRow(), view.getCursorColumn(), endless.isGameOver() ? "  Game Over" : "",
+                message.isEmpty() ? "q quits, f flags, n starts again" : message));
+            view.render();
+            return;
+        }
+        String state = !board.isGameOver() ? "" : board.getMineCount() == 0 ? "  You Win!" : "  Game Over";
+        view.setStatus(String.format(" Flags %d  %d x %d  (%d, %d)%s  %s", board.getFlagCount(), rows, columns,
+            view.getCursorRow() + 1, view.getCursorColumn() + 1, state, message.isEmpty() ? "q quits, f flags, u undoes" : message));
+        view.render();
+    }
+
+    /**
+     * Returns the lines and columns of the terminal, from stty, the environment or 24 x 80.
+     */
+    private static int[] terminalSize()
+    {
+        String size = stty("size");
+        if (size != null)
+        {
+            String[] parts = size.trim().split("\\s+");
+            if (parts.length == 2) {return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};}
+        }
+        return new int[] {Integer.getInteger("lines", parse(System.getenv("LINES"), 24)),
+            Integer.getInteger("columns", parse(System.getenv("COLUMNS"), 80))};
+    }
+
+    private static int parse(String value, int fallback)
+    {
+        try
+        {
+            return value == null ? fallback : Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            return fallback;
+        }
+    }
+
+    /**
+     * Runs stty on the controlling terminal.
+     * @param arguments The arguments to pass.
+     * @return What it printed, or null if it failed, such as when there is no terminal.
+     */
+    private static String stty(String arguments)
+    {
+        try
+        {
+            Process stty = new ProcessBuilder("sh", "-c", "stty " + arguments + " < /dev/tty").redirectErrorStream(true).start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            stty.getInputStream().transferTo(output);
+            return stty.waitFor() == 0 ? output.toString(StandardCharsets.US_ASCII) : null;
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
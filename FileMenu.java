@@ -5,7 +5,7 @@ import java.io.*;
 
 /**
  * This class acts as a menu for the player. Here they can change the difficult,
- * save and load the game, or exit.
+ * save and load the game, undo and redo moves, watch replays, see their statistics, or exit.
  */
 public class FileMenu extends JMenuBar implements ActionListener
 {
@@ -13,11 +13,10 @@ public class FileMenu extends JMenuBar implements ActionListener
     private JFileChooser fileChooser;
     private File file;
     private MineFrame frame;
-    private JMenuItem easy, medium, hard, loadItem, exitItem, saveItem;
-    private FileNameExtensionFilter filter;
-    private JMenu menu, newGameMenu;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    private JMenuItem easy, medium, hard, loadItem, exitItem, saveItem, replayItem, statsItem, undoItem, redoItem;
+    private JCheckBoxMenuItem noGuessItem;
+    private FileNameExtensionFilter filter, replayFilter;
+    private JMenu menu, newGameMenu, editMenu;
 
     public FileMenu(MineFrame frame)
     {
@@ -26,29 +25,49 @@ public class FileMenu extends JMenuBar implements ActionListener
         exitItem = new JMenuItem("Quit Game");
         saveItem = new JMenuItem("Save Game");
         loadItem = new JMenuItem("Load Game");
+        replayItem = new JMenuItem("Watch Replay");
+        statsItem = new JMenuItem("Statistics");
+        undoItem = new JMenuItem("Undo");
+        undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+        redoItem = new JMenuItem("Redo");
+        redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
         
         easy = new JMenuItem("Beginner: 10 x 10. 10 Mines");
         medium = new JMenuItem("Intermdiate: 16 x 16. 40 Mines");
         hard = new JMenuItem("Expert: 16 x 30. 99 Mines");
+        noGuessItem = new JCheckBoxMenuItem("No Guessing Required");
         filter = new FileNameExtensionFilter("Saved Game Data", "dat");
+        replayFilter = new FileNameExtensionFilter("Game Replays", Replay.EXTENSION);
         menu = new JMenu("File");
         newGameMenu = new JMenu("New Game");
+        editMenu = new JMenu("Edit");
 
         add(menu);
+        add(editMenu);
+        editMenu.add(undoItem);
+        editMenu.add(redoItem);
         menu.add(newGameMenu);
         menu.add(saveItem);
         menu.add(loadItem);
+        menu.add(replayItem);
+        menu.add(statsItem);
 
         menu.add(exitItem);
         newGameMenu.add(easy);
         newGameMenu.add(medium);
         newGameMenu.add(hard);
+        newGameMenu.addSeparator();
+        newGameMenu.add(noGuessItem);
 
         easy.addActionListener(this);
         medium.addActionListener(this);
         hard.addActionListener(this);
         saveItem.addActionListener(this);  
         loadItem.addActionListener(this);
+        replayItem.addActionListener(this);
+        statsItem.addActionListener(this);
+        undoItem.addActionListener(this);
+        redoItem.addActionListener(this);
         exitItem.addActionListener(this);  
     }
 
@@ -71,15 +90,15 @@ public class FileMenu extends JMenuBar implements ActionListener
         //This block of if-else statements handles player decisions.
         if (temp.equals(easy))
         {   
-            board = new MineBoard(10,10,10);
+            board = newBoard(10,10,10);
         }
         else if (temp.equals(medium))
         {
-            board = new MineBoard(16,16,40);
+            board = newBoard(16,16,40);
         }
         else if (temp.equals(hard))
         {
-            board = new MineBoard(16,30,99);
+            board = newBoard(16,30,99);
         }
         else if (temp.equals(exitItem))
         {
@@ -98,21 +117,13 @@ public class FileMenu extends JMenuBar implements ActionListener
                     {
                         throw new Exception("The File Specified Does Not Exist");
                     }     
-                    in = new ObjectInputStream(new FileInputStream(file.getPath()));
-                    board = (MineBoard)in.readObject();
-                    in.close();
+                    board = SaveFormat.load(file.toPath());
                 }
                 else
                 {
                     throw new Exception("No File Was Selected");
                 }
             }         
-            catch (ClassNotFoundException ex)
-            {
-                errorMessage = "Valid Game Data Not Found";
-                JOptionPane.showMessageDialog(null, errorMessage,"Error", JOptionPane.ERROR_MESSAGE);
-                board = frame.getModel();
-            }
             catch (ObjectStreamException ex)
             {
                 errorMessage = "This File Cannot Be Loaded";
@@ -130,6 +141,8 @@ public class FileMenu extends JMenuBar implements ActionListener
         else if (temp.equals(saveItem))
         {
             saved = true;
+            //A replay being watched is closed, so the game itself is saved
+            frame.stopReplay();
             //Error handling for any possible issue(s) while saving a file.
             try
             {
@@ -137,14 +150,9 @@ public class FileMenu extends JMenuBar implements ActionListener
                 if (fileVal == JFileChooser.APPROVE_OPTION)
                 {
                     file = fileChooser.getSelectedFile();
-                    
-                    if (!file.exists())
-                    {
-                        file.createNewFile();
-                    }
-                    out = new ObjectOutputStream(new FileOutputStream(file.getPath()));
-                    out.writeObject(frame.getModel());
-                    out.close();
+                    //Saved on the model thread, after the moves already queued
+                    frame.getModelThread().save(frame.getModel(), file.toPath(), ex ->
+                        JOptionPane.showMessageDialog(null, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
                 }
             }               
             catch (Exception ex)
@@ -153,14 +161,105 @@ public class FileMenu extends JMenuBar implements ActionListener
             }
         }
         
-        //Any event other than saving requires updating the frame/board
-        if (!saved) 
+        else if (temp.equals(undoItem) || temp.equals(redoItem))
+        {
+            saved = true;
+            //The moves are taken back on the model thread, and shown like any other move
+            if (!frame.isReplaying() && temp.equals(undoItem))
+            {
+                frame.getModelThread().undo(frame.getModel(), frame.getPanel()::showMove);
+            }
+            else if (!frame.isReplaying())
+            {
+                frame.getModelThread().redo(frame.getModel(), frame.getPanel()::showMove);
+            }
+        }
+
+        else if (temp.equals(replayItem))
+        {
+            saved = true;
+            fileChooser.removeChoosableFileFilter(filter);
+            fileChooser.setFileFilter(replayFilter);
+            if (ReplayRecorder.DEFAULT_DIRECTORY.toFile().isDirectory())
+            {
+                fileChooser.setCurrentDirectory(ReplayRecorder.DEFAULT_DIRECTORY.toFile());
+            }
+            try
+            {
+                if (fileChooser.showOpenDialog(temp) == JFileChooser.APPROVE_OPTION)
+                {
+                    frame.playReplay(Replay.read(fileChooser.getSelectedFile().toPath()));
+                }
+            }
+            catch (IOException ex)
+            {
+                errorMessage = "This Replay Cannot Be Loaded: " + ex.getMessage();
+                JOptionPane.showMessageDialog(null, errorMessage,"Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        else if (temp.equals(statsItem))
+        {
+            saved = true;
+            showStats();
+        }
+        
+        //Any event other than saving requires updating the frame/board, unless a load failed
+        if (!saved && board != frame.getModel()) 
         {
             frame.setModel(board);
             updateFrame();
         }
     }
 
+    /**
+     * Shows the win rates and the best times of the current difficulty, and the overall win rate.
+     */
+    private void showStats()
+    {
+        StatsStore stats = frame.getStats();
+        if (stats == null)
+        {
+            JOptionPane.showMessageDialog(null, "Statistics Are Not Available", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        MineBoard board = frame.getModel();
+        int rows = board.getRows(), columns = board.getColumns(), mines = board.getTotalMines();
+        StringBuilder text = new StringBuilder();
+        try
+        {
+            if (stats.getGames(rows, columns, mines) == 0) {text.append(String.format("%d x %d, %d Mines: No Games Yet%n", rows, columns, mines));}
+            else
+            {
+                text.append(String.format("%d x %d, %d Mines: %d Games, %.1f%% Won, %.1f%% of the Last 100%n", rows, columns, mines,
+                    stats.getGames(rows, columns, mines), 100 * stats.getWinRate(rows, columns, mines, Integer.MAX_VALUE),
+                    100 * stats.getWinRate(rows, columns, mines, 100)));
+            }
+            int place = 1;
+            for (GameRecord game : stats.getBestTimes(rows, columns, mines, 10))
+            {
+                text.append(String.format("%2d.  %.3f s  %tF%n", place++, game.getDuration() / 1000.0, game.getEndTime()));
+            }
+            if (stats.size() > 0) {text.append(String.format("%nAll Games: %d, %.1f%% of the Last 10000 Won", stats.size(), 100 * stats.getWinRate(10000)));}
+        }
+        catch (IOException ex)
+        {
+            JOptionPane.showMessageDialog(null, "Statistics Cannot Be Read: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JOptionPane.showMessageDialog(null, text.toString(), "Statistics", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /**
+     * Creates the board of a new game, laid out without guesses if the player asked for it.
+     */
+    private MineBoard newBoard(int rows, int columns, int mines)
+    {
+        MineBoard board = new MineBoard(rows, columns, mines);
+        board.setNoGuess(noGuessItem.isSelected());
+        return board;
+    }
+
     /**
      * Updates the contents of the frame
      */
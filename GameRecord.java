@@ -0,0 +1,135 @@
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * The outcome of a finished game, as kept by a StatsStore. On disk every record takes exactly
+ * RECORD_SIZE bytes, big-endian:
+ *
+ *   0  long   when the game ended, in milliseconds since the epoch
+ *   8  long   the seed of the board
+ *  16  int    how long the game took, in milliseconds from the first click to the last
+ *  20  int    rows
+ *  24  int    columns
+ *  28  int    mines
+ *  32  int    clicks
+ *  36  byte   WON and NO_GUESS bits
+ *  37  byte   unused, zero
+ *  38  short  the low 16 bits of the CRC-32 of the 38 bytes before it
+ *
+ * The check catches a record cut short or left half written by a crash.
+ */
+public class GameRecord
+{
+    public static final int RECORD_SIZE = 40;
+    private static final int WON = 1, NO_GUESS = 2;
+
+    private final long endTime, seed;
+    private final int duration, rows, columns, mines, clicks;
+    private final boolean won, noGuess;
+
+    /**
+     * Creates a record.
+     * @param endTime When the game ended, in milliseconds since the epoch.
+     * @param seed The seed of the board.
+     * @param duration How long the game took, in milliseconds.
+     * @param rows The number of rows of the board.
+     * @param columns The number of columns of the board.
+     * @param mines The number of mines of the board.
+     * @param clicks The number of clicks the player made.
+     * @param won True if the game was won.
+     * @param noGuess True if the board could be solved without guessing.
+     */
+    public GameRecord(long endTime, long seed, int duration, int rows, int columns, int mines, int clicks, boolean won, boolean noGuess)
+    {
+        this.endTime = endTime;
+        this.seed = seed;
+        this.duration = duration;
+        this.rows = rows;
+        this.columns = columns;
+        this.mines = mines;
+        this.clicks = clicks;
+        this.won = won;
+        this.noGuess = noGuess;
+    }
+
+    /**
+     * Creates the record of a board whose game is over.
+     * @param board The board.
+     * @param startTime When the first click was made, in milliseconds since the epoch.
+     * @param endTime When the last click was made, in milliseconds since the epoch.
+     * @param clicks The number of clicks the player made.
+     */
+    public GameRecord(MineBoard board, long startTime, long endTime, int clicks)
+    {
+        this(endTime, board.getSeed(), (int)Math.min(Integer.MAX_VALUE, Math.max(0, endTime - startTime)), board.getRows(),
+            board.getColumns(), board.getTotalMines(), clicks, board.isGameOver() && board.getMineCount() == 0, board.isNoGuess());
+    }
+
+    /**
+     * Writes the record at the position of a buffer, which is moved past it.
+     */
+    void write(ByteBuffer buffer)
+    {
+        int start = buffer.position();
+        buffer.putLong(endTime).putLong(seed).putInt(duration).putInt(rows).putInt(columns).putInt(mines).putInt(clicks)
+            .put((byte)((won ? WON : 0) | (noGuess ? NO_GUESS : 0))).put((byte)0);
+        buffer.putShort((short)check(buffer, start));
+    }
+
+    /**
+     * Reads the record at the position of a buffer, which is moved past it.
+     * @return The record, or null if its check does not match.
+     */
+    static GameRecord read(ByteBuffer buffer)
+    {
+        int start = buffer.position();
+        if (buffer.getShort(start + RECORD_SIZE - 2) != (short)check(buffer, start))
+        {
+            buffer.position(start + RECORD_SIZE);
+            return null;
+        }
+        long endTime = buffer.getLong(), seed = buffer.getLong();
+        int duration = buffer.getInt(), rows = buffer.getInt(), columns = buffer.getInt(), mines = buffer.getInt(), clicks = buffer.getInt();
+        int bits = buffer.get();
+        buffer.position(start + RECORD_SIZE);
+        return new GameRecord(endTime, seed, duration, rows, columns, mines, clicks, (bits & WON) != 0, (bits & NO_GUESS) != 0);
+    }
+
+    private static int check(ByteBuffer buffer, int start)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(start).limit(start + RECORD_SIZE - 2));
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Returns when the game ended, in milliseconds since the epoch.
+     */
+    public long getEndTime() {return endTime;}
+
+    public long getSeed() {return seed;}
+
+    /**
+     * Returns how long the game took, in milliseconds from the first click to the last.
+     */
+    public int getDuration() {return duration;}
+
+    public int getRows() {return rows;}
+
+    public int getColumns() {return columns;}
+
+    public int getMines() {return mines;}
+
+    public int getClicks() {return clicks;}
+
+    public boolean isWon() {return won;}
+
+    public boolean isNoGuess() {return noGuess;}
+
+    @Override
+    public String toString()
+    {
+        return String.format("%dx%d/%d %s in %.3f s, %d clicks, seed %d", rows, columns, mines, won ? "won" : "lost",
+            duration / 1000.0, clicks, seed);
+    }
+}
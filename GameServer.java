@@ -0,0 +1,687 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hosts many games of Minesweeper over TCP. A single thread drives every connection with a
+ * selector, so an idle client costs a socket and a small object rather than a thread and its
+ * stack. Reads go through one shared buffer, and a connection only keeps a buffer of its own
+ * while it holds half a request or output the client has not taken yet.
+ *
+ * Every message is a frame of big-endian numbers:
+ *
+ * <pre>
+ * size  field
+ *  4    length of the rest of the frame
+ *  1    opcode
+ *  4    session id, ignored by CREATE and LOAD
+ *  ...  payload
+ * </pre>
+ *
+ * Requests and their payloads:
+ *
+ * <pre>
+ * CREATE    rows, columns, mines (ints), seed (long), no-guess (byte)
+ * REVEAL, FLAG, QUESTION, HIDE, CHORD, CYCLE
+ *           row, column (ints)
+ * MOVES     count (int), then count times: kind (byte, a MoveBatch constant), row, column (ints)
+ * SAVE      nothing
+ * LOAD      a board in SaveFormat
+ * CLOSE     nothing
+ * </pre>
+ *
+ * Each request gets exactly one reply, in order:
+ *
+ * <pre>
+ * SESSION   rows, columns, mines (ints); the reply to CREATE and LOAD
+ * DELTA     status (byte, bit 0 game over), flags available, tiles opened, count (ints),
+ *           then count times: tile (int, row-major), state (byte, as MineBoard.getState)
+ * SAVED     the board in SaveFormat
+ * CLOSED    nothing
+ * ERROR     length (short), then a UTF-8 message
+ * </pre>
+ *
+ * A move replies with every tile it changed in one DELTA, so a cascading reveal or a whole
+ * MOVES batch is a single message. The replies to every request read in one go are sent
+ * with one write. A session belongs to the connection that created it, and is dropped when
+ * that connection closes. Sessions are kept by a SessionManager, which passivates idle games
+ * once the boards outgrow its memory budget and brings them back on their next request.
+ * The first REVEAL of a no-guess game searches for its layout on the workers of a
+ * NoGuessGenerator rather than on the server's thread. Its connection answers nothing more
+ * until the search is done, so replies stay in order while every other connection is served.
+ * A MOVES batch cannot make that first reveal.
+ */
+public class GameServer implements Runnable, Closeable
+{
+    public static final int DEFAULT_PORT = 7777;
+
+    public static final byte CREATE = 1;
+    public static final byte REVEAL = 2;
+    public static final byte FLAG = 3;
+    public static final byte QUESTION = 4;
+    public static final byte HIDE = 5;
+    public static final byte CHORD = 6;
+    public static final byte CYCLE = 7;
+    public static final byte MOVES = 8;
+    public static final byte SAVE = 9;
+    public static final byte LOAD = 10;
+    public static final byte CLOSE = 11;
+
+    public static final byte SESSION = (byte)0x81;
+    public static final byte DELTA = (byte)0x82;
+    public static final byte SAVED = (byte)0x83;
+    public static final byte CLOSED = (byte)0x84;
+    public static final byte ERROR = (byte)0xFF;
+
+    /** The largest frame accepted, after its length field. */
+    public static final int MAX_FRAME = 1 << 24;
+    /** The most tiles a hosted board may have. */
+    public static final int MAX_TILES = 1 << 22;
+    /** The most sessions one connection may hold at once. */
+    public static final int MAX_SESSIONS = 64;
+    /** The memory budget of the boards when no SessionManager is given, in bytes. */
+    public static final long DEFAULT_BUDGET = 256L << 20;
+    private static final int HEADER = 9;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final SessionManager sessions;
+    private final NoGuessGenerator generator = new NoGuessGenerator(Runtime.getRuntime().availableProcessors());
+    private final Map<Integer, Connection> owners = new HashMap<>();
+    //No-guess first clicks whose search is done, to be made on the server's thread
+    private final Queue<Runnable> searched = new ConcurrentLinkedQueue<>();
+    //Boards lose their listeners when passivated, so this one is only added around a move
+    private final TileListener capture = changes -> last = changes;
+    private TileChanges last;
+    private final ByteBuffer input = ByteBuffer.allocateDirect(1 << 16);
+    private ByteBuffer output = ByteBuffer.allocate(1 << 16);
+    private int connections;
+    private long requests;
+    private volatile boolean closed;
+
+    /**
+     * A client. Both buffers are null while the connection is idle.
+     */
+    private static final class Connection
+    {
+        final SocketChannel channel;
+        //The start of a request that has not fully arrived, in write mode
+        ByteBuffer partial;
+        //Replies the client has not taken yet, in read mode
+        ByteBuffer pending;
+        List<Integer> owned;
+        //True while the layout of a no-guess game is searched for; no requests are answered meanwhile
+        boolean searching;
+
+        Connection(SocketChannel channel) {this.channel = channel;}
+    }
+
+    /**
+     * Creates a server listening on the given address, keeping its boards within
+     * DEFAULT_BUDGET. Call run to serve clients.
+     * @param address The address to bind; port 0 picks a free port.
+     */
+    public GameServer(InetSocketAddress address) throws IOException
+    {
+        this(address, new SessionManager(DEFAULT_BUDGET));
+    }
+
+    /**
+     * Creates a server listening on the given address. Call run to serve clients.
+     * @param address The address to bind; port 0 picks a free port.
+     * @param sessions Keeps the boards of the games being played.
+     */
+    public GameServer(InetSocketAddress address, SessionManager sessions) throws IOException
+    {
+        this.sessions = sessions;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address, 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Serves clients until the server is closed.
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (!closed)
+            {
+                selector.select();
+                for (Runnable reveal; (reveal = searched.poll()) != null; ) {reveal.run();}
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try
+                    {
+                        if (!key.isValid()) {continue;}
+                        if (key.isAcceptable()) {accept();}
+                        else
+                        {
+                            if (key.isWritable()) {write(key);}
+                            if (key.isValid() && key.isReadable()) {read(key);}
+                        }
+                    }
+                    catch (IOException ex)
+                    {
+                        //The client went away or broke the protocol; only that connection is lost.
+                        //A failed accept, such as running out of files, is retried on the next select
+                        if (key.attachment() != null) {disconnect(key);}
+                    }
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            if (!closed) {throw new UncheckedIOException(ex);}
+        }
+        finally
+        {
+            shutDown();
+        }
+    }
+
+    private void shutDown()
+    {
+        try
+        {
+            for (SelectionKey key : selector.keys()) {key.channel().close();}
+            selector.close();
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException(ex);
+        }
+        for (int id : owners.keySet()) {discard(id);}
+        owners.clear();
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null)
+        {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+            connections++;
+        }
+    }
+
+    /**
+     * Reads what has arrived, answers every complete request and sends the replies at once.
+     */
+    private void read(SelectionKey key) throws IOException
+    {
+        Connection connection = (Connection)key.attachment();
+        input.clear();
+        if (connection.channel.read(input) < 0)
+        {
+            disconnect(key);
+            return;
+        }
+        input.flip();
+
+        ByteBuffer in = input;
+        if (connection.partial != null)
+        {
+            connection.partial = append(connection.partial, input);
+            connection.partial.flip();
+            in = connection.partial;
+        }
+
+        output.clear();
+        answer(connection, in);
+        output.flip();
+        send(key, connection);
+    }
+
+    /**
+     * Answers every complete request in a buffer, stopping early at one that waits for a
+     * no-guess search, and keeps the rest for later.
+     */
+    private void answer(Connection connection, ByteBuffer in) throws IOException
+    {
+        while (!connection.searching && in.remaining() >= 4)
+        {
+            int length = in.getInt(in.position());
+            if (length < HEADER - 4 || length > MAX_FRAME) {throw new IOException("Bad frame length " + length);}
+            if (in.remaining() < 4 + length) {break;}
+            handle(connection, in.slice(in.position() + 4, length));
+            in.position(in.position() + 4 + length);
+        }
+
+        //Keep the start of an unfinished request; the shared buffer is reused by the next read
+        if (!in.hasRemaining()) {connection.partial = null;}
+        else if (in == connection.partial) {connection.partial.compact();}
+        else {connection.partial = append(ByteBuffer.allocate(Math.max(in.remaining(), 256)), in);}
+    }
+
+    /**
+     * Sends the replies in the output buffer after any the client has not taken yet. While
+     * replies are waiting, or a search is, the connection stops reading, so a client that
+     * does not read cannot make the server buffer without limit.
+     */
+    private void send(SelectionKey key, Connection connection) throws IOException
+    {
+        if (output.hasRemaining())
+        {
+            if (connection.pending == null)
+            {
+                connection.channel.write(output);
+                if (output.hasRemaining()) {connection.pending = append(ByteBuffer.allocate(output.remaining()), output);}
+            }
+            else
+            {
+                connection.pending.compact();
+                connection.pending = append(connection.pending, output);
+            }
+            if (connection.pending != null) {connection.pending.flip();}
+        }
+        interest(key, connection);
+    }
+
+    private void write(SelectionKey key) throws IOException
+    {
+        Connection connection = (Connection)key.attachment();
+        connection.channel.write(connection.pending);
+        if (connection.pending.hasRemaining()) {return;}
+        connection.pending = null;
+        interest(key, connection);
+    }
+
+    private static void interest(SelectionKey key, Connection connection)
+    {
+        if (connection.pending != null) {key.interestOps(SelectionKey.OP_WRITE);}
+        else {key.interestOps(connection.searching ? 0 : SelectionKey.OP_READ);}
+    }
+
+    private void disconnect(SelectionKey key)
+    {
+        Connection connection = (Connection)key.attachment();
+        key.cancel();
+        try
+        {
+            connection.channel.close();
+        }
+        catch (IOException ex)
+        {
+            //Nothing more can be done with it
+        }
+        if (connection.owned != null)
+        {
+            for (int id : connection.owned)
+            {
+                discard(id);
+                owners.remove(id);
+            }
+        }
+        connections--;
+    }
+
+    /**
+     * Ends a session whose client is gone, leaving behind any spill file that cannot be
+     * deleted.
+     */
+    private void discard(int id)
+    {
+        try
+        {
+            sessions.remove(id);
+        }
+        catch (IOException ex)
+        {
+            //Nothing more can be done with it
+        }
+    }
+
+    /**
+     * Answers one request, writing its reply to the output buffer. A request that cannot be
+     * carried out is answered with an ERROR.
+     * @param frame The request after its length field.
+     */
+    private void handle(Connection connection, ByteBuffer frame)
+    {
+        requests++;
+        byte opcode = frame.get();
+        int id = frame.getInt();
+        int start = output.position();
+        try
+        {
+            if (opcode == CREATE)
+            {
+                int rows = frame.getInt(), columns = frame.getInt(), mines = frame.getInt();
+                long seed = frame.getLong();
+                boolean noGuess = frame.get() != 0;
+                if ((long)rows * columns > MAX_TILES) {throw new IllegalArgumentException("The board is too large");}
+                MineBoard board = new MineBoard(rows, columns, mines, seed);
+                board.setNoGuess(noGuess);
+                open(connection, board);
+                return;
+            }
+            if (opcode == LOAD)
+            {
+                //The size is checked from the header, before the board is allocated
+                MineBoard board = SaveFormat.decode(frame, MAX_TILES);
+                open(connection, board);
+                return;
+            }
+
+            //Another client's session is answered as if it did not exist
+            if (owners.get(id) != connection) {throw new IllegalArgumentException("No session " + id);}
+            if (opcode == CLOSE)
+            {
+                owners.remove(id);
+                connection.owned.remove((Integer)id);
+                discard(id);
+                begin(CLOSED, id, 0);
+                return;
+            }
+            //A board that could not be brought back is gone, though the client still owns its id
+            MineBoard board = sessions.get(id);
+            if (board == null) {throw new IllegalArgumentException("No session " + id);}
+            //Passivation drops the generator along with the listeners
+            board.setGenerator(generator);
+            last = null;
+
+            switch (opcode)
+            {
+                case SAVE:
+                    ByteBuffer saved = SaveFormat.encode(board);
+                    begin(SAVED, id, saved.remaining()).put(saved);
+                    break;
+                case MOVES:
+                    int count = frame.getInt();
+                    if (count < 0 || count > frame.remaining() / 9) {throw new IllegalArgumentException("Bad move count " + count);}
+                    MoveBatch batch = new MoveBatch();
+                    for (int i = 0; i < count; i++)
+                    {
+                        int kind = frame.get(), row = frame.getInt(), col = frame.getInt();
+                        checkRange(board, row, col);
+                        if (kind == MoveBatch.REVEAL && board.isNoGuess() && board.isFirstClick())
+                        {
+                            throw new IllegalArgumentException("The first reveal of a no-guess game must be a REVEAL");
+                        }
+                        batch.add(kind, row, col);
+                    }
+                    board.addTileListener(capture);
+                    try
+                    {
+                        board.apply(batch);
+                    }
+                    finally
+                    {
+                        board.removeTileListener(capture);
+                    }
+                    delta(id, board, last);
+                    break;
+                default:
+                    int row = frame.getInt(), col = frame.getInt();
+                    checkRange(board, row, col);
+                    //A flagged tile is not revealed, so only an unflagged one starts the search
+                    if (opcode == REVEAL && board.isNoGuess() && board.isFirstClick() && board.getState(row, col) != MineBoard.FLAGGED)
+                    {
+                        search(connection, id, board, row, col);
+                        return;
+                    }
+                    board.addTileListener(capture);
+                    try
+                    {
+                        move(board, opcode, row, col);
+                    }
+                    finally
+                    {
+                        board.removeTileListener(capture);
+                    }
+                    delta(id, board, last);
+            }
+        }
+        catch (IllegalArgumentException | IOException ex)
+        {
+            error(id, start, ex.getMessage());
+        }
+        catch (BufferUnderflowException ex)
+        {
+            error(id, start, "The request is truncated");
+        }
+    }
+
+    /**
+     * Searches for the layout of a no-guess game on the generator's workers. The first click
+     * is made once the search is done, by reveal on the server's thread.
+     */
+    private void search(Connection connection, int id, MineBoard board, int row, int col)
+    {
+        connection.searching = true;
+        generator.findSeedAsync(board.getRows(), board.getColumns(), board.getTotalMines(), row, col, board.getSeed())
+            .whenComplete((seed, failure) ->
+            {
+                searched.add(() -> reveal(connection, id, row, col, seed, failure));
+                selector.wakeup();
+            });
+    }
+
+    /**
+     * Makes the first click of a no-guess game once its search is done, replies with its
+     * DELTA, and answers the requests the connection sent while it waited.
+     * @param seed The seed found, or null if the game becomes an ordinary one.
+     * @param failure What made the search fail, or null.
+     */
+    private void reveal(Connection connection, int id, int row, int col, Long seed, Throwable failure)
+    {
+        SelectionKey key = connection.channel.keyFor(selector);
+        //The client went away while the layout was searched for
+        if (key == null || !key.isValid() || owners.get(id) != connection) {return;}
+        connection.searching = false;
+        output.clear();
+        try
+        {
+            if (failure != null) {throw new IllegalArgumentException("The layout search failed: " + failure);}
+            MineBoard board = sessions.get(id);
+            if (board == null) {throw new IllegalArgumentException("No session " + id);}
+            board.setGenerator(generator);
+            board.settleLayout(seed);
+            last = null;
+            board.addTileListener(capture);
+            try
+            {
+                board.reveal(row, col);
+            }
+            finally
+            {
+                board.removeTileListener(capture);
+            }
+            delta(id, board, last);
+        }
+        catch (IllegalArgumentException | IOException ex)
+        {
+            error(id, 0, ex.getMessage());
+        }
+
+        try
+        {
+            if (connection.partial != null)
+            {
+                connection.partial.flip();
+                answer(connection, connection.partial);
+            }
+            output.flip();
+            send(key, connection);
+        }
+        catch (IOException ex)
+        {
+            disconnect(key);
+        }
+    }
+
+    /**
+     * Replaces whatever reply was started with an ERROR.
+     */
+    private void error(int id, int start, String text)
+    {
+        output.position(start);
+        byte[] message = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(message.length, Short.MAX_VALUE);
+        begin(ERROR, id, 2 + length).putShort((short)length).put(message, 0, length);
+    }
+
+    private static void move(MineBoard board, byte opcode, int row, int col)
+    {
+        switch (opcode)
+        {
+            case REVEAL: board.reveal(row, col);
+                break;
+            case FLAG: board.flag(row, col);
+                break;
+            case QUESTION: board.question(row, col);
+                break;
+            case HIDE: board.hide(row, col);
+                break;
+            case CHORD: board.chord(row, col);
+                break;
+            case CYCLE: board.cycleMark(row, col);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+    }
+
+    private static void checkRange(MineBoard board, int row, int col)
+    {
+        if (!board.isInRange(row, col))
+        {
+            throw new IllegalArgumentException("Tile out of range: " + row + ", " + col);
+        }
+    }
+
+    /**
+     * Starts a session for a board and replies with its id and dimensions.
+     */
+    private void open(Connection connection, MineBoard board)
+    {
+        if (connection.owned == null) {connection.owned = new ArrayList<>(1);}
+        if (connection.owned.size() == MAX_SESSIONS) {throw new IllegalArgumentException("Too many sessions");}
+
+        int id = sessions.add(board);
+        owners.put(id, connection);
+        connection.owned.add(id);
+        begin(SESSION, id, 12).putInt(board.getRows()).putInt(board.getColumns()).putInt(board.getTotalMines());
+    }
+
+    /**
+     * Replies with the tiles changed by a move and the counters of the board.
+     * @param changes The changed tiles, or null if the move changed nothing.
+     */
+    private void delta(int id, MineBoard board, TileChanges changes)
+    {
+        int count = changes == null ? 0 : changes.size();
+        ByteBuffer out = begin(DELTA, id, 13 + 5 * count);
+        out.put((byte)(board.isGameOver() ? 1 : 0)).putInt(board.getFlagCount()).putInt(board.getOpenedCount()).putInt(count);
+        for (int i = 0; i < count; i++)
+        {
+            out.putInt(changes.getCell(i)).put((byte)changes.getState(i));
+        }
+    }
+
+    /**
+     * Writes the header of a reply, making room for its payload.
+     * @param payload The size of the payload in bytes.
+     * @return The output buffer, positioned at the payload.
+     */
+    private ByteBuffer begin(byte opcode, int id, int payload)
+    {
+        if (output.remaining() < 4 + HEADER + payload)
+        {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + 4 + HEADER + payload));
+            output.flip();
+            output = larger.put(output);
+        }
+        return output.putInt(HEADER - 4 + payload).put(opcode).putInt(id);
+    }
+
+    /**
+     * Appends the remaining bytes of one buffer to another, growing it if needed.
+     * @param buffer The buffer to append to, in write mode.
+     * @return The buffer appended to, which may be a new one.
+     */
+    private static ByteBuffer append(ByteBuffer buffer, ByteBuffer bytes)
+    {
+        if (buffer.remaining() < bytes.remaining())
+        {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes.remaining()));
+            buffer.flip();
+            buffer = larger.put(buffer);
+        }
+        return buffer.put(bytes);
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     */
+    public int getPort() {return server.socket().getLocalPort();}
+
+    /**
+     * Returns the number of requests answered so far. Only exact on the server's thread.
+     */
+    public long getRequests() {return requests;}
+
+    /**
+     * Returns the number of clients connected. Only exact on the server's thread.
+     */
+    public int getConnections() {return connections;}
+
+    /**
+     * Returns the number of games being played. Only exact on the server's thread.
+     */
+    public int getSessions() {return sessions.size();}
+
+    /**
+     * Stops the server. Its thread disconnects every client before run returns.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Runs a server on the loopback address, spilling passivated games to a directory if one
+     * is given.
+     * Usage: java GameServer [port budget-MiB spill-directory]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        Metrics.register();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) << 20 : DEFAULT_BUDGET;
+        Path spill = args.length > 2 ? Path.of(args[2]) : null;
+        GameServer server = new GameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+            new SessionManager(budget, spill));
+        System.out.println("Listening on " + server.server.getLocalAddress());
+        server.run();
+    }
+}
@@ -0,0 +1,540 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An endless board. The world is divided into square chunks that are only created when a
+ * move touches them. Whether a tile is a mine is a pure function of the world seed, the
+ * coordinates of its chunk and its place in the chunk, so a chunk's mines can be generated
+ * at any time without looking at its neighbours, and only the tiles the player opened or
+ * marked need to be remembered. At most maxChunks chunks are kept in memory; the least
+ * recently used one is evicted to a ChunkStore when another is needed, and is loaded again
+ * transparently when it is touched. Chunks the player never changed are simply dropped.
+ *
+ * Tiles are packed exactly like the tiles of MineBoard and getState returns the same
+ * constants. Coordinates may be any int, including negative ones.
+ */
+public class InfiniteBoard implements Closeable
+{
+    public static final int CHUNK_SHIFT = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    public static final int DEFAULT_CHUNKS = 256;
+    /*
+     * Zero-tiles, which spread a reveal, percolate below a density of about 0.096: there the
+     * chance of a cluster spanning a random board rises towards 1 as the board grows, so a
+     * single click could open an endless area. Just above it the clusters are still huge; at
+     * 0.1 the first click opened 226,000 tiles at the 99th percentile over 2,000 seeds. At
+     * 0.13 the same seeds opened at most 3,200 tiles, less than one chunk. main measures it:
+     * java InfiniteBoard 2000 0.1 0.13
+     */
+    public static final double MIN_DENSITY = 0.13;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_TILES = CHUNK_SIZE * CHUNK_SIZE;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+    private final double density;
+    //A tile is a mine when the top 53 bits of its hash fall below this
+    private final long threshold;
+    private final int maxChunks;
+    private final ChunkStore store;
+    private final LinkedHashMap<Long, Chunk> chunks;
+    private long lastKey;
+    private Chunk lastChunk;
+    private boolean firstClick = true, gameOver;
+    private int safeRow, safeCol;
+    private long openedCount, flagCount;
+
+    /**
+     * The tiles of one chunk, in row-major order.
+     */
+    private static class Chunk
+    {
+        final byte[] cells = new byte[CHUNK_TILES];
+        //True if the tiles changed since the chunk was created or loaded
+        boolean dirty;
+    }
+
+    /**
+     * Creates an endless board keeping DEFAULT_CHUNKS chunks in memory and evicting the
+     * rest to a temporary file.
+     * @param seed The world seed.
+     * @param density The chance of any tile being a mine.
+     */
+    public InfiniteBoard(long seed, double density) throws IOException
+    {
+        this(seed, density, DEFAULT_CHUNKS, Files.createTempFile("minesweeper-chunks", ".bin"));
+    }
+
+    /**
+     * Creates an endless board.
+     * @param seed The world seed.
+     * @param density The chance of any tile being a mine, at least MIN_DENSITY and below 1.
+     * @param maxChunks The number of chunks kept in memory.
+     * @param storeFile The file evicted chunks are written to. It is deleted on close.
+     * @throws IllegalArgumentException If the density or the number of chunks is out of range.
+     */
+    public InfiniteBoard(long seed, double density, int maxChunks, Path storeFile) throws IOException
+    {
+        this(seed, density, maxChunks, storeFile, true);
+    }
+
+    /**
+     * Creates an endless board, letting main measure densities below MIN_DENSITY.
+     */
+    private InfiniteBoard(long seed, double density, int maxChunks, Path storeFile, boolean checked) throws IOException
+    {
+        if (checked) {validate(density);}
+        if (maxChunks < 1)
+        {
+            throw new IllegalArgumentException("At least one chunk must fit in memory");
+        }
+
+        this.seed = seed;
+        this.density = density;
+        this.threshold = (long)(density * (1L << 53));
+        this.maxChunks = maxChunks;
+        this.store = new ChunkStore(storeFile, CHUNK_TILES);
+        this.chunks = new LinkedHashMap<Long, Chunk>(maxChunks * 2, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest)
+            {
+                if (size() <= InfiniteBoard.this.maxChunks) {return false;}
+                evict(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Checks that an endless board can have the given density, without creating it.
+     * @param density The chance of any tile being a mine.
+     * @throws IllegalArgumentException If the density is below MIN_DENSITY or not below 1.
+     */
+    public static void validate(double density)
+    {
+        if (!(density >= MIN_DENSITY && density < 1))
+        {
+            throw new IllegalArgumentException("The mine density must be between " + MIN_DENSITY + " and 1");
+        }
+    }
+
+    /**
+     * Reveals the current tile. The first reveal of the game can never hit a mine, and
+     * reveals spread across chunk borders like on a finite board.
+     * @param row Designates the row
+     * @param col Designates the column
+     */
+    public void reveal(int row, int col)
+    {
+        if (gameOver || isOpened(row, col) || getState(row, col) == MineBoard.FLAGGED) {return;}
+
+        if (firstClick) {clearSafeZone(row, col);}
+
+        if (isMine(row, col))
+        {
+            gameOver = true;
+            return;
+        }
+        revealAll(row, col);
+    }
+
+    /**
+     * Opens a tile and, if it has no adjacent mines, every tile reachable through other
+     * zero-tiles. Works from an explicit stack like MineBoard, with each tile packed into a
+     * long since the board has no row-major index.
+     */
+    private void revealAll(int row, int col)
+    {
+        long[] stack = new long[64];
+        int size = 0;
+        open(row, col);
+        stack[size++] = pack(row, col);
+
+        while (size > 0)
+        {
+            long tile = stack[--size];
+            int r = (int)(tile >> 32), c = (int)tile;
+
+            //Only zero-tiles spread the reveal to their neighbours
+            if (determineAdjacent(r, c) != MineBoard.ZERO_TILE) {continue;}
+
+            for (int i = r - 1; i <= r + 1; i++)
+            {
+                for (int j = c - 1; j <= c + 1; j++)
+                {
+                    if (!isMine(i, j) && !isOpened(i, j))
+                    {
+                        open(i, j);
+                        if (size == stack.length) {stack = Arrays.copyOf(stack, size * 2);}
+                        stack[size++] = pack(i, j);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a single tile, removing its flag if it had one.
+     */
+    private void open(int row, int col)
+    {
+        Chunk chunk = chunk(row, col);
+        int cell = index(row, col);
+        if ((chunk.cells[cell] & MineBoard.MARK_MASK) == MineBoard.FLAG_MARK) {flagCount--;}
+
+        chunk.cells[cell] = (byte)(MineBoard.OPENED_BIT | (chunk.cells[cell] & (MineBoard.MINE_BIT | MineBoard.COUNT_MASK)));
+        chunk.dirty = true;
+        openedCount++;
+    }
+
+    /**
+     * Flags a hidden tile. There is no limit on the number of flags.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     */
+    public void flag(int row, int col)
+    {
+        if (getState(row, col) == MineBoard.HIDDEN_TILE)
+        {
+            setMark(row, col, MineBoard.FLAG_MARK);
+            flagCount++;
+        }
+    }
+
+    /**
+     * Marks an unopened tile with a question mark, removing its flag if it had one.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     */
+    public void question(int row, int col)
+    {
+        if (isOpened(row, col)) {return;}
+        if (getState(row, col) == MineBoard.FLAGGED) {flagCount--;}
+        setMark(row, col, MineBoard.QUESTION_MARK);
+    }
+
+    /**
+     * Removes the mark of an unopened tile.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     */
+    public void hide(int row, int col)
+    {
+        if (isOpened(row, col)) {return;}
+        if (getState(row, col) == MineBoard.FLAGGED) {flagCount--;}
+        setMark(row, col, 0);
+    }
+
+    /**
+     * Reveals the unflagged neighbours of an opened tile once as many of them are flagged
+     * as it has adjacent mines, like MineBoard.chord.
+     * @param row Designates the row
+     * @param col Designates the column
+     */
+    public void chord(int row, int col)
+    {
+        if (gameOver || !isOpened(row, col)) {return;}
+
+        int flags = 0;
+        for (int i = row - 1; i <= row + 1; i++)
+        {
+            for (int j = col - 1; j <= col + 1; j++)
+            {
+                if (getState(i, j) == MineBoard.FLAGGED) {flags++;}
+            }
+        }
+
+        if (flags != determineAdjacent(row, col)) {return;}
+        for (int i = row - 1; i <= row + 1 && !gameOver; i++)
+        {
+            for (int j = col - 1; j <= col + 1 && !gameOver; j++) {reveal(i, j);}
+        }
+    }
+
+    /**
+     * Moves the mark of a tile one step along the right-click cycle: hidden, flagged,
+     * questioned and back to hidden.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     */
+    public void cycleMark(int row, int col)
+    {
+        switch (getState(row, col))
+        {
+            case MineBoard.HIDDEN_TILE: flag(row, col);
+                break;
+            case MineBoard.FLAGGED: question(row, col);
+                break;
+            case MineBoard.QUESTION: hide(row, col);
+                break;
+        }
+    }
+
+    /**
+     * Replaces the flag/question mark of a tile, leaving the rest of its bits untouched.
+     */
+    private void setMark(int row, int col, int mark)
+    {
+        Chunk chunk = chunk(row, col);
+        int cell = index(row, col);
+        chunk.cells[cell] = (byte)((chunk.cells[cell] & ~MineBoard.MARK_MASK) | mark);
+        chunk.dirty = true;
+    }
+
+    /**
+     * Returns the state of the specified tile, using the constants of MineBoard.
+     * @param row Designates the row.
+     * @param col Desginates the column.
+     */
+    public int getState(int row, int col)
+    {
+        int cell = chunk(row, col).cells[index(row, col)];
+        if ((cell & MineBoard.OPENED_BIT) != 0) {return cell & MineBoard.COUNT_MASK;}
+
+        switch (cell & MineBoard.MARK_MASK)
+        {
+            case MineBoard.FLAG_MARK: return MineBoard.FLAGGED;
+            case MineBoard.QUESTION_MARK: return MineBoard.QUESTION;
+            default: return MineBoard.HIDDEN_TILE;
+        }
+    }
+
+    /**
+     * Returns the number of mines around a tile, counting the tile itself like MineBoard.
+     */
+    public int determineAdjacent(int row, int col) {return chunk(row, col).cells[index(row, col)] & MineBoard.COUNT_MASK;}
+
+    /**
+     * Returns True if the specified tile is a mine.
+     */
+    public boolean isMine(int row, int col) {return (chunk(row, col).cells[index(row, col)] & MineBoard.MINE_BIT) != 0;}
+
+    /**
+     * Returns True if the specified tile has been opened.
+     */
+    public boolean isOpened(int row, int col) {return (chunk(row, col).cells[index(row, col)] & MineBoard.OPENED_BIT) != 0;}
+
+    /**
+     * Returns True once a mine has been revealed.
+     */
+    public boolean isGameOver() {return gameOver;}
+
+    /**
+     * Returns the number of tiles opened so far.
+     */
+    public long getOpenedCount() {return openedCount;}
+
+    /**
+     * Returns the number of flags placed.
+     */
+    public long getFlagCount() {return flagCount;}
+
+    /**
+     * Returns the world seed.
+     */
+    public long getSeed() {return seed;}
+
+    /**
+     * Returns the chance of any tile being a mine.
+     */
+    public double getDensity() {return density;}
+
+    /**
+     * Returns the number of chunks currently in memory.
+     */
+    public int getLoadedChunks() {return chunks.size();}
+
+    /**
+     * Returns the number of chunks written to the store.
+     */
+    public int getStoredChunks() {return store.size();}
+
+    /**
+     * Deletes the store of evicted chunks. The board cannot be used afterwards.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        chunks.clear();
+        lastChunk = null;
+        store.close();
+    }
+
+    /**
+     * Returns the chunk holding a tile, creating or loading it if it is not in memory.
+     */
+    private Chunk chunk(int row, int col)
+    {
+        long key = pack(row >> CHUNK_SHIFT, col >> CHUNK_SHIFT);
+        if (lastChunk != null && key == lastKey) {return lastChunk;}
+
+        Chunk chunk = chunks.get(key);
+        if (chunk == null)
+        {
+            chunk = new Chunk();
+            generate(key, chunk);
+            try
+            {
+                store.read(key, chunk.cells);
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException("Cannot load chunk " + key, ex);
+            }
+            //Inserting may evict the chunk remembered in lastChunk, so it is replaced after
+            chunks.put(key, chunk);
+        }
+        lastKey = key;
+        lastChunk = chunk;
+        return chunk;
+    }
+
+    /**
+     * Writes a chunk leaving memory to the store, if the player changed it.
+     */
+    private void evict(long key, Chunk chunk)
+    {
+        if (chunk == lastChunk) {lastChunk = null;}
+        if (!chunk.dirty) {return;}
+        try
+        {
+            store.write(key, chunk.cells);
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException("Cannot store chunk " + key, ex);
+        }
+    }
+
+    /**
+     * Fills in the mine bits and adjacency counts of a chunk, keeping the rest of its bits.
+     * The mines of the surrounding ring of tiles are hashed as well, so the counts along
+     * the border are right without touching the neighbouring chunks.
+     */
+    private void generate(long key, Chunk chunk)
+    {
+        int top = (int)(key >> 32) << CHUNK_SHIFT, left = (int)key << CHUNK_SHIFT;
+        int width = CHUNK_SIZE + 2;
+        byte[] mines = new byte[width * width];
+        for (int r = 0; r < width; r++)
+        {
+            for (int c = 0; c < width; c++)
+            {
+                if (mineAt(top + r - 1, left + c - 1)) {mines[r * width + c] = 1;}
+            }
+        }
+
+        for (int r = 0; r < CHUNK_SIZE; r++)
+        {
+            for (int c = 0; c < CHUNK_SIZE; c++)
+            {
+                int center = (r + 1) * width + c + 1;
+                int count = mines[center - width - 1] + mines[center - width] + mines[center - width + 1]
+                    + mines[center - 1] + mines[center] + mines[center + 1]
+                    + mines[center + width - 1] + mines[center + width] + mines[center + width + 1];
+                int cell = r * CHUNK_SIZE + c;
+                chunk.cells[cell] = (byte)((chunk.cells[cell] & (MineBoard.OPENED_BIT | MineBoard.MARK_MASK))
+                    | mines[center] << 4 | count);
+            }
+        }
+    }
+
+    /**
+     * Fixes the first-click safe zone and regenerates the chunks in memory that it changes.
+     * Chunks outside memory pick the safe zone up when they are generated again.
+     */
+    private void clearSafeZone(int row, int col)
+    {
+        safeRow = row;
+        safeCol = col;
+        firstClick = false;
+
+        //The counts change up to two tiles away from the clicked tile
+        for (int r = row - 2; r <= row + 2; r += 4)
+        {
+            for (int c = col - 2; c <= col + 2; c += 4)
+            {
+                long key = pack(r >> CHUNK_SHIFT, c >> CHUNK_SHIFT);
+                Chunk chunk = chunks.get(key);
+                if (chunk != null) {generate(key, chunk);}
+            }
+        }
+    }
+
+    /**
+     * Returns True if a tile is a mine in this world. Mixes the world seed with the chunk
+     * coordinates, then with the place of the tile in its chunk.
+     */
+    private boolean mineAt(int row, int col)
+    {
+        if (!firstClick && Math.abs(row - safeRow) <= 1 && Math.abs(col - safeCol) <= 1) {return false;}
+
+        long chunk = mix(seed + pack(row >> CHUNK_SHIFT, col >> CHUNK_SHIFT) * GOLDEN_GAMMA);
+        long tile = mix(chunk + (index(row, col) + 1) * GOLDEN_GAMMA);
+        return (tile >>> 11) < threshold;
+    }
+
+    /**
+     * Returns the index of a tile within its chunk.
+     */
+    private static int index(int row, int col) {return (row & CHUNK_MASK) << CHUNK_SHIFT | (col & CHUNK_MASK);}
+
+    /**
+     * Packs two ints into a long, the first in the high half.
+     */
+    private static long pack(int high, int low) {return (long)high << 32 | (low & 0xFFFFFFFFL);}
+
+    /**
+     * Mixes the bits of a long so neighbouring inputs give unrelated outputs.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Makes the first click on many worlds of each density and prints how many tiles it
+     * opened, which grows without bound as the density falls towards the percolation
+     * threshold of the zero-tiles. Densities below MIN_DENSITY may be measured too.
+     * Usage: java InfiniteBoard seeds density...
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: java InfiniteBoard seeds density...");
+            System.exit(1);
+        }
+        int seeds = Integer.parseInt(args[0]);
+
+        System.out.printf("%-10s %10s %10s %10s %10s %10s%n", "Density", "mean", "p50", "p99", "p99.9", "max");
+        for (int i = 1; i < args.length; i++)
+        {
+            double density = Double.parseDouble(args[i]);
+            long[] opened = new long[seeds];
+            for (int seed = 0; seed < seeds; seed++)
+            {
+                try (InfiniteBoard board = new InfiniteBoard(seed, density, DEFAULT_CHUNKS, Files.createTempFile("minesweeper-chunks", ".bin"), false))
+                {
+                    board.reveal(0, 0);
+                    opened[seed] = board.getOpenedCount();
+                }
+            }
+            Arrays.sort(opened);
+            System.out.printf("%-10.3f %10.0f %10d %10d %10d %10d%n", density, Arrays.stream(opened).average().orElse(0),
+                opened[seeds / 2], opened[(int)(seeds * 0.99)], opened[(int)(seeds * 0.999)], opened[seeds - 1]);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds that many threads can record into without locks.
+ * Values are counted in log-linear buckets, like an HDR histogram: every power of two is
+ * split into SUB_BUCKETS equal buckets, so any value is known to within about 3% while the
+ * whole range of a long fits in fewer than two thousand counters. Recording a value is a
+ * single atomic increment and never allocates; the count and the mean are worked out from
+ * the buckets when they are read, so the mean is as precise as the buckets.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    //Values below twice SUB_BUCKETS are counted exactly, the rest by their top SUB_BITS + 1 bits
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates an empty histogram.
+     * @param name The name of the operation it measures.
+     */
+    public LatencyHistogram(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Counts one latency. Negative values are counted as zero.
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos)
+    {
+        nanos = Math.max(nanos, 0);
+        counts.getAndIncrement(index(nanos));
+        if (nanos > max.get()) {max.accumulateAndGet(nanos, Math::max);}
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     */
+    private static int index(long value)
+    {
+        if (value < 2 * SUB_BUCKETS) {return (int)value;}
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the smallest value counted in a bucket.
+     */
+    private static long lowest(int index)
+    {
+        if (index < 2 * SUB_BUCKETS) {return index;}
+        int shift = index / SUB_BUCKETS - 1;
+        return (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the values fall, rounded up
+     * to the largest value of its bucket, in nanoseconds. Values recorded while this runs
+     * may or may not be taken into account.
+     * @param percent The percentile, from 0 to 100.
+     */
+    public long getPercentile(double percent)
+    {
+        long recorded = getCount();
+        if (recorded == 0) {return 0;}
+        long rank = Math.max((long)Math.ceil(recorded * percent / 100), 1), seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+            {
+                long highest = i + 1 < BUCKETS ? lowest(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(highest, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public String getName() {return name;}
+
+    /**
+     * Returns the number of values recorded.
+     */
+    public long getCount()
+    {
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {recorded += counts.get(i);}
+        return recorded;
+    }
+
+    /**
+     * Returns the mean of the values recorded, taking each value as the middle of its
+     * bucket, in nanoseconds.
+     */
+    public double getMean()
+    {
+        long recorded = 0;
+        double total = 0;
+        for (int i = 0; i < BUCKETS - 1; i++)
+        {
+            long n = counts.get(i);
+            recorded += n;
+            total += n * (lowest(i) + lowest(i + 1) - 1) / 2.0;
+        }
+        return recorded == 0 ? 0 : total / recorded;
+    }
+
+    /**
+     * Returns the largest value recorded, in nanoseconds.
+     */
+    public long getMax() {return max.get();}
+
+    /**
+     * Forgets every value. Values recorded while this runs may be partly kept.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) {counts.set(i, 0);}
+        max.set(0);
+    }
+
+    /**
+     * Returns a one-line summary with the count and the main percentiles in milliseconds.
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%-14s count %9d  mean %9.3f  p50 %9.3f  p99 %9.3f  p99.9 %9.3f  max %9.3f ms",
+            name, getCount(), getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(99) / 1e6,
+            getPercentile(99.9) / 1e6, getMax() / 1e6);
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Plays many games against a GameServer at once and reports the requests answered per
+ * second and the percentiles of their latency. Each client keeps one request in flight:
+ * it creates an Expert game, reveals hidden tiles and cycles marks, now and then saves the
+ * game, and closes it and starts another once it ends. Every client is driven by one thread
+ * with a selector, just like the server. Idle clients can be connected as well, which
+ * connect and then never send anything, to show what they cost the server.
+ *
+ * Before the run, a second connection tries to use a game it did not create, which the
+ * server must refuse.
+ *
+ * Without a host, a server is started in this process on the loopback address.
+ *
+ * Usage: java LoadGenerator [clients seconds idle-clients host port]
+ */
+public class LoadGenerator
+{
+    private static final int ROWS = 16, COLUMNS = 30, MINES = 99;
+    private static final double WARM_UP = 0.2;
+
+    private final SplittableRandom random = new SplittableRandom(1);
+    private final ByteBuffer request = ByteBuffer.allocate(64);
+    private long[] latencies = new long[1 << 16];
+    private int samples;
+    private long tiles, deltas, errors;
+    private boolean recording;
+
+    /**
+     * A client playing one game at a time.
+     */
+    private static final class Client
+    {
+        final SocketChannel channel;
+        ByteBuffer in = ByteBuffer.allocate(1 << 12);
+        int session, hidden;
+        //True for each tile that is neither opened nor marked
+        boolean[] open = new boolean[ROWS * COLUMNS];
+        long sent;
+
+        Client(SocketChannel channel) {this.channel = channel;}
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        int idle = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        GameServer server = null;
+        InetSocketAddress address;
+        if (args.length > 4)
+        {
+            address = new InetSocketAddress(args[3], Integer.parseInt(args[4]));
+        }
+        else
+        {
+            server = new GameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread thread = new Thread(server, "minesweeper-server");
+            thread.setDaemon(true);
+            thread.start();
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        }
+
+        checkOwnership(address);
+
+        List<SocketChannel> idlers = new ArrayList<>();
+        long before = usedMemory();
+        for (int i = 0; i < idle; i++) {idlers.add(SocketChannel.open(address));}
+        if (idle > 0)
+        {
+            System.out.printf("Idle clients:  %d, %.1f KiB of heap each (both ends)%n", idle, (usedMemory() - before) / 1024.0 / idle);
+        }
+
+        new LoadGenerator().run(address, clients, seconds);
+
+        for (SocketChannel channel : idlers) {channel.close();}
+        if (server != null) {server.close();}
+    }
+
+    /**
+     * Checks that a client cannot use a session it did not create: a second connection that
+     * saves, plays or closes the first one's game must be told there is no such session, and
+     * the game must still belong to the first.
+     */
+    private static void checkOwnership(InetSocketAddress address) throws IOException
+    {
+        try (SocketChannel owner = SocketChannel.open(address); SocketChannel other = SocketChannel.open(address))
+        {
+            ByteBuffer create = ByteBuffer.allocate(30);
+            create.putInt(26).put(GameServer.CREATE).putInt(0);
+            create.putInt(ROWS).putInt(COLUMNS).putInt(MINES).putLong(1).put((byte)0);
+            ByteBuffer reply = exchange(owner, create.flip());
+            if (reply.get() != GameServer.SESSION) {throw new IllegalStateException("The game was not created");}
+            int session = reply.getInt();
+
+            ByteBuffer reveal = ByteBuffer.allocate(17).putInt(13).put(GameServer.REVEAL).putInt(session).putInt(0).putInt(0);
+            byte[] stolen = {GameServer.SAVE, GameServer.REVEAL, GameServer.CLOSE};
+            for (byte opcode : stolen)
+            {
+                ByteBuffer frame = opcode == GameServer.REVEAL ? reveal.flip()
+                    : ByteBuffer.allocate(9).putInt(5).put(opcode).putInt(session).flip();
+                if (exchange(other, frame).get() != GameServer.ERROR)
+                {
+                    throw new IllegalStateException("Another client's session answered opcode " + opcode);
+                }
+            }
+
+            ByteBuffer close = ByteBuffer.allocate(9).putInt(5).put(GameServer.CLOSE).putInt(session);
+            if (exchange(owner, close.flip()).get() != GameServer.CLOSED)
+            {
+                throw new IllegalStateException("The session was lost to another client");
+            }
+        }
+    }
+
+    /**
+     * Sends one request on a blocking channel and reads its reply.
+     * @return The reply after its length field.
+     */
+    private static ByteBuffer exchange(SocketChannel channel, ByteBuffer request) throws IOException
+    {
+        while (request.hasRemaining()) {channel.write(request);}
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length);
+        ByteBuffer reply = ByteBuffer.allocate(length.flip().getInt());
+        readFully(channel, reply);
+        return reply.flip();
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0) {throw new IOException("The server closed the connection");}
+        }
+    }
+
+    private static long usedMemory()
+    {
+        for (int i = 0; i < 3; i++) {System.gc();}
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Plays until the time is up, then prints the results. The first part of the run warms
+     * up the JIT of both ends and is not counted.
+     */
+    private void run(InetSocketAddress address, int clients, double seconds) throws IOException
+    {
+        Selector selector = Selector.open();
+        for (int i = 0; i < clients; i++)
+        {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel);
+            channel.register(selector, SelectionKey.OP_READ, client);
+            create(client);
+        }
+
+        long start = System.nanoTime(), warm = start + (long)(WARM_UP * seconds * 1e9);
+        long end = start + (long)(seconds * 1e9), measured = 0;
+        while (System.nanoTime() < end)
+        {
+            if (!recording && System.nanoTime() >= warm)
+            {
+                recording = true;
+                measured = System.nanoTime();
+            }
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext())
+            {
+                SelectionKey key = keys.next();
+                keys.remove();
+                read((Client)key.attachment());
+            }
+        }
+        double elapsed = (System.nanoTime() - measured) / 1e9;
+        for (SelectionKey key : selector.keys()) {key.channel().close();}
+        selector.close();
+
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        System.out.printf("Clients:       %d for %.1f s%n", clients, seconds);
+        System.out.printf("Requests:      %d, %.0f per second%n", samples, samples / elapsed);
+        System.out.printf("Tiles:         %.1f per delta, %d errors%n", deltas == 0 ? 0 : (double)tiles / deltas, errors);
+        String[] names = {"p50", "p90", "p99", "p99.9", "max"};
+        double[] points = {50, 90, 99, 99.9, 100};
+        for (int i = 0; i < points.length; i++)
+        {
+            System.out.printf("%-14s %8.1f us%n", names[i] + ":", percentile(sorted, points[i]) / 1e3);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p)
+    {
+        if (sorted.length == 0) {return 0;}
+        return sorted[Math.max((int)Math.ceil(sorted.length * p / 100) - 1, 0)];
+    }
+
+    /**
+     * Reads the replies that have arrived and sends each client its next request.
+     */
+    private void read(Client client) throws IOException
+    {
+        if (client.channel.read(client.in) < 0) {throw new IOException("The server closed the connection");}
+        client.in.flip();
+        while (client.in.remaining() >= 4 && client.in.remaining() >= 4 + client.in.getInt(client.in.position()))
+        {
+            int length = client.in.getInt();
+            int next = client.in.position() + length;
+            reply(client, client.in);
+            client.in.position(next);
+        }
+        client.in.compact();
+        //Make room for a reply larger than the buffer
+        if (!client.in.hasRemaining())
+        {
+            client.in.flip();
+            client.in = ByteBuffer.allocate(client.in.capacity() * 2).put(client.in);
+        }
+    }
+
+    private void reply(Client client, ByteBuffer in) throws IOException
+    {
+        long latency = System.nanoTime() - client.sent;
+        if (recording)
+        {
+            if (samples == latencies.length) {latencies = Arrays.copyOf(latencies, samples * 2);}
+            latencies[samples++] = latency;
+        }
+
+        byte opcode = in.get();
+        int session = in.getInt();
+        switch (opcode)
+        {
+            case GameServer.SESSION:
+                client.session = session;
+                client.hidden = ROWS * COLUMNS;
+                Arrays.fill(client.open, true);
+                play(client);
+                break;
+            case GameServer.DELTA:
+                boolean gameOver = (in.get() & 1) != 0;
+                in.getInt();
+                in.getInt();
+                int count = in.getInt();
+                for (int i = 0; i < count; i++)
+                {
+                    int cell = in.getInt();
+                    boolean hidden = in.get() == MineBoard.HIDDEN_TILE;
+                    if (client.open[cell] != hidden) {client.hidden += hidden ? 1 : -1;}
+                    client.open[cell] = hidden;
+                }
+                tiles += count;
+                deltas++;
+                if (gameOver || client.hidden == 0) {send(client, GameServer.CLOSE, -1, -1);}
+                else {play(client);}
+                break;
+            case GameServer.SAVED:
+                play(client);
+                break;
+            case GameServer.CLOSED:
+                create(client);
+                break;
+            default:
+                errors++;
+                create(client);
+        }
+    }
+
+    /**
+     * Sends the next move of a game: mostly reveals, some marks and the odd save.
+     */
+    private void play(Client client) throws IOException
+    {
+        int roll = random.nextInt(100);
+        if (roll < 2)
+        {
+            send(client, GameServer.SAVE, -1, -1);
+            return;
+        }
+        //Pick a hidden tile; the mirror is kept from the deltas
+        int cell = random.nextInt(ROWS * COLUMNS);
+        for (int tries = 0; !client.open[cell] && tries < 64; tries++) {cell = random.nextInt(ROWS * COLUMNS);}
+        send(client, roll < 80 ? GameServer.REVEAL : GameServer.CYCLE, cell / COLUMNS, cell % COLUMNS);
+    }
+
+    private void create(Client client) throws IOException
+    {
+        request.clear();
+        request.putInt(26).put(GameServer.CREATE).putInt(0);
+        request.putInt(ROWS).putInt(COLUMNS).putInt(MINES).putLong(random.nextLong()).put((byte)0);
+        write(client);
+    }
+
+    private void send(Client client, byte opcode, int row, int col) throws IOException
+    {
+        request.clear();
+        request.putInt(row < 0 ? 5 : 13).put(opcode).putInt(client.session);
+        if (row >= 0) {request.putInt(row).putInt(col);}
+        write(client);
+    }
+
+    /**
+     * Sends a request. Requests are tiny, so the socket always has room for them.
+     */
+    private void write(Client client) throws IOException
+    {
+        request.flip();
+        client.sent = System.nanoTime();
+        while (request.hasRemaining()) {client.channel.write(request);}
+    }
+}
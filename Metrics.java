@@ -0,0 +1,294 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Measures the operations that can make a click feel slow: laying out the mines, searching
+ * for a no-guess layout, revealing a tile and its cascade, updating and painting the view,
+ * rendering the sprites of a new tile size, and saving and loading games.
+ *
+ * Each operation is timed into a LatencyHistogram and emitted as a JDK Flight Recorder event
+ * carrying the size of the board and what the operation did. The events cost next to
+ * nothing unless a recording is running, and the histograms an atomic increment, so
+ * both are left on. The histograms can be turned off with -Dminesweeper.metrics=false.
+ *
+ * The events fired on every move or frame leave out their stack traces, so a recording
+ * stays cheap as well.
+ *
+ * The histograms are published through JMX as Minesweeper:type=Metrics once register has
+ * been called, and -Dminesweeper.metrics.dump=seconds also prints them periodically.
+ * A typical use looks like:
+ *
+ * <pre>
+ * Metrics.Reveal event = Metrics.begin(new Metrics.Reveal());
+ * ...
+ * event.opened = tilesOpened;
+ * Metrics.end(event);
+ * </pre>
+ */
+public class Metrics
+{
+    public static final String OBJECT_NAME = "Minesweeper:type=Metrics";
+
+    public static final LatencyHistogram GENERATE = new LatencyHistogram("generate");
+    public static final LatencyHistogram NO_GUESS = new LatencyHistogram("noGuessSearch");
+    public static final LatencyHistogram REVEAL = new LatencyHistogram("reveal");
+    public static final LatencyHistogram VIEW_UPDATE = new LatencyHistogram("viewUpdate");
+    public static final LatencyHistogram PAINT = new LatencyHistogram("paint");
+    public static final LatencyHistogram SPRITES = new LatencyHistogram("renderSprites");
+    public static final LatencyHistogram SAVE = new LatencyHistogram("save");
+    public static final LatencyHistogram LOAD = new LatencyHistogram("load");
+    private static final LatencyHistogram[] ALL = {GENERATE, NO_GUESS, REVEAL, VIEW_UPDATE, PAINT, SPRITES, SAVE, LOAD};
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("minesweeper.metrics"));
+    private static boolean registered;
+
+    private Metrics() {}
+
+    /**
+     * An operation timed into a histogram. The start is kept for the histogram only, so it
+     * is transient and not part of the event.
+     */
+    @Category("Minesweeper")
+    abstract static class Timed extends Event
+    {
+        transient long start;
+
+        abstract LatencyHistogram histogram();
+    }
+
+    @Name("minesweeper.Generate")
+    @StackTrace(false)
+    @Label("Generate Mines")
+    @Description("Laying out the mines and counting their neighbours")
+    static class Generate extends Timed
+    {
+        @Label("Rows") int rows;
+        @Label("Columns") int columns;
+        @Label("Mines") int mines;
+
+        LatencyHistogram histogram() {return GENERATE;}
+    }
+
+    @Name("minesweeper.NoGuessSearch")
+    @Label("No-Guess Search")
+    @Description("Searching for a layout that can be solved without guessing")
+    static class NoGuessSearch extends Timed
+    {
+        @Label("Rows") int rows;
+        @Label("Columns") int columns;
+        @Label("Mines") int mines;
+        @Label("Candidates") @Description("Layouts played before one passed or the search gave up") int candidates;
+        @Label("Found") boolean found;
+
+        LatencyHistogram histogram() {return NO_GUESS;}
+    }
+
+    @Name("minesweeper.Reveal")
+    @StackTrace(false)
+    @Label("Reveal")
+    @Description("Revealing a tile, including the first click and any cascade")
+    static class Reveal extends Timed
+    {
+        @Label("Rows") int rows;
+        @Label("Columns") int columns;
+        @Label("Tiles Opened") int opened;
+        @Label("First Click") boolean firstClick;
+
+        LatencyHistogram histogram() {return REVEAL;}
+    }
+
+    @Name("minesweeper.ViewUpdate")
+    @StackTrace(false)
+    @Label("View Update")
+    @Description("Updating the images of the tiles changed by a move")
+    static class ViewUpdate extends Timed
+    {
+        @Label("Tiles Changed") int tiles;
+
+        LatencyHistogram histogram() {return VIEW_UPDATE;}
+    }
+
+    @Name("minesweeper.Paint")
+    @StackTrace(false)
+    @Label("Paint")
+    @Description("Painting the tiles inside the clip rectangle")
+    static class Paint extends Timed
+    {
+        @Label("Tiles Painted") int tiles;
+        @Label("Sprite Size") int spriteSize;
+
+        LatencyHistogram histogram() {return PAINT;}
+    }
+
+    @Name("minesweeper.RenderSprites")
+    @Label("Render Sprites")
+    @Description("Scaling every tile image to a size not used before")
+    static class RenderSprites extends Timed
+    {
+        @Label("Size") int size;
+
+        LatencyHistogram histogram() {return SPRITES;}
+    }
+
+    @Name("minesweeper.Save")
+    @Label("Save Game")
+    static class Save extends Timed
+    {
+        @Label("Rows") int rows;
+        @Label("Columns") int columns;
+        @Label("Size") @DataAmount long bytes;
+
+        LatencyHistogram histogram() {return SAVE;}
+    }
+
+    @Name("minesweeper.Load")
+    @Label("Load Game")
+    static class Load extends Timed
+    {
+        @Label("Rows") int rows;
+        @Label("Columns") int columns;
+        @Label("Size") @DataAmount long bytes;
+
+        LatencyHistogram histogram() {return LOAD;}
+    }
+
+    /**
+     * Starts timing an operation.
+     * @param event The event of the operation.
+     * @return The event, so it can be created and started in one line.
+     */
+    static <E extends Timed> E begin(E event)
+    {
+        if (enabled) {event.start = System.nanoTime();}
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Stops timing an operation, records its latency and commits its event if JFR is
+     * recording it.
+     * @param event The event passed to begin, with its fields filled in.
+     */
+    static void end(Timed event)
+    {
+        if (event.start != 0 && enabled) {event.histogram().record(System.nanoTime() - event.start);}
+        event.commit();
+    }
+
+    /**
+     * Returns every histogram.
+     */
+    public static LatencyHistogram[] getHistograms() {return ALL.clone();}
+
+    /**
+     * Returns a summary of every operation measured so far, one per line.
+     */
+    public static String dump()
+    {
+        StringBuilder text = new StringBuilder();
+        for (LatencyHistogram histogram : ALL)
+        {
+            if (histogram.getCount() > 0) {text.append(histogram).append(System.lineSeparator());}
+        }
+        return text.toString();
+    }
+
+    /**
+     * Publishes the histograms through JMX and, if -Dminesweeper.metrics.dump is set,
+     * starts printing them to the error stream every so many seconds. Only the first call
+     * does anything.
+     * @throws IllegalStateException If the bean cannot be registered.
+     */
+    public static synchronized void register()
+    {
+        if (registered) {return;}
+        registered = true;
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+
+        int period = Integer.getInteger("minesweeper.metrics.dump", 0);
+        if (period > 0)
+        {
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task ->
+            {
+                Thread thread = new Thread(task, "minesweeper-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleAtFixedRate(() -> System.err.print(dump()), period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * The JMX view of the histograms.
+     */
+    private static final class Bean implements MetricsMXBean
+    {
+        @Override
+        public boolean isEnabled() {return enabled;}
+
+        @Override
+        public void setEnabled(boolean on) {enabled = on;}
+
+        @Override
+        public Map<String, Long> getCounts()
+        {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (LatencyHistogram histogram : ALL) {counts.put(histogram.getName(), histogram.getCount());}
+            return counts;
+        }
+
+        @Override
+        public Map<String, Double> getMeans() {return millis(LatencyHistogram::getMean);}
+
+        @Override
+        public Map<String, Double> getP50s() {return millis(histogram -> histogram.getPercentile(50));}
+
+        @Override
+        public Map<String, Double> getP99s() {return millis(histogram -> histogram.getPercentile(99));}
+
+        @Override
+        public Map<String, Double> getP999s() {return millis(histogram -> histogram.getPercentile(99.9));}
+
+        @Override
+        public Map<String, Double> getMaxima() {return millis(LatencyHistogram::getMax);}
+
+        @Override
+        public String dump() {return Metrics.dump();}
+
+        @Override
+        public void reset()
+        {
+            for (LatencyHistogram histogram : ALL) {histogram.reset();}
+        }
+
+        private static Map<String, Double> millis(ToDoubleFunction<LatencyHistogram> nanos)
+        {
+            Map<String, Double> values = new LinkedHashMap<>();
+            for (LatencyHistogram histogram : ALL) {values.put(histogram.getName(), nanos.applyAsDouble(histogram) / 1e6);}
+            return values;
+        }
+    }
+}
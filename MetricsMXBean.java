@@ -0,0 +1,40 @@
+import java.util.Map;
+
+/**
+ * The latencies gathered by Metrics, as seen through JMX. Every map is keyed by the name of
+ * the operation measured, and latencies are in milliseconds.
+ */
+public interface MetricsMXBean
+{
+    /**
+     * Returns True if the latencies are being recorded.
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns the recording of latencies on or off. JFR events are controlled by JFR itself.
+     */
+    void setEnabled(boolean enabled);
+
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeans();
+
+    Map<String, Double> getP50s();
+
+    Map<String, Double> getP99s();
+
+    Map<String, Double> getP999s();
+
+    Map<String, Double> getMaxima();
+
+    /**
+     * Returns a summary of every operation, one per line.
+     */
+    String dump();
+
+    /**
+     * Forgets every latency recorded so far.
+     */
+    void reset();
+}
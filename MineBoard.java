@@ -1,8 +1,15 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
 
 /**
  * The Model. This class allows the minesweeper game to be completely playable
- * within the console (given a main() method) as well as a graphical user interface.
+ * within the console (see ConsoleGame) as well as a graphical user interface.
  */
 public class MineBoard implements Serializable
 {
@@ -14,10 +21,48 @@ public class MineBoard implements Serializable
     public static final int QUESTION = -3;
     public static final int HIDDEN_TILE = -1;
     public static final int ZERO_TILE = 0;
-    private int rows, columns, flagCount, mineCount;
+
+    /*
+     * Every tile is packed into a single byte of the row-major cells array:
+     * bits 0-3 hold the adjacency count of the tile, bit 4 marks a mine,
+     * bit 5 marks an opened tile and bits 6-7 hold the flag/question mark.
+     */
+    static final int COUNT_MASK = 0x0F;
+    static final int MINE_BIT = 0x10;
+    static final int OPENED_BIT = 0x20;
+    static final int MARK_MASK = 0xC0;
+    static final int FLAG_MARK = 0x40;
+    static final int QUESTION_MARK = 0x80;
+
+    /**
+     * The algorithms used for board-wide work. SCALAR counts adjacent mines one 3x3 square
+     * at a time and flood fills tile by tile, BITBOARD does both with word-parallel bit
+     * operations over 64 tiles at a time. Both produce identical boards.
+     */
+    public enum Engine {SCALAR, BITBOARD}
+
+    private int rows, columns, flagCount, mineCount, totalMines;
+    private long seed;
     private boolean gameOver = false;
-    private int[][] board, gameBoard;
+    private byte[] cells;
     private boolean firstClick = true;
+    private boolean noGuess;
+    private Engine engine;
+    //Searches for a no-guess layout on the first click, or null to search on the clicking thread
+    private transient NoGuessGenerator generator;
+    //True once the layout of a no-guess board has been searched for its first click
+    private transient boolean settled;
+    private transient int openedCount;
+    private transient BitBoard zeros;
+    private transient List<TileListener> listeners;
+    private transient int[] changes;
+    private transient int changeCount;
+    //True while a MoveBatch is applied, so its moves are published as one change set
+    private transient boolean batching;
+    //One bit per tile already in the change set of the current batch
+    private transient long[] batched;
+    //Keeps the old value of every tile a move changes, so it can be undone, or null
+    private transient MoveHistory history;
 
     /**
      * Instantiates the model.
@@ -27,73 +72,188 @@ public class MineBoard implements Serializable
      */
     public MineBoard(int r, int c, int mines)
     {
-        flagCount = mineCount = mines;
+        this(r, c, mines, Engine.SCALAR, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Instantiates the model with the specified engine.
+     * @param r The number of rows.
+     * @param c The number of columns.
+     * @param mines The number of mines.
+     * @param engine The engine used for adjacency counts and flood fills.
+     */
+    public MineBoard(int r, int c, int mines, Engine engine)
+    {
+        this(r, c, mines, engine, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Instantiates a reproducible model. The same dimensions, mines, seed and first click
+     * always produce the same board.
+     * @param r The number of rows.
+     * @param c The number of columns.
+     * @param mines The number of mines.
+     * @param seed The seed of the mine layout.
+     */
+    public MineBoard(int r, int c, int mines, long seed)
+    {
+        this(r, c, mines, Engine.SCALAR, seed);
+    }
+
+    /**
+     * Instantiates a reproducible model with the specified engine.
+     * @param r The number of rows.
+     * @param c The number of columns.
+     * @param mines The number of mines.
+     * @param engine The engine used for adjacency counts and flood fills.
+     * @param seed The seed of the mine layout.
+     * @throws IllegalArgumentException If the mines cannot fit outside the first click's 3x3 square.
+     */
+    public MineBoard(int r, int c, int mines, Engine engine, long seed)
+    {
+        validate(r, c, mines);
+
+        flagCount = mineCount = totalMines = mines;
         rows = r;
         columns = c;
+        this.engine = engine;
+        this.seed = seed;
 
-        board = new int[rows][columns];
-        gameBoard = new int[rows][columns];
+        //A zeroed cell is a hidden, unmarked tile with no mine
+        cells = new byte[rows * columns];
+    }  
 
-        for (int row = 0; row < rows; row++)
+    /**
+     * Checks that a board of the given size and mines can be created, without creating it.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param mines The number of mines.
+     * @throws IllegalArgumentException If the board is empty or the mines cannot fit outside
+     *         the first click's 3x3 square.
+     */
+    public static void validate(int rows, int columns, int mines)
+    {
+        if (rows <= 0 || columns <= 0)
         {
-            for (int col = 0; col < columns; col++)
-            {
-                gameBoard[row][col] = HIDDEN_TILE;      
-            }
+            throw new IllegalArgumentException("The board must have at least one row and column");
         }
-    }  
+        //The first click keeps a mine-free square of up to 3x3 tiles around it
+        if (mines < 0 || mines > rows * columns - Math.min(rows, 3) * Math.min(columns, 3))
+        {
+            throw new IllegalArgumentException("Too many mines for a " + rows + " x " + columns + " board: " + mines);
+        }
+    }
 
     /**
      * Fills the grid with randomly generated mines around the player's initial click. This
-     * method ensures that the generated mine will never be the initial tile and that the initial tile is 
-     * always a zero-tile. The average time for this algorithm to finish is 0 milliseconds for 
-     * each difficulty.
+     * method ensures that no mine is generated in the 3x3 square of the initial tile, so the
+     * initial tile is always a zero-tile. The mines are drawn from the board's seed, so the
+     * same first click always produces the same layout.
      * @param xInitial The x coordinate of the initial tile.
      * @param yInitial The y coordinate of the initial tile.
      */
     public void generateMines(int xInitial, int yInitial)
     {
-        int x, y, count = 0;
+        generateMines(xInitial, yInitial, new SplittableRandom(seed));
+    }
 
+    /**
+     * Fills the grid with mines drawn from the specified generator. Runs in time linear in
+     * the number of tiles and never rejects a placement.
+     * @param xInitial The x coordinate of the initial tile.
+     * @param yInitial The y coordinate of the initial tile.
+     * @param random The generator to draw the mines from.
+     */
+    public void generateMines(int xInitial, int yInitial, SplittableRandom random)
+    {
         /*
          *                              Algorithm Steps:
-         * 1.   Generate a random x and y coordinate
-         * 2.   Check to see if the tile at the generated coordinates is the
-         *      initial tile. If so, regenerate. This ensures that the first click
-         *      can never cost the user the game. Otherwise, proceed to step 3.
-         * 3.   Set the tile located at the generated x and y coordinate to 
-         *      be a mine temporarily.
-         * 4.   If this results in the first tile clicked having an adjacency higher than 0, 
-         *      revert the tile to being hidden and repeat steps 1-3. Otherwise, leave 
-         *      the tile as a mine and increment the number of placed mines. 
-         * 5.   Repeat steps 1-4 until all mines have been placed.
+         * 1.   Count the eligible tiles, which are all the tiles outside the
+         *      3x3 square of the initial tile.
+         * 2.   Visit the eligible tiles in row-major order. Each one becomes a mine
+         *      with probability (mines still needed) / (eligible tiles still unvisited).
+         * 3.   Once the last eligible tile is visited, exactly the requested number of
+         *      mines has been placed, each possible layout being equally likely.
          */
-        
-        while (count < mineCount)
-        {  
-            do 
+        Metrics.Generate event = Metrics.begin(new Metrics.Generate());
+        int safeRows = Math.min(xInitial + 1, rows - 1) - Math.max(xInitial - 1, 0) + 1;
+        int safeColumns = Math.min(yInitial + 1, columns - 1) - Math.max(yInitial - 1, 0) + 1;
+        int remaining = rows * columns - safeRows * safeColumns;
+        int needed = totalMines;
+
+        for (int row = 0; row < rows; row++)
+        {
+            for (int col = 0; col < columns; col++)
             {
-                x = randCoord(rows); 
-                y = randCoord(columns);
+                int cell = row * columns + col;
+                cells[cell] &= ~MINE_BIT;
+                if (Math.abs(row - xInitial) <= 1 && Math.abs(col - yInitial) <= 1) {continue;}
+
+                if (needed > 0 && random.nextInt(remaining) < needed)
+                {
+                    cells[cell] |= MINE_BIT;
+                    needed--;
+                }
+                remaining--;
             }
-            while (x == xInitial && y == yInitial);
+        }
+        countAdjacent();
+        firstClick = false;
+
+        event.rows = rows;
+        event.columns = columns;
+        event.mines = totalMines;
+        Metrics.end(event);
+    }
+
+    /**
+     * Stores the number of adjacent mines of every tile in its packed cell.
+     */
+    private void countAdjacent()
+    {
+        if (engine == Engine.BITBOARD)
+        {
+            BitBoard.of(cells, rows, columns, MINE_BIT, MINE_BIT).countNeighbours(cells);
+            zeros = BitBoard.of(cells, rows, columns, MINE_BIT | COUNT_MASK, 0);
+            return;
+        }
 
-            if (board[x][y] != MINE)
+        for (int cell = 0; cell < cells.length; cell++) {cells[cell] &= ~COUNT_MASK;}
+
+        //Each mine adds one to the count of every tile in its 3x3 square
+        for (int row = 0; row < rows; row++)
+        {
+            for (int col = 0; col < columns; col++)
             {
-                board[x][y] = MINE;
-                if (determineAdjacent(xInitial, yInitial) == 0) {count++;}
-                else {board[x][y] = HIDDEN;}
+                if ((cells[row * columns + col] & MINE_BIT) == 0) {continue;}
+
+                for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++)
+                {
+                    for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, columns - 1); j++)
+                    {
+                        cells[i * columns + j]++;
+                    }
+                }
             }
         }
     }
 
     /**
-     * Determines the number of adjacent mines in a 3x3 square.
+     * Determines the number of adjacent mines in a 3x3 square. The counts of every tile are
+     * computed once when the mines are generated, so this is a single lookup.
      * @param row Desginates the row of the tile.
      * @param col Designates the column of the tile.
      * @return The number of mines adjacent to the current tile.
      */
-    public int determineAdjacent(int row, int col)
+    public int determineAdjacent(int row, int col) {return cells[row * columns + col] & COUNT_MASK;}
+
+    /**
+     * Counts the mines in the 3x3 square around a tile.
+     * @param row Desginates the row of the tile.
+     * @param col Designates the column of the tile.
+     * @return The number of mines adjacent to the current tile.
+     */
+    private int countMines(int row, int col)
     {
         int adjacent = 0;
         
@@ -121,19 +281,46 @@ public class MineBoard implements Serializable
      * @see revealAll
      */
     public void reveal(int row, int col)
+    {
+        Metrics.Reveal event = Metrics.begin(new Metrics.Reveal());
+        int opened = openedCount;
+        event.firstClick = firstClick;
+
+        revealTile(row, col);
+        publish();
+
+        event.rows = rows;
+        event.columns = columns;
+        event.opened = openedCount - opened;
+        Metrics.end(event);
+    }
+
+    /**
+     * Reveals a tile without publishing the change, so a chord or a batch can publish all of
+     * its reveals at once.
+     * @param row Designates the row
+     * @param col Designates the column
+     */
+    private void revealTile(int row, int col)
     {
         /*
          * If the tile is already opened, nothing else needs to occur.
          * Likewise, a flagged tile should not be revealed. 
          */
-        if (board[row][col] == OPENED || getState(row, col) == FLAGGED) {return;}
+        if (isOpened(row, col) || getState(row, col) == FLAGGED) {return;}
 
         //If it's the first move of the game, generate mines and reveal nearby tiles
         if (firstClick)
         {
+            //A no-guess board switches to the first seed whose layout can be solved from this click,
+            //and becomes an ordinary board if there is none
+            if (noGuess && !settled)
+            {
+                NoGuessGenerator search = generator != null ? generator : new NoGuessGenerator(0);
+                settleLayout(search.findSeed(rows, columns, totalMines, row, col, seed));
+            }
             generateMines(row, col);
             revealAll(row, col);
-            firstClick = false;
         }
         else //Otherwise, reveal as normal
         {
@@ -142,18 +329,122 @@ public class MineBoard implements Serializable
             if (isMine(row, col))
             {
                 setGameOver(true);
+                //Every mine and flag is shown once the game is lost
+                for (int cell = 0; isRecording() && cell < cells.length; cell++)
+                {
+                    if ((cells[cell] & (MINE_BIT | FLAG_MARK)) != 0) {changed(cell);}
+                }
             }
             else
             {
                 if (adjacent == 0) {revealAll(row, col);}
-                gameBoard[row][col] = adjacent;
-                board[row][col] = OPENED;
+                else {open(row, col);}
             }
         }
     }
 
-     /**
-     * Recursively reveals all nearby tiles with 0 adjacent mines. 
+    /**
+     * Reveals every unflagged neighbour of an opened tile that has as many flags around it
+     * as adjacent mines. A misplaced flag makes the chord reveal a mine.
+     * @param row Designates the row
+     * @param col Designates the column
+     */
+    public void chord(int row, int col)
+    {
+        if (!isOpened(row, col)) {return;}
+
+        int flags = 0;
+        for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++)
+        {
+            for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, columns - 1); j++)
+            {
+                if ((cells[i * columns + j] & MARK_MASK) == FLAG_MARK) {flags++;}
+            }
+        }
+
+        if (flags == determineAdjacent(row, col))
+        {
+            for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1) && !gameOver; i++)
+            {
+                for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, columns - 1) && !gameOver; j++)
+                {
+                    revealTile(i, j);
+                }
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Moves the mark of a tile one step along the right-click cycle: hidden, flagged,
+     * questioned and back to hidden.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     */
+    public void cycleMark(int row, int col)
+    {
+        switch (getState(row, col))
+        {
+            case HIDDEN_TILE: flag(row, col);
+                break;
+            case FLAGGED: question(row, col);
+                break;
+            case QUESTION: hide(row, col);
+                break;
+        }
+    }
+
+    /**
+     * Applies a batch of moves in one pass, stopping early if one of them ends the game.
+     * The listeners are told about the whole batch once, with every changed tile listed
+     * once in its final state, so a view repaints once however many moves were made.
+     * @param batch The moves to apply, in order.
+     * @return The tiles changed by the batch.
+     */
+    public TileChanges apply(MoveBatch batch)
+    {
+        batching = true;
+        if (batched == null) {batched = new long[(cells.length + 63) >>> 6];}
+        try
+        {
+            for (int i = 0; i < batch.size() && !gameOver; i++)
+            {
+                int row = batch.getRow(i), col = batch.getColumn(i);
+                switch (batch.getKind(i))
+                {
+                    case MoveBatch.REVEAL: revealTile(row, col);
+                        break;
+                    case MoveBatch.FLAG: flag(row, col);
+                        break;
+                    case MoveBatch.CHORD: chord(row, col);
+                        break;
+                    case MoveBatch.CYCLE: cycleMark(row, col);
+                        break;
+                }
+            }
+        }
+        finally
+        {
+            batching = false;
+        }
+
+        int[] cellList = changes == null ? new int[0] : Arrays.copyOf(changes, changeCount);
+        for (int cell : cellList) {batched[cell >>> 6] = 0;}
+        changeCount = 0;
+
+        TileChanges delta = changes(cellList);
+        if (cellList.length > 0 && listeners != null)
+        {
+            for (TileListener listener : listeners) {listener.tilesChanged(delta);}
+        }
+        return delta;
+    }
+
+    /**
+     * Reveals all nearby tiles with 0 adjacent mines. The flood fill works from an explicit
+     * stack of cell indices rather than recursing, so very large open areas cannot overflow
+     * the call stack. A tile is marked as opened when it is pushed, so every tile is visited
+     * at most once and the running time is linear in the number of tiles opened.
      * @param row Designates the row of the tile.
      * @param col Designates the column of the tile.
      * @see reveal
@@ -163,27 +454,64 @@ public class MineBoard implements Serializable
         //If the row and/or column is out of bounds, return control to calling instance.
         if (!isInRange(row, col)) {return;}
         //If a mine or visited tile is encountered, return control to calling instance.
-        if (isMine(row, col) || board[row][col] == OPENED) {return;}
+        if (isMine(row, col) || isOpened(row, col)) {return;}
+
+        if (engine == Engine.BITBOARD && determineAdjacent(row, col) == ZERO_TILE)
+        {
+            if (zeros == null) {zeros = BitBoard.of(cells, rows, columns, MINE_BIT | COUNT_MASK, 0);}
+
+            BitBoard reached = zeros.flood(row, col);
+            for (int cell = reached.nextSetBit(0); cell >= 0; cell = reached.nextSetBit(cell + 1))
+            {
+                if ((cells[cell] & (MINE_BIT | OPENED_BIT)) == 0) {open(cell / columns, cell % columns);}
+            }
+            return;
+        }
+
+        int[] stack = new int[64];
+        int size = 0;
+        open(row, col);
+        stack[size++] = row * columns + col;
+
+        while (size > 0)
+        {
+            int cell = stack[--size];
+            int r = cell / columns, c = cell % columns;
+
+            //Only zero-tiles spread the reveal to their neighbours
+            if ((cells[cell] & COUNT_MASK) != ZERO_TILE) {continue;}
+
+            for (int i = r - 1; i <= r + 1; i++)
+            {
+                for (int j = c - 1; j <= c + 1; j++)
+                {
+                    if (isInRange(i, j) && !isMine(i, j) && !isOpened(i, j))
+                    {
+                        open(i, j);
+                        if (size == stack.length) {stack = Arrays.copyOf(stack, size * 2);}
+                        stack[size++] = i * columns + j;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a single tile during a flood fill, refunding its flag if it had one.
+     * @param row Designates the row of the tile.
+     * @param col Designates the column of the tile.
+     */
+    private void open(int row, int col)
+    {
+        int cell = row * columns + col;
+        if (history != null) {history.saving(cell, cells[cell]);}
         //If the tile is flagged, increment the number of available flags
-        if (gameBoard[row][col] == FLAGGED) {flagCount++;}
+        if ((cells[cell] & MARK_MASK) == FLAG_MARK) {flagCount++;}
 
         //Mark the visited tile as opened, and note the number of adjacent mines.
-        int adjacent = determineAdjacent(row, col);
-        board[row][col] = OPENED;
-        gameBoard[row][col] = adjacent;
-
-        //If the tile is not a zero-tile, return control to the calling instance.
-        if (adjacent > 0) {return;} 
-
-        //Recursively reveal nearby zero-tiles
-        revealAll(row - 1, col + 1);      
-        revealAll(row + 1, col + 1);
-        revealAll(row, col - 1);
-        revealAll(row, col + 1);
-        revealAll(row - 1, col);
-        revealAll(row + 1, col);
-        revealAll(row - 1, col - 1);
-        revealAll(row + 1, col - 1);
+        cells[cell] = (byte)(OPENED_BIT | (cells[cell] & COUNT_MASK));
+        openedCount++;
+        changed(cell);
     }
 
     /**
@@ -201,12 +529,13 @@ public class MineBoard implements Serializable
             if (flagCount > 0)
             {
                 flagCount--;
-                gameBoard[row][col] = FLAGGED;
+                setMark(row, col, FLAG_MARK);
                 if (isMine(row, col)) {mineCount--;}
                 if (mineCount == 0) {setGameOver(true);}
             }
-            else {gameBoard[row][col] = QUESTION;}
+            else {setMark(row, col, QUESTION_MARK);}
         }
+        publish();
     }
 
     /**
@@ -219,15 +548,16 @@ public class MineBoard implements Serializable
      */
     public void question(int row, int col)
     {
-        if (board[row][col] != OPENED)
+        if (!isOpened(row, col))
         {
             flagCount++;
             if (isMine(row, col))
             {
                 mineCount++;
             }
-            gameBoard[row][col] = QUESTION;
+            setMark(row, col, QUESTION_MARK);
         }
+        publish();
     }
 
     /**
@@ -237,10 +567,190 @@ public class MineBoard implements Serializable
      */
     public void hide(int row, int col)
     {
-        if (board[row][col] != OPENED)
-        gameBoard[row][col] = HIDDEN_TILE;
+        if (!isOpened(row, col))
+        setMark(row, col, 0);
+        publish();
+    }
+
+    /**
+     * Replaces the flag/question mark of a tile, leaving the rest of its bits untouched.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     * @param mark One of 0, FLAG_MARK or QUESTION_MARK
+     */
+    private void setMark(int row, int col, int mark)
+    {
+        int cell = row * columns + col;
+        if (history != null) {history.saving(cell, cells[cell]);}
+        cells[cell] = (byte)((cells[cell] & ~MARK_MASK) | mark);
+        changed(cell);
+    }
+
+    /**
+     * Registers a listener to be told about the tiles changed by every move.
+     * @param listener The listener to add.
+     */
+    public void addTileListener(TileListener listener)
+    {
+        if (listeners == null) {listeners = new ArrayList<>(1);}
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     * @param listener The listener to remove.
+     */
+    public void removeTileListener(TileListener listener)
+    {
+        if (listeners != null) {listeners.remove(listener);}
+    }
+
+    /**
+     * Notes a tile changed by the current move. Nothing is recorded without listeners,
+     * unless a batch is being applied, since its changes are also returned.
+     * @param cell The row-major index of the tile.
+     */
+    private void changed(int cell)
+    {
+        if (batching)
+        {
+            //A tile touched by several moves of a batch is listed once
+            if ((batched[cell >>> 6] & (1L << cell)) != 0) {return;}
+            batched[cell >>> 6] |= 1L << cell;
+        }
+        else if (!isRecording()) {return;}
+        if (changes == null) {changes = new int[16];}
+        if (changeCount == changes.length) {changes = Arrays.copyOf(changes, changeCount * 2);}
+        changes[changeCount++] = cell;
+    }
+
+    /**
+     * Returns True if a change set is being built, which is while a batch is applied or
+     * while anyone is listening.
+     */
+    private boolean isRecording()
+    {
+        return batching || (listeners != null && !listeners.isEmpty());
+    }
+
+    /**
+     * Sends the tiles changed by the current move to the listeners.
+     */
+    private void publish()
+    {
+        if (batching || changeCount == 0) {return;}
+
+        int[] cellList = Arrays.copyOf(changes, changeCount);
+        changeCount = 0;
+
+        TileChanges delta = changes(cellList);
+        for (TileListener listener : listeners) {listener.tilesChanged(delta);}
+    }
+
+    /**
+     * Creates the change set of the given tiles in their current states.
+     * @param cellList The row-major indices of the changed tiles.
+     */
+    private TileChanges changes(int[] cellList)
+    {
+        int[] states = new int[cellList.length];
+        for (int i = 0; i < cellList.length; i++)
+        {
+            states[i] = getState(cellList[i] / columns, cellList[i] % columns);
+        }
+        return new TileChanges(columns, cellList, states, gameOver);
+    }
+
+    /**
+     * Swaps tiles and counters with copies saved by a MoveHistory, which undoes or redoes a
+     * move, and publishes the tiles. The copies are left holding what was replaced. Undoing
+     * walks the tiles backwards, so a tile changed twice by one move ends up as it was first.
+     * @param cellList The row-major indices of the tiles.
+     * @param saved The saved tiles, swapped in place.
+     * @param undo True to walk the tiles backwards.
+     * @param counters The flag count, the unflagged mine count, the opened count and 1 if
+     *                 the game is over, swapped in place.
+     */
+    void exchange(int[] cellList, byte[] saved, boolean undo, int[] counters)
+    {
+        boolean lost = gameOver && mineCount > 0;
+        for (int i = 0; i < cellList.length; i++)
+        {
+            int k = undo ? cellList.length - 1 - i : i, cell = cellList[k];
+            byte current = cells[cell];
+            cells[cell] = saved[k];
+            saved[k] = current;
+            changed(cell);
+        }
+
+        int flags = flagCount, mines = mineCount, opened = openedCount, over = gameOver ? 1 : 0;
+        flagCount = counters[0];
+        mineCount = counters[1];
+        openedCount = counters[2];
+        gameOver = counters[3] != 0;
+        counters[0] = flags;
+        counters[1] = mines;
+        counters[2] = opened;
+        counters[3] = over;
+
+        //A lost game shows every mine and flag, so they change when the loss is undone or redone
+        if (lost || (gameOver && mineCount > 0))
+        {
+            for (int cell = 0; isRecording() && cell < cells.length; cell++)
+            {
+                if ((cells[cell] & (MINE_BIT | FLAG_MARK)) != 0) {changed(cell);}
+            }
+        }
+        publish();
     }
 
+    /**
+     * Takes back the first click: the mines are removed, every tile is hidden again with the
+     * mark it had before the click, and the seed is put back, so that revealing the same
+     * tile lays out the same mines again. Publishes the tiles the click opened.
+     * @param cellList The tiles opened by the click.
+     * @param saved The tiles as they were before they were opened.
+     * @param seed The seed before the click.
+     * @param flags The flag count before the click.
+     * @param mines The unflagged mine count before the click.
+     */
+    void unlayout(int[] cellList, byte[] saved, long seed, int flags, int mines)
+    {
+        for (int cell = 0; cell < cells.length; cell++) {cells[cell] &= MARK_MASK;}
+        for (int i = cellList.length - 1; i >= 0; i--)
+        {
+            cells[cellList[i]] = (byte)(saved[i] & MARK_MASK);
+            changed(cellList[i]);
+        }
+        flagCount = flags;
+        mineCount = mines;
+        openedCount = 0;
+        gameOver = false;
+        firstClick = true;
+        settled = false;
+        this.seed = seed;
+        zeros = null;
+        publish();
+    }
+
+    /**
+     * Chooses the layout of a no-guess board from a search already made for its first click,
+     * such as one a server ran off its selector thread, so that the click does not search
+     * again.
+     * @param solvable The seed NoGuessGenerator found for the click, or null if it found none.
+     */
+    void settleLayout(Long solvable)
+    {
+        if (solvable != null) {seed = solvable;}
+        else {noGuess = false;}
+        settled = true;
+    }
+
+    /**
+     * Attaches the history that records the tiles changed by every move, or detaches it.
+     */
+    void setHistory(MoveHistory history) {this.history = history;}
+
     /**
      * Declares whether or not the game should end.
      * @param gameOver boolean value representing the game's state.
@@ -258,7 +768,15 @@ public class MineBoard implements Serializable
      * @param col The column of the tile to evaluate.
      * @return True if the tile is a mine
      */
-    public boolean isMine(int row, int col) {return board[row][col] == MINE;}
+    public boolean isMine(int row, int col) {return (cells[row * columns + col] & MINE_BIT) != 0;}
+
+    /**
+     * Determines whether or not the tile at the specified position has been opened.
+     * @param row The row of the tile to evaluate.
+     * @param col The column of the tile to evaluate.
+     * @return True if the tile is opened
+     */
+    public boolean isOpened(int row, int col) {return (cells[row * columns + col] & OPENED_BIT) != 0;}
 
      /**
      * Determines if the given coordinates are within the range of the board.
@@ -288,17 +806,164 @@ public class MineBoard implements Serializable
      */
     public int getFlagCount() {return flagCount;}
 
+    /**
+     * Returns the number of opened tiles.
+     */
+    public int getOpenedCount() {return openedCount;}
+
+    /**
+     * Returns the number of mines the board was created with.
+     */
+    public int getTotalMines() {return totalMines;}
+
+    /**
+     * Returns the seed of the mine layout.
+     */
+    public long getSeed() {return seed;}
+
+    /**
+     * Returns the engine used for adjacency counts and flood fills.
+     */
+    public Engine getEngine() {return engine;}
+
+    /**
+     * Returns True if the mines will be laid out so the game can be won without guessing.
+     * After the first click, True only if such a layout was found.
+     */
+    public boolean isNoGuess() {return noGuess;}
+
+    /**
+     * Chooses whether the mines are laid out so the game can be won without guessing. Only
+     * has an effect before the first click.
+     * @param noGuess True for a board that is solvable by logic alone.
+     */
+    public void setNoGuess(boolean noGuess) {this.noGuess = noGuess;}
+
+    /**
+     * Sets the generator that searches for the layout of a no-guess board. Without one, the
+     * search runs on the thread making the first click. Either finds the same layout.
+     * @param generator The generator, or null to search on the clicking thread.
+     */
+    public void setGenerator(NoGuessGenerator generator) {this.generator = generator;}
+
     /**
      * Returns the state of the specified tile.
      * @param row Designates the row.
      * @param col Desginates the column.
      */
-    public int getState(int row, int col) {return gameBoard[row][col];}
+    public int getState(int row, int col)
+    {
+        int cell = cells[row * columns + col];
+        if ((cell & OPENED_BIT) != 0) {return cell & COUNT_MASK;}
+
+        switch (cell & MARK_MASK)
+        {
+            case FLAG_MARK: return FLAGGED;
+            case QUESTION_MARK: return QUESTION;
+            default: return HIDDEN_TILE;
+        }
+    }
       
     /**
-     * Generates a random coordinate based upon the number of rows/columns in the board.
-     * @param max The maximum possible coordinate to generate.
-     * @return The generated x/y coordinate.
+     * Returns the packed tiles of the board in row-major order. The array is the board's own
+     * storage and must only be read.
+     */
+    byte[] getCells() {return cells;}
+
+    /**
+     * Returns True while the mines have not been generated yet.
      */
-    public int randCoord(int max) {return (int)((Math.random() * max));}
+    boolean isFirstClick() {return firstClick;}
+
+    /**
+     * Replaces the whole state of the board with a saved one. Only the mine, opened and mark
+     * bits of the tiles are used, the adjacency counts are recomputed.
+     * @param saved The packed tiles, in row-major order. May be the array of getCells().
+     * @param mines The number of unflagged mines remaining.
+     * @param flags The number of flags available.
+     * @param over True if the game is over.
+     * @param first True if the mines have not been generated yet.
+     */
+    void restore(byte[] saved, int mines, int flags, boolean over, boolean first)
+    {
+        //The moves before this can no longer be undone
+        if (history != null) {history.clear();}
+        openedCount = 0;
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            cells[cell] = (byte)(saved[cell] & (MINE_BIT | OPENED_BIT | MARK_MASK));
+            openedCount += (cells[cell] & OPENED_BIT) >>> 5;
+        }
+        mineCount = mines;
+        flagCount = flags;
+        gameOver = over;
+        firstClick = first;
+        zeros = null;
+        if (!firstClick) {countAdjacent();}
+    }
+
+    /**
+     * Restores the board from a stream. Games saved before the tiles were packed into a
+     * single byte array stored two int[][] grids, so those are converted on the way in.
+     * @param in The stream to read from.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream.GetField fields = in.readFields();
+        rows = fields.get("rows", 0);
+        columns = fields.get("columns", 0);
+        flagCount = fields.get("flagCount", 0);
+        mineCount = fields.get("mineCount", 0);
+        gameOver = fields.get("gameOver", false);
+        firstClick = fields.get("firstClick", true);
+        noGuess = fields.get("noGuess", false);
+        seed = fields.get("seed", 0L);
+        engine = fields.getObjectStreamClass().getField("engine") != null ? (Engine)fields.get("engine", null) : null;
+        if (engine == null) {engine = Engine.SCALAR;}
+
+        if (fields.getObjectStreamClass().getField("cells") != null)
+        {
+            cells = (byte[])fields.get("cells", null);
+        }
+        else if (fields.getObjectStreamClass().getField("board") != null)
+        {
+            int[][] board = (int[][])fields.get("board", null);
+            int[][] gameBoard = (int[][])fields.get("gameBoard", null);
+            cells = new byte[rows * columns];
+
+            for (int row = 0; row < rows; row++)
+            {
+                for (int col = 0; col < columns; col++)
+                {
+                    int state = gameBoard[row][col], cell = 0;
+                    if (board[row][col] == MINE) {cell |= MINE_BIT;}
+                    if (board[row][col] == OPENED) {cell |= OPENED_BIT | state;}
+                    else if (state == FLAGGED) {cell |= FLAG_MARK;}
+                    else if (state == QUESTION) {cell |= QUESTION_MARK;}
+                    cells[row * columns + col] = (byte)cell;
+                }
+            }
+            //These saves only stored the counts of opened tiles
+            if (!firstClick) {countAdjacent();}
+        }
+
+        if (rows <= 0 || columns <= 0 || cells == null || cells.length != rows * columns)
+        {
+            throw new InvalidObjectException("Invalid board dimensions");
+        }
+        //Older saves did not store the initial mine count
+        if (fields.getObjectStreamClass().getField("totalMines") != null) {totalMines = fields.get("totalMines", 0);}
+        else if (firstClick) {totalMines = mineCount;}
+        else
+        {
+            for (byte cell : cells)
+            {
+                if ((cell & MINE_BIT) != 0) {totalMines++;}
+            }
+        }
+        for (byte cell : cells)
+        {
+            if ((cell & OPENED_BIT) != 0) {openedCount++;}
+        }
+    }
 } 
\ No newline at end of file
@@ -1,24 +1,58 @@
 import java.awt.*;
+import java.io.IOException;
 import javax.swing.*;
 
 /**
  * This frame contains the "MinePanel" which serves as the view of the game.
  */
-public class MineFrame extends JFrame
+public class MineFrame extends JFrame implements PanelHost
 {
     private static final long serialVersionUID = 4816731330494815932L;
     
     private MineBoard board;
     private JLabel mineLabel;
     private MinePanel minePanel;
+    private MoveJournal journal;
+    private StatsStore stats;
+    private ModelThread modelThread;
+    //Lays out the no-guess boards of this window
+    private NoGuessGenerator generator;
+    private ReplayPlayer player;
+    //The board of the game being played while a replay is shown
+    private MineBoard playing;
+    private JScrollPane scrollPane;
     private JPanel fileBarPanel, mainPanel, labelPanel;
     private FileMenu menu;
     private BorderLayout layout;
 
     public MineFrame(MineBoard board)
+    {
+        this(board, null);
+    }
+
+    /**
+     * Creates the window of a game that records its outcomes.
+     * @param board The board to play.
+     * @param stats The store to record finished games in, already opened since that can
+     *              take a while, or null to record none.
+     */
+    public MineFrame(MineBoard board, StatsStore stats)
     {
         super("Minesweeper Java");
         this.board = board;
+        this.stats = stats;
+        generator = new NoGuessGenerator(Runtime.getRuntime().availableProcessors());
+        board.setGenerator(generator);
+        journal = new MoveJournal(MoveJournal.DEFAULT_DIRECTORY);
+        modelThread = new ModelThread(journal, new ReplayRecorder(ReplayRecorder.DEFAULT_DIRECTORY), stats);
+        modelThread.startGame(board);
+        //The queued moves are made and then written before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            modelThread.close(1000);
+            journal.close();
+            closeStats();
+        }));
         
         fileBarPanel = new JPanel();
         mainPanel = new JPanel();
@@ -35,48 +69,188 @@ public class MineFrame extends JFrame
         fileBarPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
         fileBarPanel.add(menu);
         minePanel.setBackground(Color.WHITE);
+        scrollPane = new JScrollPane(minePanel);
+        scrollPane.setBorder(null);
         mainPanel.setLayout(new GridLayout(2, 1));
         mainPanel.add(fileBarPanel);
         mainPanel.add(labelPanel);
         
         setLayout(layout);
         add(mainPanel, BorderLayout.NORTH);
-        add(minePanel, BorderLayout.CENTER);
+        add(scrollPane, BorderLayout.CENTER);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setBackground(Color.WHITE);
-        setVisible(true);
         setResizable(false);
+        //Sized before it is shown, so the first frame is already at its final size
         dynamicResize();
+        setVisible(true);
     }
     
     /**
-     * Resizes the frame based on the number of tiles present on the screen
+     * Resizes the frame based on the number of tiles present on the screen. Boards
+     * larger than the screen are scrolled instead.
      */
+    @Override
     public final void dynamicResize()
     {
-        int determinedHeight = MinePanel.IMAGE_SIZE * board.getRows();
-        int determinedWidth = MinePanel.IMAGE_SIZE * board.getColumns();
-        setSize(determinedWidth + 25, determinedHeight + 75); 
+        Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        int tileSize = minePanel.getTileSize();
+        scrollPane.getVerticalScrollBar().setUnitIncrement(tileSize);
+        scrollPane.getHorizontalScrollBar().setUnitIncrement(tileSize);
+
+        int determinedHeight = tileSize * board.getRows() + (player == null ? 0 : player.getPreferredSize().height);
+        int determinedWidth = tileSize * board.getColumns();
+        setSize(Math.min(determinedWidth + 25, screen.width), Math.min(determinedHeight + 75, screen.height)); 
     }
 
     /**
-     * Gets the model object associated with the frame.
+     * Gets the model object associated with the frame. Moves are made on it by the model
+     * thread, so it should only be read through their results.
      * @return The model object.
      */
+    @Override
     public MineBoard getModel()
     {
-        mineLabel.setText(Integer.toString(board.getFlagCount()));
         return board;
     }
 
     /**
-     * Updates the model object of the frame.
+     * Updates the model object of the frame. Moves still queued for the previous board are
+     * made on it, but no longer shown.
      * @param board The model to change to.
      */
     public void setModel(MineBoard board)
     {
+        if (player != null) {closePlayer();}
         this.board = board;
+        board.setGenerator(generator);
         minePanel.refresh();
+        modelThread.startGame(board);
+    }
+
+    /**
+     * Plays a replay in place of the game, which is put back when the replay is closed.
+     * The game cannot be played in the meantime.
+     * @param replay The replay to play.
+     */
+    public void playReplay(Replay replay)
+    {
+        if (player == null) {playing = board;}
+        else {closePlayer();}
+        player = new ReplayPlayer(this, replay);
+        add(player, BorderLayout.SOUTH);
+        if (!player.start())
+        {
+            stopReplay();
+            return;
+        }
+        dynamicResize();
+        revalidate();
+    }
+
+    /**
+     * Stops the replay and puts back the game that was being played. No moves can be queued
+     * for the game while the replay is shown, so the panel can read it straight away.
+     */
+    public void stopReplay()
+    {
+        if (player == null) {return;}
+        closePlayer();
+        if (board != playing) {showReplayBoard(playing);}
+    }
+
+    /**
+     * Returns True while a replay is shown instead of the game.
+     */
+    @Override
+    public boolean isReplaying() {return player != null;}
+
+    /**
+     * Shows a board without starting a game on it, resizing the frame if it has another size.
+     * @param board The board to show.
+     */
+    void showReplayBoard(MineBoard board)
+    {
+        boolean resized = board.getRows() != this.board.getRows() || board.getColumns() != this.board.getColumns();
+        this.board = board;
+        minePanel.refresh();
+        if (resized) {dynamicResize();}
+    }
+
+    /**
+     * Stops the player and removes its controls.
+     */
+    private void closePlayer()
+    {
+        player.stop();
+        remove(player);
+        player = null;
+        dynamicResize();
+        revalidate();
+    }
+
+    /**
+     * Shows the number of flags the player has left.
+     * @param flags The number of flags available.
+     */
+    @Override
+    public void showFlagCount(int flags)
+    {
+        mineLabel.setText(Integer.toString(flags));
+    }
+
+    /**
+     * Tells the player the game is over in a dialog.
+     * @param message What happened.
+     */
+    @Override
+    public void showGameOver(String message)
+    {
+        JOptionPane.showMessageDialog(null, message);
+    }
+
+    /**
+     * Returns the journal autosaving the current game.
+     * @return The MoveJournal of the frame.
+     */
+    public MoveJournal getJournal()
+    {
+        return journal;
+    }
+
+    /**
+     * Returns the statistics of the games played, or null if they cannot be kept.
+     * @return The StatsStore of the frame.
+     */
+    public StatsStore getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * Checkpoints the statistics so the next start does not read the games recorded since.
+     */
+    private void closeStats()
+    {
+        if (stats == null) {return;}
+        try
+        {
+            stats.close();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Statistics not checkpointed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the thread that makes the moves on the board.
+     * @return The ModelThread of the frame.
+     */
+    @Override
+    public ModelThread getModelThread()
+    {
+        return modelThread;
     }
 
     /**
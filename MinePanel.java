@@ -1,184 +1,393 @@
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.event.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.swing.*;
 /**
- * The "View"
+ * The "View". The whole board is a single component that paints its tiles straight from
+ * the images, and only the tiles intersecting the clip rectangle are drawn. Clicks are
+ * mapped to tiles arithmetically, so the cost of a frame depends on the size of the
+ * viewport rather than the size of the board.
+ *
+ * The panel can be shown before the tile images are loaded. Until then it paints plain
+ * placeholder tiles, and it repaints itself with the images as soon as they arrive.
  */
 public class MinePanel extends JPanel
 {
     private static final long serialVersionUID = 1422257141027993415L;
     public static final int IMAGE_SIZE = 32;
-    private final ImageIcon hidden = new ImageIcon("img/hidden.png");
-    private final ImageIcon flagged = new ImageIcon("img/flagged.png");
-    private final ImageIcon mine = new ImageIcon("img/mine.png");
-    private final ImageIcon openedMine = new ImageIcon("img/openedMine.png");
-    private final ImageIcon falselyFlagged = new ImageIcon("img/falselyFlaggedMine.png");
-    private final ImageIcon query = new ImageIcon("img/question.png");
-    private List<ImageIcon> iconsList;
-    private MineFrame frame;
-    private GridLayout grid; 
+    public static final int MIN_TILE_SIZE = 8;
+    public static final int MAX_TILE_SIZE = 96;
+    /** The shortest time between two repaints caused by moves, in milliseconds. */
+    public static final int FRAME_MILLIS = 16;
+    private static final Color PLACEHOLDER = new Color(0xC0C0C0);
+    private TileAtlas atlas;
+    private PanelHost host;
+    //The board being shown
+    private MineBoard model;
+    //The area changed by moves since the last repaint, or null
+    private Rectangle dirty;
+    private final Timer repaintTimer;
+    //Run once the board has first been painted with its images
+    private Runnable onInteractive;
     private int rows, columns;
-    private GameButton[][] tiles;
-    
-    public MinePanel(MineFrame frame)
+    private int tileSize = IMAGE_SIZE;
+    //The TileAtlas sprite each tile currently shows
+    private byte[] shown;
+
+    /**
+     * Creates the panel showing the board of a host.
+     * @param host The window around the panel, or anything else that hosts it.
+     */
+    public MinePanel(PanelHost host)
     {
         super();
-        this.frame = frame;
-        rows = frame.getModel().getRows();
-        columns = frame.getModel().getColumns();
-        tiles = new GameButton[rows][columns];
-        iconsList = initalizeImageList();
-        grid = new GridLayout(rows,columns);
-        setLayout(grid);
+        this.host = host;
+        setOpaque(true);
+        repaintTimer = new Timer(FRAME_MILLIS, e -> flushRepaint());
+        repaintTimer.setRepeats(false);
 
-        for (int x = 0; x < rows; x++)
+        loadAtlas();
+
+        //The "Controller": a single listener maps every click to its tile
+        addMouseListener(new MouseAdapter()
         {
-            for (int y = 0; y < columns; y++)
+            public void mouseClicked(MouseEvent e)
             {
-                GameButton tile = new GameButton(frame, x, y);
-                tiles[x][y] = tile;
-                tiles[x][y].setImage(hidden, IMAGE_SIZE, IMAGE_SIZE);
-                add(tile);
+                int row = e.getY() / tileSize, col = e.getX() / tileSize;
+                if (row >= rows || col >= columns || host.isReplaying()) {return;}
+
+                //Moves are made on the model thread, and their results come back through showMove
+                if (e.getButton() == 1)
+                {
+                    host.getModelThread().move(model, MoveBatch.REVEAL, row, col, MinePanel.this::showMove);
+                }
+                else if (e.getButton() == 3)
+                {
+                    host.getModelThread().move(model, MoveBatch.CYCLE, row, col, MinePanel.this::showMove);
+                }
             }
-        }
-        repaint();
+        });
+
+        //Ctrl + mouse wheel zooms, the plain wheel is left to the scroll pane
+        addMouseWheelListener(new MouseWheelListener()
+        {
+            public void mouseWheelMoved(MouseWheelEvent e)
+            {
+                if (e.isControlDown())
+                {
+                    zoom(tileSize - e.getWheelRotation() * 4, e.getPoint());
+                }
+                else
+                {
+                    Container scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, MinePanel.this);
+                    if (scrollPane != null)
+                    {
+                        scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(MinePanel.this, e, scrollPane));
+                    }
+                }
+            }
+        });
+        refresh();
     }
 
     /**
-     * Populates a List with ImageIcons for later use
-     * @return The populated List
+     * Takes the tile images if they are loaded, or repaints with them once they are. If they
+     * cannot be loaded, the player is told why and may try again.
      */
-    public List<ImageIcon> initalizeImageList()
+    private void loadAtlas()
     {
-        List<ImageIcon> icons = new ArrayList<>(9);
-        icons.add(new ImageIcon("img/opened.png"));
-        icons.add(new ImageIcon("img/one.png"));
-        icons.add(new ImageIcon("img/two.png"));
-        icons.add(new ImageIcon("img/three.png"));
-        icons.add(new ImageIcon("img/four.png"));
-        icons.add(new ImageIcon("img/five.png"));
-        icons.add(new ImageIcon("img/six.png"));
-        icons.add(new ImageIcon("img/seven.png"));
-        icons.add(new ImageIcon("img/eight.png"));
-        return icons;
+        CompletableFuture<TileAtlas> loading = TileAtlas.load();
+        if (loading.isDone() && !loading.isCompletedExceptionally())
+        {
+            atlas = loading.join();
+            return;
+        }
+        loading.whenComplete((loaded, ex) -> SwingUtilities.invokeLater(() ->
+        {
+            if (ex == null)
+            {
+                atlas = loaded;
+                repaint();
+                return;
+            }
+            //Only the wrapper added by the future is taken off
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            String reason = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            int choice = JOptionPane.showConfirmDialog(null, "The tile images could not be loaded: " + reason + "\nTry again?",
+                "Error", JOptionPane.YES_NO_OPTION, JOptionPane.ERROR_MESSAGE);
+            if (choice == JOptionPane.YES_OPTION) {loadAtlas();}
+        }));
     }
 
     /**
-     * Reinitializes the panel
+     * Reinitializes the panel for the board of the host. The tiles of the previous board
+     * are reused when the new one has as many. The board must not have been handed to the
+     * model thread yet, or its game must be over, since it is read directly.
      */
     public void refresh()
     {
-        removeAll();
-        rows = frame.getModel().getRows();
-        columns = frame.getModel().getColumns();
-        tiles = new GameButton[rows][columns];
-        grid = new GridLayout(rows,columns);
-        setLayout(grid);
+        model = host.getModel();
+        rows = model.getRows();
+        columns = model.getColumns();
+        if (shown == null || shown.length != rows * columns) {shown = new byte[rows * columns];}
 
         for (int x = 0; x < rows; x++)
         {
             for (int y = 0; y < columns; y++)
             {
-                GameButton tile = new GameButton(frame, x, y);
-                tiles[x][y] = tile;
-                updateTileImage(x, y, frame.getModel().getState(x, y));
-                add(tile);
+                shown[x * columns + y] = (byte)imageFor(model.getState(x, y));
             }
         }
+        dirty = null;
+        host.showFlagCount(model.getFlagCount());
+        revalidate();
         repaint();
-        validate();
     }
 
     /**
-     * This method is only called when a button is clicked, so 
-     * it only updates the tiles when it has to. This improves 
-     * efficiency by not updating every time the frame is repainted.
-     * Furthermore, it only updates every tile if a recursive reveal happens
-     * or a mine is hit, otherwise it singly updates the clicked tile.
-     * @param r The row of the current tile.
-     * @param c The column of the current tile.
-     * @see updateTileImage(int row, int col, int state)
+     * Runs a task once the board has first been painted with its images, when the player
+     * can see it and play. Runs it right after the next paint if that has already happened.
+     * @param task The task, run on the event dispatch thread.
      */
-    public void updatePanel(int r, int c)
+    public void whenInteractive(Runnable task)
     {
-        int state = 0;
+        onInteractive = task;
+        repaint();
+    }
+
+    /**
+     * Returns the current width and height of a tile in pixels.
+     */
+    public int getTileSize() {return tileSize;}
+
+    /**
+     * Zooms the board by changing the size of its tiles, and fits the window to it.
+     * @param size The new width and height of a tile, clamped to the allowed range.
+     */
+    public void setTileSize(int size)
+    {
+        tileSize = Math.max(MIN_TILE_SIZE, Math.min(MAX_TILE_SIZE, size));
+        host.dynamicResize();
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Zooms the board, scrolling it so the point under the mouse stays where it is on screen.
+     * @param size The new width and height of a tile.
+     * @param anchor The point under the mouse, in the coordinates of the panel.
+     */
+    private void zoom(int size, Point anchor)
+    {
+        int old = tileSize;
+        setTileSize(size);
+        JViewport viewport = (JViewport)SwingUtilities.getAncestorOfClass(JViewport.class, this);
+        if (tileSize == old || viewport == null) {return;}
 
-        //In this case, recursive reveal happens so every tile needs to be checked
-        if(frame.getModel().determineAdjacent(r, c) == 0)
+        //Lay the zoomed panel out now, in the window resized for it, so it can be scrolled
+        Window window = SwingUtilities.getWindowAncestor(this);
+        if (window != null) {window.validate();}
+        else {viewport.getParent().validate();}
+
+        Point view = viewport.getViewPosition();
+        Dimension extent = viewport.getExtentSize(), zoomed = getPreferredSize();
+        int x = (int)((long)anchor.x * tileSize / old) - (anchor.x - view.x);
+        int y = (int)((long)anchor.y * tileSize / old) - (anchor.y - view.y);
+        viewport.setViewPosition(new Point(Math.max(0, Math.min(x, zoomed.width - extent.width)),
+            Math.max(0, Math.min(y, zoomed.height - extent.height))));
+    }
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        return new Dimension(columns * tileSize, rows * tileSize);
+    }
+
+    /**
+     * Paints the tiles intersecting the clip rectangle.
+     */
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        Metrics.Paint event = Metrics.begin(new Metrics.Paint());
+        super.paintComponent(g);
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {clip = new Rectangle(0, 0, getWidth(), getHeight());}
+
+        int firstRow = Math.max(clip.y / tileSize, 0);
+        int lastRow = Math.min((clip.y + clip.height - 1) / tileSize, rows - 1);
+        int firstColumn = Math.max(clip.x / tileSize, 0);
+        int lastColumn = Math.min((clip.x + clip.width - 1) / tileSize, columns - 1);
+
+        //Sprites are fetched at the device resolution, so HiDPI screens stay sharp
+        double scale = ((Graphics2D)g).getTransform().getScaleX();
+        int spriteSize = (int)Math.round(tileSize * scale);
+
+        if (atlas == null) {paintPlaceholder(g, firstRow, lastRow, firstColumn, lastColumn);}
+        else
         {
-            for (int row = 0; row < rows; row++)
+            for (int row = firstRow; row <= lastRow; row++)
             {
-                for (int column = 0; column < columns; column++)
+                for (int column = firstColumn; column <= lastColumn; column++)
                 {
-                    state = frame.getModel().getState(row, column);
-                    updateTileImage(row, column, state);      
+                    Image image = atlas.getSprite(shown[row * columns + column], spriteSize);
+                    g.drawImage(image, column * tileSize, row * tileSize, tileSize, tileSize, null);
                 }
             }
+            if (onInteractive != null)
+            {
+                SwingUtilities.invokeLater(onInteractive);
+                onInteractive = null;
+            }
         }
-        //Otherwise, only one tile needs to be updated
-        else 
+
+        event.tiles = Math.max(lastRow - firstRow + 1, 0) * Math.max(lastColumn - firstColumn + 1, 0);
+        event.spriteSize = spriteSize;
+        Metrics.end(event);
+    }
+
+    /**
+     * Paints raised grey tiles while the images are loading.
+     */
+    private void paintPlaceholder(Graphics g, int firstRow, int lastRow, int firstColumn, int lastColumn)
+    {
+        g.setColor(PLACEHOLDER);
+        for (int row = firstRow; row <= lastRow; row++)
         {
-            updateTileImage(r, c, frame.getModel().getState(r, c));
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                g.fill3DRect(column * tileSize, row * tileSize, tileSize, tileSize, true);
+            }
         }
+    }
+
+    /**
+     * Shows the result of a move made on the model thread. Only the tiles in the change set
+     * are touched, so the cost of a move is proportional to the number of tiles it changed,
+     * and the repaint is left to flushRepaint so that a burst of moves paints once.
+     * Results for a board no longer shown are ignored.
+     * @param result What the move did.
+     */
+    public void showMove(MoveResult result)
+    {
+        if (result.getBoard() != model) {return;}
+        TileChanges changes = result.getChanges();
+        if (changes != null) {showChanges(changes, result.isLost());}
+        host.showFlagCount(result.getFlagCount());
+        updatePanel(result);
+    }
 
-           
-        //Display all mines if the player loses
-        if (frame.getModel().isGameOver() && frame.getModel().getMineCount() > 0)
+    /**
+     * Updates the images of the tiles changed by a move and adds them to the dirty area.
+     * If the move lost the game, the change set also holds every mine and flag to display.
+     * @param changes The changed tiles and their new states.
+     * @param lost True if the move lost the game, in which case the board no longer changes.
+     */
+    private void showChanges(TileChanges changes, boolean lost)
+    {
+        Metrics.ViewUpdate event = Metrics.begin(new Metrics.ViewUpdate());
+        int top = rows, bottom = -1, left = columns, right = -1;
+
+        for (int i = 0; i < changes.size(); i++)
         {
-            for (int row = 0; row < rows; row++ )
-            {
-                for (int column = 0; column < columns; column++)
-                {
-                    //If the tile flagged isn't a mine, display the falsely flagged mine image
-                    if (!frame.getModel().isMine(row, column) && frame.getModel().getState(row, column) == MineBoard.FLAGGED)
-                    {
-                        tiles[row][column].setImage(falselyFlagged, IMAGE_SIZE, IMAGE_SIZE); 
-                    }
+            int row = changes.getRow(i), column = changes.getColumn(i), state = changes.getState(i);
+            int image = imageFor(state);
 
-                    //Otherwise, if the tile is a mine and is not flagged, display the mine
-                    else if (frame.getModel().isMine(row, column) && frame.getModel().getState(row, column) != MineBoard.FLAGGED)
-                    {
-                        tiles[row][column].setImage(mine, IMAGE_SIZE, IMAGE_SIZE); 
-                    }
-                }
-            }
+            //If the tile flagged isn't a mine, display the falsely flagged mine image
+            if (lost && !model.isMine(row, column) && state == MineBoard.FLAGGED) {image = TileAtlas.FALSELY_FLAGGED;}
+            //Otherwise, if the tile is a mine and is not flagged, display the mine
+            else if (lost && model.isMine(row, column) && state != MineBoard.FLAGGED) {image = TileAtlas.MINE;}
+
+            shown[changes.getCell(i)] = (byte)image;
+            top = Math.min(top, row);
+            bottom = Math.max(bottom, row);
+            left = Math.min(left, column);
+            right = Math.max(right, column);
+        }
 
+        if (bottom >= 0)
+        {
+            addDirty(new Rectangle(left * tileSize, top * tileSize, (right - left + 1) * tileSize, (bottom - top + 1) * tileSize));
+        }
+
+        event.tiles = changes.size();
+        Metrics.end(event);
+    }
+
+    /**
+     * Adds an area to be repainted and starts the frame timer if it isn't running, so moves
+     * arriving faster than FRAME_MILLIS share a single repaint.
+     */
+    private void addDirty(Rectangle area)
+    {
+        if (dirty == null) {dirty = area;}
+        else {dirty.add(area);}
+        if (!repaintTimer.isRunning()) {repaintTimer.start();}
+    }
+
+    /**
+     * Repaints everything changed since the last frame, clipped to the viewport when painted.
+     */
+    private void flushRepaint()
+    {
+        if (dirty == null) {return;}
+        repaint(dirty);
+        dirty = null;
+    }
+
+    /**
+     * This method is called once the changes of a move are shown. It only marks the mine
+     * that was hit and tells the player when the game is over.
+     * @param result What the move did.
+     */
+    private void updatePanel(MoveResult result)
+    {
+        //Display the opened mine if the player loses
+        if (result.isLost())
+        {
             //Update the clicked tile to display that it was the opened mine
-            tiles[r][c].setImage(openedMine, IMAGE_SIZE, IMAGE_SIZE);
-            JOptionPane.showMessageDialog(null, "Game Over. Mines Remaining: " + frame.getModel().getMineCount());
+            setTileImage(result.getRow(), result.getColumn(), TileAtlas.OPENED_MINE);
+            flushRepaint();
+            paintImmediately(getVisibleRect());
+            host.showGameOver("Game Over. Mines Remaining: " + result.getMineCount());
         }
 
         //Otherwise, print out a method indicating the player's success
-        else if (frame.getModel().isGameOver() && frame.getModel().getMineCount() == 0)
+        else if (result.isGameOver())
         {
-            JOptionPane.showMessageDialog(null, "You Win!");
-        } 
-        repaint();
+            flushRepaint();
+            host.showGameOver("You Win!");
+        }
     }
 
     /**
-     * Updates the image of the specified tile based upon its state.
+     * Changes the image shown by a tile and adds it to the dirty area.
      * @param row The row of the specified tile.
      * @param column The column of the specified tile.
-     * @param state The state of the specified tile.
+     * @param image The TileAtlas sprite to show.
      */
-    private void updateTileImage(int row, int column, int state)
+    private void setTileImage(int row, int column, int image)
+    {
+        shown[row * columns + column] = (byte)image;
+        addDirty(new Rectangle(column * tileSize, row * tileSize, tileSize, tileSize));
+    }
+
+    /**
+     * Returns the TileAtlas sprite for a tile state.
+     * @param state The state of a tile.
+     */
+    private static int imageFor(int state)
     {
         //Perform state lookup and assign the associated image
         switch (state)
-        {  
-            case MineBoard.QUESTION: tiles[row][column].setImage(query, IMAGE_SIZE, IMAGE_SIZE);
-                break;
-            case MineBoard.FLAGGED: tiles[row][column].setImage(flagged, IMAGE_SIZE, IMAGE_SIZE);
-                break;
-            case MineBoard.HIDDEN_TILE: tiles[row][column].setImage(hidden, IMAGE_SIZE, IMAGE_SIZE);
-                break;
+        {
+            case MineBoard.QUESTION: return TileAtlas.QUESTION;
+            case MineBoard.FLAGGED: return TileAtlas.FLAGGED;
+            case MineBoard.HIDDEN_TILE: return TileAtlas.HIDDEN;
             //This handles tiles with an adjacency of 0-8
-            default: 
-                tiles[row][column].setImage(iconsList.get(state), IMAGE_SIZE, IMAGE_SIZE);
-                break;          
-        }  
+            default: return state;
+        }
     }
 }
@@ -1,9 +1,76 @@
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.time.Instant;
+import javax.swing.SwingUtilities;
 
+/**
+ * Starts the game. The tile images are decoded in the background while the statistics are
+ * opened and the last game is recovered, and the window is built on the event dispatch thread and shown at its final
+ * size straight away, with placeholder tiles until the images are in.
+ *
+ * Run with -Dminesweeper.startup=print to print how long the window took to appear and to
+ * become playable, counted from the start of the JVM, or with -Dminesweeper.startup=exit
+ * to also quit right away, as StartupBenchmark does.
+ */
 public class Minesweeper
 {
     public static void main(String[] args)
     {
-        MineBoard board = new MineBoard(16,30,99);
-        MineFrame mFrame = new MineFrame(board);
+        long main = System.currentTimeMillis();
+        TileAtlas.load();
+        //Opened before the window, as a stale checkpoint means reading every game recorded
+        StatsStore stats = openStats();
+
+        //Pick up an unfinished game left behind by a crash or by quitting
+        MineBoard recovered = MoveJournal.recover(MoveJournal.DEFAULT_DIRECTORY);
+        MineBoard board = recovered == null || recovered.isGameOver() ? new MineBoard(16,30,99) : recovered;
+
+        SwingUtilities.invokeLater(() ->
+        {
+            MineFrame mFrame = new MineFrame(board, stats);
+            String startup = System.getProperty("minesweeper.startup");
+            long[] shown = {0};
+            mFrame.addWindowListener(new WindowAdapter()
+            {
+                @Override
+                public void windowOpened(WindowEvent e) {shown[0] = System.currentTimeMillis();}
+            });
+            mFrame.getPanel().whenInteractive(() ->
+            {
+                if (startup != null) {reportStartup(main, shown[0], startup.equals("exit"));}
+                //Publishing the metrics loads JMX, which can wait until the game is playable
+                Metrics.register();
+            });
+        });
+    }
+
+    /**
+     * Opens the statistics, or returns null if they cannot be kept, such as while another
+     * window has them open.
+     */
+    private static StatsStore openStats()
+    {
+        try
+        {
+            return new StatsStore(StatsStore.DEFAULT_DIRECTORY);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Statistics disabled: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Prints the startup times, in milliseconds since the JVM started.
+     */
+    private static void reportStartup(long main, long shown, boolean exit)
+    {
+        long interactive = System.currentTimeMillis();
+        long jvm = ProcessHandle.current().info().startInstant().map(Instant::toEpochMilli).orElse(main);
+        System.out.printf("Startup: main %d ms, shown %d ms, interactive %d ms%n",
+            main - jvm, (shown == 0 ? interactive : shown) - jvm, interactive - jvm);
+        if (exit) {System.exit(0);}
     }
-}
\ No newline at end of file
+}
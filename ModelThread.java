@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * The only thread that changes the board being played. The view queues the player's moves
+ * here instead of making them on the event dispatch thread, so a first click on a huge
+ * board, which lays out the mines and then floods a large area, never freezes input or
+ * painting. Moves are applied strictly in the order they were queued, and the result of
+ * each one is handed back to the event dispatch thread as an immutable MoveResult. The
+ * journal and the replay are written from this thread as well, so their records always
+ * follow the moves, and the undo history of the current game is kept here. The outcome of
+ * each game is recorded in the statistics the first time it ends.
+ *
+ * The history may take up to -Dminesweeper.history.budget bytes, 16 MiB by default.
+ *
+ * Once a board has been handed to this thread, the event dispatch thread should only read
+ * it through the results, or once its game is over and it can no longer change.
+ */
+public class ModelThread
+{
+    private final ExecutorService thread;
+    private final MoveJournal journal;
+    private final ReplayRecorder recorder;
+    private final StatsStore stats;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long historyBudget = Long.getLong("minesweeper.history.budget", MoveHistory.DEFAULT_BUDGET);
+    //Only touched on the model thread
+    private MoveHistory history;
+    //True once a move has been undone or redone, so the replay starts over at the next move
+    private boolean rewound;
+    //When the current game's first click was made, its clicks, and whether its outcome is recorded
+    private long gameStart;
+    private int clicks;
+    private boolean recorded;
+
+    /**
+     * Starts the model thread.
+     * @param journal The journal to record every move in, or null to record none.
+     * @param recorder The recorder to record every game in, or null to record none.
+     * @param stats The store to record the outcome of every game in, or null to record none.
+     */
+    public ModelThread(MoveJournal journal, ReplayRecorder recorder, StatsStore stats)
+    {
+        this.journal = journal;
+        this.recorder = recorder;
+        this.stats = stats;
+        thread = Executors.newSingleThreadExecutor(task ->
+        {
+            Thread model = new Thread(task, "minesweeper-model");
+            model.setDaemon(true);
+            return model;
+        });
+    }
+
+    /**
+     * Queues a move.
+     * @param board The board to make the move on.
+     * @param kind MoveBatch.REVEAL, or MoveBatch.CYCLE for a right-click.
+     * @param row The row of the tile clicked.
+     * @param col The column of the tile clicked.
+     * @param done Given the result on the event dispatch thread.
+     */
+    public void move(MineBoard board, int kind, int row, int col, Consumer<MoveResult> done)
+    {
+        pending.incrementAndGet();
+        thread.execute(() ->
+        {
+            MoveResult result;
+            boolean current = history != null && history.getBoard() == board;
+            if (current) {history.begin();}
+            try
+            {
+                //A replay cannot express an undo, so the game is recorded afresh from here
+                if (current && rewound && recorder != null) {recorder.startGame(board);}
+                rewound = false;
+                result = apply(board, kind, row, col, journal);
+                if (recorder != null && result.getMove() >= 0) {recorder.record(result.getMove(), row, col);}
+                if (current) {count(result);}
+            }
+            finally
+            {
+                if (current) {history.commit(row, col);}
+                pending.decrementAndGet();
+            }
+            SwingUtilities.invokeLater(() -> done.accept(result));
+        });
+    }
+
+    /**
+     * Queues the start of a new game in the journal and the recorder, after every move
+     * queued so far.
+     * @param board The board of the new game.
+     */
+    public void startGame(MineBoard board)
+    {
+        thread.execute(() ->
+        {
+            if (history != null) {history.detach();}
+            history = new MoveHistory(board, historyBudget);
+            rewound = false;
+            gameStart = 0;
+            clicks = 0;
+            recorded = false;
+            if (journal != null) {journal.startGame(board);}
+            if (recorder != null) {recorder.startGame(board);}
+        });
+    }
+
+    /**
+     * Counts a click on the current game, and records the outcome the first time the game ends.
+     * A game that is ended again after an undo keeps its first outcome.
+     */
+    private void count(MoveResult result)
+    {
+        long now = System.currentTimeMillis();
+        if (clicks++ == 0) {gameStart = now;}
+        if (!result.isGameOver() || recorded || stats == null) {return;}
+
+        recorded = true;
+        try
+        {
+            stats.append(new GameRecord(result.getBoard(), gameStart, now, clicks));
+            stats.flush();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("The game could not be recorded: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Queues taking back the last move of the current game. Nothing is delivered if there
+     * is no move to take back.
+     * @param board The board of the current game.
+     * @param done Given the result on the event dispatch thread.
+     */
+    public void undo(MineBoard board, Consumer<MoveResult> done)
+    {
+        rewind(board, true, done);
+    }
+
+    /**
+     * Queues making the last move taken back again. Nothing is delivered if there is no
+     * move to make again.
+     * @param board The board of the current game.
+     * @param done Given the result on the event dispatch thread.
+     */
+    public void redo(MineBoard board, Consumer<MoveResult> done)
+    {
+        rewind(board, false, done);
+    }
+
+    private void rewind(MineBoard board, boolean undo, Consumer<MoveResult> done)
+    {
+        thread.execute(() ->
+        {
+            if (history == null || history.getBoard() != board) {return;}
+
+            TileChanges[] changes = new TileChanges[1];
+            TileListener capture = delta -> changes[0] = delta;
+            board.addTileListener(capture);
+            int cell;
+            try
+            {
+                cell = undo ? history.undo() : history.redo();
+            }
+            finally
+            {
+                board.removeTileListener(capture);
+            }
+            if (cell < 0) {return;}
+
+            //The autosave starts over from the board as it is now
+            if (journal != null) {journal.startGame(board);}
+            rewound = true;
+            MoveResult result = new MoveResult(board, cell / board.getColumns(), cell % board.getColumns(), changes[0],
+                board.getFlagCount(), board.getMineCount(), board.isGameOver(), (byte)-1);
+            SwingUtilities.invokeLater(() -> done.accept(result));
+        });
+    }
+
+    /**
+     * Queues saving a board, after every move queued so far.
+     * @param board The board to save.
+     * @param path The file to write.
+     * @param failed Given the error on the event dispatch thread if the save fails.
+     */
+    public void save(MineBoard board, Path path, Consumer<IOException> failed)
+    {
+        thread.execute(() ->
+        {
+            try
+            {
+                SaveFormat.save(board, path);
+            }
+            catch (IOException ex)
+            {
+                SwingUtilities.invokeLater(() -> failed.accept(ex));
+            }
+        });
+    }
+
+    /**
+     * Makes a move on the calling thread and records it in the journal. A move on a board
+     * whose game is over does nothing.
+     * @param board The board to make the move on.
+     * @param kind MoveBatch.REVEAL, or MoveBatch.CYCLE for a right-click.
+     * @param row The row of the tile clicked.
+     * @param col The column of the tile clicked.
+     * @param journal The journal to record the move in, or null.
+     * @return What the move did.
+     * @throws IllegalArgumentException If the kind of move is not supported.
+     */
+    static MoveResult apply(MineBoard board, int kind, int row, int col, MoveJournal journal)
+    {
+        TileChanges[] changes = new TileChanges[1];
+        TileListener capture = delta -> changes[0] = delta;
+        byte move = -1;
+        if (!board.isGameOver())
+        {
+            board.addTileListener(capture);
+            try
+            {
+                if (kind == MoveBatch.REVEAL)
+                {
+                    board.reveal(row, col);
+                    if (journal != null) {journal.record(MoveJournal.REVEAL, row, col);}
+                    if (changes[0] != null) {move = MoveJournal.REVEAL;}
+                }
+                else if (kind == MoveBatch.CYCLE)
+                {
+                    move = cycleMove(board.getState(row, col));
+                    board.cycleMark(row, col);
+                    if (journal != null && move >= 0) {journal.record(move, row, col);}
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Unsupported move: " + kind);
+                }
+            }
+            finally
+            {
+                board.removeTileListener(capture);
+            }
+        }
+        return new MoveResult(board, row, col, changes[0], board.getFlagCount(), board.getMineCount(), board.isGameOver(), move);
+    }
+
+    /**
+     * Returns the journal record of a right-click on a tile in the given state, or -1 if
+     * the click does nothing.
+     */
+    private static byte cycleMove(int state)
+    {
+        switch (state)
+        {
+            case MineBoard.HIDDEN_TILE: return MoveJournal.FLAG;
+            case MineBoard.FLAGGED: return MoveJournal.QUESTION;
+            case MineBoard.QUESTION: return MoveJournal.HIDE;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Returns the number of moves queued or being made.
+     */
+    public int getPending() {return pending.get();}
+
+    /**
+     * Finishes the work queued so far, writes out the game being recorded, waiting up to the
+     * given time, and stops the thread.
+     * @param millis The longest time to wait.
+     */
+    public void close(long millis)
+    {
+        if (recorder != null) {thread.execute(recorder::finish);}
+        thread.shutdown();
+        try
+        {
+            thread.awaitTermination(millis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
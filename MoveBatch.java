@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * A list of moves to be applied to a MineBoard in one pass with MineBoard.apply. Moves are
+ * packed three ints at a time into a single growing array, so building a batch of thousands
+ * of moves allocates a handful of arrays rather than an object per move.
+ */
+public class MoveBatch
+{
+    public static final int REVEAL = 0;
+    public static final int FLAG = 1;
+    public static final int CHORD = 2;
+    public static final int CYCLE = 3;
+
+    private int[] moves = new int[48];
+    private int size;
+
+    /**
+     * Adds a reveal of a tile.
+     * @return This batch.
+     */
+    public MoveBatch reveal(int row, int col) {return add(REVEAL, row, col);}
+
+    /**
+     * Adds a flag of a hidden tile.
+     * @return This batch.
+     */
+    public MoveBatch flag(int row, int col) {return add(FLAG, row, col);}
+
+    /**
+     * Adds a chord on an opened tile, revealing its unflagged neighbours once it has as many
+     * flags around it as adjacent mines.
+     * @return This batch.
+     */
+    public MoveBatch chord(int row, int col) {return add(CHORD, row, col);}
+
+    /**
+     * Adds a right-click on a tile, cycling its mark from hidden to flagged to questioned.
+     * @return This batch.
+     */
+    public MoveBatch cycleMark(int row, int col) {return add(CYCLE, row, col);}
+
+    /**
+     * Adds a move.
+     * @param kind One of REVEAL, FLAG, CHORD or CYCLE.
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     * @return This batch.
+     * @throws IllegalArgumentException If the kind of move is unknown.
+     */
+    public MoveBatch add(int kind, int row, int col)
+    {
+        if (kind < REVEAL || kind > CYCLE)
+        {
+            throw new IllegalArgumentException("Unknown move: " + kind);
+        }
+        if (size * 3 == moves.length) {moves = Arrays.copyOf(moves, moves.length * 2);}
+        moves[size * 3] = kind;
+        moves[size * 3 + 1] = row;
+        moves[size * 3 + 2] = col;
+        size++;
+        return this;
+    }
+
+    /**
+     * Returns the number of moves in the batch.
+     */
+    public int size() {return size;}
+
+    /**
+     * Returns the kind of the i-th move.
+     */
+    public int getKind(int i) {return moves[i * 3];}
+
+    /**
+     * Returns the row of the i-th move.
+     */
+    public int getRow(int i) {return moves[i * 3 + 1];}
+
+    /**
+     * Returns the column of the i-th move.
+     */
+    public int getColumn(int i) {return moves[i * 3 + 2];}
+
+    /**
+     * Removes every move, keeping the storage for the next batch.
+     */
+    public void clear() {size = 0;}
+}
@@ -0,0 +1,251 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Unlimited undo and redo for a board, within a memory budget. A move is recorded as the old
+ * value of every tile it changed, which the board hands over just before changing each one,
+ * plus its counters. Undoing swaps those values back in and keeps what they replaced, and
+ * redoing swaps them again, so both cost time and memory proportional to the tiles the move
+ * changed, about five bytes a tile, even for a cascade that opens half the board.
+ *
+ * The first click is the exception, since laying out the mines changes every tile. Undoing
+ * it clears the layout and puts back the seed, and redoing it reveals the same tile again,
+ * which lays out the same mines.
+ *
+ * When the steps kept take more than the budget, the oldest are forgotten first. A history
+ * is not thread safe; it must be used from the thread that makes the moves.
+ */
+public class MoveHistory
+{
+    public static final long DEFAULT_BUDGET = 16 << 20;
+    //Roughly what a step costs besides its tiles: the step, the headers of its arrays and its slot
+    private static final int STEP_OVERHEAD = 112;
+
+    private final MineBoard board;
+    private final long budget;
+    private final ArrayDeque<Step> undone = new ArrayDeque<>(), done = new ArrayDeque<>();
+    private long bytes;
+
+    //The move being recorded
+    private boolean recording;
+    private int[] cells = new int[64];
+    private byte[] saved = new byte[64];
+    private int size;
+    private int[] counters;
+    private long seed;
+    private boolean firstClick;
+
+    /**
+     * A recorded move. Its tiles and counters hold the other side of the move: the values
+     * before it while it is done, and after it while it is undone.
+     */
+    private static final class Step
+    {
+        int[] cells;
+        byte[] saved;
+        final int[] counters;
+        final int row, column;
+        //For the first click, which is undone by clearing the layout and redone by revealing again
+        final boolean layout;
+        final long seed;
+
+        Step(int[] cells, byte[] saved, int[] counters, int row, int column, boolean layout, long seed)
+        {
+            this.cells = cells;
+            this.saved = saved;
+            this.counters = counters;
+            this.row = row;
+            this.column = column;
+            this.layout = layout;
+            this.seed = seed;
+        }
+
+        long bytes() {return STEP_OVERHEAD + 5L * cells.length;}
+    }
+
+    /**
+     * Starts keeping the history of a board. A board has one history at most; the last one
+     * created is the one that records.
+     * @param board The board.
+     * @param budget The most memory the steps may take, in bytes.
+     */
+    public MoveHistory(MineBoard board, long budget)
+    {
+        if (budget < 0) {throw new IllegalArgumentException("The budget cannot be negative");}
+        this.board = board;
+        this.budget = budget;
+        board.setHistory(this);
+    }
+
+    /**
+     * Starts recording a move. Every move must be made between begin and commit; a move made
+     * any other way cannot be undone, so the history is cleared when one is.
+     */
+    public void begin()
+    {
+        recording = true;
+        size = 0;
+        counters = counters(board);
+        seed = board.getSeed();
+        firstClick = board.isFirstClick();
+    }
+
+    /**
+     * Called by the board just before it changes a tile.
+     * @param cell The row-major index of the tile.
+     * @param old The tile as it is before the change.
+     */
+    void saving(int cell, byte old)
+    {
+        if (!recording)
+        {
+            clear();
+            return;
+        }
+        if (size == cells.length)
+        {
+            cells = Arrays.copyOf(cells, size * 2);
+            saved = Arrays.copyOf(saved, size * 2);
+        }
+        cells[size] = cell;
+        saved[size++] = old;
+    }
+
+    /**
+     * Finishes recording a move. A move that changed nothing is not kept, and a move that was
+     * kept forgets every move that had been undone.
+     * @param row The row of the tile clicked.
+     * @param col The column of the tile clicked.
+     * @return True if the move was kept.
+     */
+    public boolean commit(int row, int col)
+    {
+        recording = false;
+        boolean layout = firstClick && !board.isFirstClick();
+        if (!layout && size == 0 && Arrays.equals(counters, counters(board))) {return false;}
+
+        while (!undone.isEmpty()) {bytes -= undone.pollLast().bytes();}
+        push(new Step(Arrays.copyOf(cells, size), Arrays.copyOf(saved, size), counters, row, col, layout, seed));
+        //The buffers of a huge cascade are not kept around for the moves after it
+        if (cells.length > 4096)
+        {
+            cells = new int[64];
+            saved = new byte[64];
+        }
+        return true;
+    }
+
+    /**
+     * Takes back the last move that is done.
+     * @return The row-major index of the tile clicked in the move taken back, or -1 if
+     *         there is nothing to undo.
+     */
+    public int undo()
+    {
+        Step step = done.pollLast();
+        if (step == null) {return -1;}
+        bytes -= step.bytes();
+
+        if (step.layout)
+        {
+            board.unlayout(step.cells, step.saved, step.seed, step.counters[0], step.counters[1]);
+            //Redoing lays the mines out again, so the tiles are not needed any more
+            step.cells = new int[0];
+            step.saved = new byte[0];
+        }
+        else
+        {
+            board.exchange(step.cells, step.saved, true, step.counters);
+        }
+        undone.addLast(step);
+        bytes += step.bytes();
+        return step.row * board.getColumns() + step.column;
+    }
+
+    /**
+     * Makes the last move taken back again.
+     * @return The row-major index of the tile clicked in the move made again, or -1 if
+     *         there is nothing to redo.
+     */
+    public int redo()
+    {
+        Step step = undone.pollLast();
+        if (step == null) {return -1;}
+        bytes -= step.bytes();
+
+        if (step.layout)
+        {
+            begin();
+            board.reveal(step.row, step.column);
+            recording = false;
+            push(new Step(Arrays.copyOf(cells, size), Arrays.copyOf(saved, size), counters, step.row, step.column, true, seed));
+        }
+        else
+        {
+            board.exchange(step.cells, step.saved, false, step.counters);
+            push(step);
+        }
+        return step.row * board.getColumns() + step.column;
+    }
+
+    /**
+     * Forgets every move, done or undone.
+     */
+    public void clear()
+    {
+        done.clear();
+        undone.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Stops recording the board's moves and forgets them.
+     */
+    public void detach()
+    {
+        board.setHistory(null);
+        clear();
+    }
+
+    /**
+     * Keeps a step that is done, forgetting steps while over the budget. The steps furthest
+     * from the current move go first: the oldest done, then the undone ones furthest ahead.
+     */
+    private void push(Step step)
+    {
+        done.addLast(step);
+        bytes += step.bytes();
+        while (bytes > budget && done.size() + undone.size() > 1)
+        {
+            bytes -= (done.size() > 1 ? done.pollFirst() : undone.pollFirst()).bytes();
+        }
+    }
+
+    /**
+     * Returns the counters a step keeps: flags, unflagged mines, opened tiles and game over.
+     */
+    private static int[] counters(MineBoard board)
+    {
+        return new int[] {board.getFlagCount(), board.getMineCount(), board.getOpenedCount(), board.isGameOver() ? 1 : 0};
+    }
+
+    /**
+     * Returns the board whose history this is.
+     */
+    public MineBoard getBoard() {return board;}
+
+    /**
+     * Returns the number of moves that can be undone.
+     */
+    public int getUndoCount() {return done.size();}
+
+    /**
+     * Returns the number of moves that can be redone.
+     */
+    public int getRedoCount() {return undone.size();}
+
+    /**
+     * Returns roughly how much memory the steps take, in bytes.
+     */
+    public long getBytes() {return bytes;}
+}
@@ -0,0 +1,294 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Autosaves the current game as a snapshot plus an append-only journal of the moves made
+ * since. Every move is a fixed 5-byte record: the move type followed by the row-major index
+ * of its tile. Records are queued by the caller and written in batches by a background
+ * thread, so the Event Dispatch Thread never waits for the disk. Every SNAPSHOT_INTERVAL
+ * moves a fresh snapshot replaces the old one and the journal starts over, which keeps the
+ * journal short and recovery fast. Each snapshot and its journal share a generation number
+ * in their file names, so a crash while switching generations never pairs a snapshot with
+ * the moves of another one. Once the writer stops, because the journal was closed or the
+ * disk failed, moves are no longer queued.
+ */
+public class MoveJournal
+{
+    public static final byte REVEAL = 0;
+    public static final byte FLAG = 1;
+    public static final byte QUESTION = 2;
+    public static final byte HIDE = 3;
+    public static final int RECORD_SIZE = 5;
+    public static final int SNAPSHOT_INTERVAL = 256;
+    public static final Path DEFAULT_DIRECTORY = Paths.get("Saves", "autosave");
+
+    private static final String SNAPSHOT = "snapshot-%d.dat";
+    private static final String JOURNAL = "journal-%d.log";
+    private static final Object CLOSE = new Object();
+
+    private final Path directory;
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    //Set once the writer has stopped, so nothing more piles up in the queue
+    private volatile boolean stopped;
+    private MineBoard board;
+    private int movesSinceSnapshot;
+
+    /**
+     * Starts a journal in the given directory. Nothing is written until a game is started.
+     * @param directory The directory holding the snapshot and the journal.
+     */
+    public MoveJournal(Path directory)
+    {
+        this.directory = directory;
+        writer = new Thread(this::writeLoop, "minesweeper-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts journaling a new game, snapshotting its current state.
+     * @param board The board of the new game.
+     */
+    public synchronized void startGame(MineBoard board)
+    {
+        if (stopped) {return;}
+        this.board = board;
+        snapshot();
+    }
+
+    /**
+     * Records a move that has just been applied to the current board.
+     * @param move One of REVEAL, FLAG, QUESTION or HIDE.
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     */
+    public synchronized void record(byte move, int row, int col)
+    {
+        if (board == null || stopped) {return;}
+
+        queue.add(((long)move << 32) | (row * board.getColumns() + col));
+        if (++movesSinceSnapshot >= SNAPSHOT_INTERVAL) {snapshot();}
+    }
+
+    /**
+     * Writes everything queued so far and stops the background writer.
+     */
+    public void close()
+    {
+        queue.add(CLOSE);
+        try
+        {
+            writer.join(2000);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues a snapshot of the current board. The journal is emptied once it is written.
+     */
+    private void snapshot()
+    {
+        movesSinceSnapshot = 0;
+        queue.add(SaveFormat.encode(board));
+    }
+
+    /**
+     * Restores the last autosaved game by loading its snapshot and replaying the journal.
+     * A record cut short by a crash is ignored.
+     * @param directory The directory holding the snapshot and the journal.
+     * @return The restored board, or null if there is nothing to restore.
+     */
+    public static MineBoard recover(Path directory)
+    {
+        long generation = lastGeneration(directory);
+        if (generation < 0) {return null;}
+
+        try
+        {
+            MineBoard board = SaveFormat.load(directory.resolve(String.format(SNAPSHOT, generation)));
+            Path journal = directory.resolve(String.format(JOURNAL, generation));
+            if (!Files.exists(journal)) {return board;}
+
+            ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(journal));
+            while (records.remaining() >= RECORD_SIZE)
+            {
+                byte move = records.get();
+                int cell = records.getInt();
+                if (cell < 0 || cell >= board.getRows() * board.getColumns()) {break;}
+                apply(board, move, cell / board.getColumns(), cell % board.getColumns());
+            }
+            return board;
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the generation of the newest complete snapshot in a directory, or -1 if there is none.
+     */
+    private static long lastGeneration(Path directory)
+    {
+        long last = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "snapshot-*.dat"))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                try
+                {
+                    last = Math.max(last, Long.parseLong(name.substring(9, name.length() - 4)));
+                }
+                catch (NumberFormatException ex)
+                {
+                    //Not one of ours
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            return -1;
+        }
+        return last;
+    }
+
+    /**
+     * Applies a journaled move to a board.
+     */
+    static void apply(MineBoard board, byte move, int row, int col)
+    {
+        switch (move)
+        {
+            case REVEAL: board.reveal(row, col);
+                break;
+            case FLAG: board.flag(row, col);
+                break;
+            case QUESTION: board.question(row, col);
+                break;
+            case HIDE: board.hide(row, col);
+                break;
+        }
+    }
+
+    /**
+     * The background writer. Waits for work, then drains everything queued in one batch.
+     */
+    private void writeLoop()
+    {
+        List<Object> batch = new ArrayList<>();
+        ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        FileChannel journal = null;
+
+        try
+        {
+            Files.createDirectories(directory);
+            long generation = lastGeneration(directory);
+            while (true)
+            {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+
+                for (Object item : batch)
+                {
+                    if (item == CLOSE)
+                    {
+                        flush(journal, records);
+                        if (journal != null) {journal.close();}
+                        return;
+                    }
+                    if (item instanceof ByteBuffer)
+                    {
+                        //The old journal stays complete until the new snapshot is safely written
+                        flush(journal, records);
+                        if (journal != null) {journal.close();}
+                        writeSnapshot((ByteBuffer)item, generation + 1);
+                        journal = FileChannel.open(directory.resolve(String.format(JOURNAL, generation + 1)),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                        generation++;
+                        deleteBefore(generation);
+                        continue;
+                    }
+
+                    long record = (Long)item;
+                    if (!records.hasRemaining()) {flush(journal, records);}
+                    records.put((byte)(record >>> 32)).putInt((int)record);
+                }
+                batch.clear();
+                flush(journal, records);
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Autosave disabled: " + ex.getMessage());
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            stopped = true;
+            queue.clear();
+        }
+    }
+
+    /**
+     * Deletes the snapshots and journals of every generation before the given one.
+     */
+    private void deleteBefore(long generation) throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{snapshot,journal}-*"))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                String number = name.substring(name.indexOf('-') + 1, name.indexOf('.'));
+                try
+                {
+                    if (Long.parseLong(number) < generation) {Files.delete(file);}
+                }
+                catch (NumberFormatException ex)
+                {
+                    //Not one of ours
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the buffered records to the journal.
+     */
+    private static void flush(FileChannel journal, ByteBuffer records) throws IOException
+    {
+        records.flip();
+        while (journal != null && records.hasRemaining()) {journal.write(records);}
+        records.clear();
+    }
+
+    /**
+     * Writes a snapshot under a temporary name and then renames it, so a crash while writing
+     * never leaves a damaged snapshot behind.
+     */
+    private void writeSnapshot(ByteBuffer snapshot, long generation) throws IOException
+    {
+        Path temporary = directory.resolve(String.format(SNAPSHOT, generation) + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (snapshot.hasRemaining()) {channel.write(snapshot);}
+            channel.force(false);
+        }
+        Files.move(temporary, directory.resolve(String.format(SNAPSHOT, generation)),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * What a move did to a board, as handed from the model thread to the view. Everything the
+ * view needs is copied out of the board when the move ends, so it never has to read a
+ * board the model thread may still be changing.
+ */
+public class MoveResult
+{
+    private final MineBoard board;
+    private final int row, column;
+    private final TileChanges changes;
+    private final int flagCount, mineCount;
+    private final boolean gameOver;
+    private final byte move;
+
+    /**
+     * Creates a result.
+     * @param board The board the move was made on.
+     * @param row The row of the tile clicked.
+     * @param column The column of the tile clicked.
+     * @param changes The tiles the move changed, or null if it changed none.
+     * @param flagCount The number of flags available after the move.
+     * @param mineCount The number of mines not flagged after the move.
+     * @param gameOver True if the game is over after the move.
+     * @param move The MoveJournal move that was made, or -1 if the click did nothing.
+     */
+    public MoveResult(MineBoard board, int row, int column, TileChanges changes, int flagCount, int mineCount, boolean gameOver, byte move)
+    {
+        this.board = board;
+        this.row = row;
+        this.column = column;
+        this.changes = changes;
+        this.flagCount = flagCount;
+        this.mineCount = mineCount;
+        this.gameOver = gameOver;
+        this.move = move;
+    }
+
+    /**
+     * Returns the board the move was made on, which may no longer be the one being shown.
+     */
+    public MineBoard getBoard() {return board;}
+
+    public int getRow() {return row;}
+
+    public int getColumn() {return column;}
+
+    /**
+     * Returns the tiles the move changed, or null if it changed none.
+     */
+    public TileChanges getChanges() {return changes;}
+
+    /**
+     * Returns the number of flags available after the move.
+     */
+    public int getFlagCount() {return flagCount;}
+
+    /**
+     * Returns the number of mines not flagged after the move.
+     */
+    public int getMineCount() {return mineCount;}
+
+    /**
+     * Returns True if the game is over after the move.
+     */
+    public boolean isGameOver() {return gameOver;}
+
+    /**
+     * Returns True if the game was lost, by revealing a mine.
+     */
+    public boolean isLost() {return gameOver && mineCount > 0;}
+
+    /**
+     * Returns the MoveJournal move that was made, or -1 if the click did nothing.
+     */
+    public byte getMove() {return move;}
+}
@@ -0,0 +1,261 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds mine layouts that can be won from the first click by logic alone. Candidate seeds
+ * are derived from the board's seed, and several worker threads lay out and play candidates
+ * speculatively at the same time. A candidate passes if repeatedly opening every tile the
+ * Solver proves safe opens the whole board. The lowest passing candidate is chosen, so the
+ * same seed and first click always give the same layout however the work was scheduled,
+ * and on however many threads. The search gives up after MAX_CANDIDATES candidates rather
+ * than after a time limit, so whether it finds a layout does not depend on the machine
+ * either, and a journal or a server can rebuild the board from its seed and first click.
+ */
+public class NoGuessGenerator
+{
+    public static final int MAX_CANDIDATES = 2000;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final int threads;
+    private final ExecutorService workers;
+    //Each worker verifies with its own solver, whose cache then serves every candidate it plays
+    private final ThreadLocal<Solver> solvers = ThreadLocal.withInitial(() -> new Solver(null));
+    private final AtomicLong candidates = new AtomicLong(), solvable = new AtomicLong();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long searches, fallbacks;
+
+    /**
+     * Creates a generator verifying candidates on the given number of threads.
+     * @param threads The number of worker threads, or 0 to search on the calling thread.
+     */
+    public NoGuessGenerator(int threads)
+    {
+        this.threads = threads;
+        if (threads == 0)
+        {
+            workers = null;
+            return;
+        }
+        AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, task ->
+        {
+            Thread thread = new Thread(task, "minesweeper-noguess-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Finds the seed of a layout that can be solved without guessing from a first click.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param mines The number of mines.
+     * @param row The row of the first click.
+     * @param col The column of the first click.
+     * @param seed The seed the candidates are derived from.
+     * @return The seed of a solvable layout, or null if none of the first MAX_CANDIDATES
+     * candidates is solvable or the calling thread was interrupted.
+     */
+    public Long findSeed(int rows, int columns, int mines, int row, int col, long seed)
+    {
+        try
+        {
+            return findSeedAsync(rows, columns, mines, row, col, seed).get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException ex)
+        {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * Starts the search of findSeed on the worker threads without waiting for it, so that a
+     * thread serving other work, such as the selector of a GameServer, is not held up. The
+     * last worker to finish completes the search. A generator without workers searches on
+     * the calling thread and returns a completed future.
+     * @return The future seed of a solvable layout, or of null if there is none.
+     * @see findSeed
+     */
+    public CompletableFuture<Long> findSeedAsync(int rows, int columns, int mines, int row, int col, long seed)
+    {
+        Metrics.NoGuessSearch event = Metrics.begin(new Metrics.NoGuessSearch());
+        long start = System.nanoTime();
+        AtomicInteger next = new AtomicInteger(), best = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicInteger played = new AtomicInteger(), running = new AtomicInteger(Math.max(threads, 1));
+        CompletableFuture<Long> result = new CompletableFuture<>();
+
+        //A worker stops once every candidate it could still take is above the best one found
+        Runnable worker = () ->
+        {
+            try
+            {
+                while (true)
+                {
+                    int i = next.getAndIncrement();
+                    if (i >= best.get() || i >= MAX_CANDIDATES) {break;}
+                    candidates.incrementAndGet();
+                    played.incrementAndGet();
+                    if (isSolvable(rows, columns, mines, row, col, candidate(seed, i)))
+                    {
+                        solvable.incrementAndGet();
+                        best.accumulateAndGet(i, Math::min);
+                    }
+                }
+            }
+            catch (RuntimeException ex)
+            {
+                result.completeExceptionally(ex);
+            }
+            if (running.decrementAndGet() > 0 || result.isDone()) {return;}
+
+            boolean found = best.get() != Integer.MAX_VALUE;
+            record(System.nanoTime() - start, found);
+
+            event.rows = rows;
+            event.columns = columns;
+            event.mines = mines;
+            event.candidates = played.get();
+            event.found = found;
+            Metrics.end(event);
+            result.complete(found ? candidate(seed, best.get()) : null);
+        };
+
+        if (workers == null) {worker.run();}
+        for (int t = 0; t < threads; t++) {workers.execute(worker);}
+        return result;
+    }
+
+    /**
+     * Returns True if the layout of a seed can be won from the first click by opening only
+     * tiles the solver proves safe.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param mines The number of mines.
+     * @param row The row of the first click.
+     * @param col The column of the first click.
+     * @param seed The seed of the layout.
+     */
+    public boolean isSolvable(int rows, int columns, int mines, int row, int col, long seed)
+    {
+        MineBoard board = new MineBoard(rows, columns, mines, seed);
+        board.reveal(row, col);
+        Solver solver = solvers.get();
+        int safeTiles = rows * columns - mines;
+
+        while (board.getOpenedCount() < safeTiles)
+        {
+            boolean progress = false;
+            for (int cell : solver.findSafeTiles(board))
+            {
+                if (!board.isOpened(cell / columns, cell % columns))
+                {
+                    board.reveal(cell / columns, cell % columns);
+                    progress = true;
+                }
+            }
+            if (!progress) {return false;}
+        }
+        return true;
+    }
+
+    /**
+     * Returns the fraction of the candidates played so far that could be solved.
+     */
+    public double getSuccessRate()
+    {
+        long played = candidates.get();
+        return played == 0 ? 0 : (double)solvable.get() / played;
+    }
+
+    /**
+     * Returns the number of searches that found no solvable layout.
+     */
+    public synchronized long getFallbacks() {return fallbacks;}
+
+    /**
+     * Returns the number of searches so far.
+     */
+    public synchronized long getSearches() {return searches;}
+
+    /**
+     * Returns the 99th percentile of the time a search took, in milliseconds, over the most
+     * recent LATENCY_SAMPLES searches.
+     */
+    public synchronized double getP99Latency()
+    {
+        int count = (int)Math.min(searches, LATENCY_SAMPLES);
+        if (count == 0) {return 0;}
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted[(int)Math.ceil(count * 0.99) - 1] / 1e6;
+    }
+
+    private synchronized void record(long nanos, boolean found)
+    {
+        latencies[(int)(searches % LATENCY_SAMPLES)] = nanos;
+        searches++;
+        if (!found) {fallbacks++;}
+    }
+
+    /**
+     * Returns the seed of candidate i. The first candidate is the seed itself, so a layout
+     * that is already solvable is kept.
+     */
+    private static long candidate(long seed, int i)
+    {
+        return i == 0 ? seed : mix(seed + i * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Mixes the bits of a seed so neighbouring candidates get unrelated layouts.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Generates no-guess boards and prints the success rate and latency of the searches.
+     * Usage: java NoGuessGenerator rows columns mines boards [threads]
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 4)
+        {
+            System.err.println("Usage: java NoGuessGenerator rows columns mines boards [threads]");
+            System.exit(1);
+        }
+        int rows = Integer.parseInt(args[0]), columns = Integer.parseInt(args[1]);
+        int mines = Integer.parseInt(args[2]), boards = Integer.parseInt(args[3]);
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        NoGuessGenerator generator = new NoGuessGenerator(threads);
+        SplittableRandom random = new SplittableRandom(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < boards; i++)
+        {
+            generator.findSeed(rows, columns, mines, rows / 2, columns / 2, random.nextLong());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Boards:        %d on %d threads%n", boards, threads);
+        System.out.printf("Success rate:  %.1f%% of candidates%n", 100 * generator.getSuccessRate());
+        System.out.printf("Fallbacks:     %d%n", generator.getFallbacks());
+        System.out.printf("Mean latency:  %.2f ms%n", 1000 * seconds / boards);
+        System.out.printf("p99 latency:   %.2f ms%n", generator.getP99Latency());
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * What a MinePanel needs from the window around it: the board to show, the thread that makes
+ * moves on it, and somewhere to report the flag count and the end of a game. MineFrame is
+ * the host of the game; a benchmark can host a panel without any window at all.
+ */
+public interface PanelHost
+{
+    /**
+     * Returns the board the panel shows.
+     */
+    MineBoard getModel();
+
+    /**
+     * Returns the thread that makes the moves clicked on the panel.
+     */
+    ModelThread getModelThread();
+
+    /**
+     * Returns True while a replay is shown, when clicks are ignored.
+     */
+    boolean isReplaying();
+
+    /**
+     * Shows the number of flags the player has left.
+     * @param flags The number of flags available.
+     */
+    void showFlagCount(int flags);
+
+    /**
+     * Fits the window to the panel after its tiles changed size.
+     */
+    void dynamicResize();
+
+    /**
+     * Tells the player the game is over, once the board shows how it ended.
+     * @param message What happened.
+     */
+    void showGameOver(String message);
+}
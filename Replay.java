@@ -0,0 +1,432 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A recorded game, as written by ReplayRecorder: the board it started from, every move made
+ * with the time it was made, and keyframes of the board along the way. Finding the board at
+ * any move starts from the last keyframe at or before it, so seeking in a long game replays
+ * at most one keyframe interval of moves. All numbers are big-endian.
+ *
+ * <pre>
+ * offset size  field
+ *  0      4    magic, the ASCII characters "MSRP"
+ *  4      2    format version, currently 1
+ *  6      2    reserved, 0
+ *  8      4    rows
+ * 12      4    columns
+ * 16      8    start of the game, in milliseconds since the epoch
+ * 24      4    moves
+ * 28      4    time of the last move, in milliseconds since the start
+ * 32      4    keyframes, at least one
+ * 36      4    length of the move stream
+ * 40     28k   keyframes, each seven ints: the moves made before it, the time of the last
+ *              of them, the offset of the next move in the stream, the tile of the last
+ *              move, and the offset, length and inflated length of its board
+ *   ...   s    move stream
+ *   ...        boards, each a SaveFormat encoding compressed with Deflater
+ * </pre>
+ *
+ * Each move in the stream is two variable-length numbers of seven bits per byte, lowest
+ * first: the milliseconds since the previous move shifted left by two with the MoveJournal
+ * move type in the low bits, then the difference between its tile and the tile of the
+ * previous move, zigzag encoded. Most moves take three or four bytes. The first keyframe
+ * is the board before the first move, and there is always one just after the mines are laid
+ * out, so seeking never lays them out again.
+ *
+ * Run as a program, it decodes every replay in a directory and prints a summary.
+ */
+public class Replay
+{
+    public static final int MAGIC = 0x4D535250;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 40;
+    public static final int KEYFRAME_SIZE = 28;
+    public static final String EXTENSION = "msr";
+
+    private final int rows, columns, moves, duration;
+    private final long startTime;
+    private final int[] keyframeMoves, keyframeTimes, keyframeOffsets, keyframeCells;
+    private final int[] boardOffsets, boardLengths, boardSizes;
+    private final ByteBuffer stream, boards;
+
+    private Replay(ByteBuffer buffer) throws IOException
+    {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+        {
+            throw new InvalidObjectException("Valid Replay Data Not Found");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION)
+        {
+            throw new InvalidObjectException("Unsupported Replay Version " + version);
+        }
+        buffer.getShort();
+        rows = buffer.getInt();
+        columns = buffer.getInt();
+        startTime = buffer.getLong();
+        moves = buffer.getInt();
+        duration = buffer.getInt();
+        int keyframes = buffer.getInt(), streamLength = buffer.getInt();
+
+        if (rows <= 0 || columns <= 0 || (long)rows * columns > Integer.MAX_VALUE - 8 || moves < 0 || keyframes <= 0
+            || streamLength < 0 || buffer.remaining() < (long)keyframes * KEYFRAME_SIZE + streamLength)
+        {
+            throw new InvalidObjectException("The Replay Is Truncated");
+        }
+
+        keyframeMoves = new int[keyframes];
+        keyframeTimes = new int[keyframes];
+        keyframeOffsets = new int[keyframes];
+        keyframeCells = new int[keyframes];
+        boardOffsets = new int[keyframes];
+        boardLengths = new int[keyframes];
+        boardSizes = new int[keyframes];
+        for (int k = 0; k < keyframes; k++)
+        {
+            keyframeMoves[k] = buffer.getInt();
+            keyframeTimes[k] = buffer.getInt();
+            keyframeOffsets[k] = buffer.getInt();
+            keyframeCells[k] = buffer.getInt();
+            boardOffsets[k] = buffer.getInt();
+            boardLengths[k] = buffer.getInt();
+            boardSizes[k] = buffer.getInt();
+        }
+
+        stream = slice(buffer, buffer.position(), streamLength);
+        boards = slice(buffer, buffer.position() + streamLength, buffer.remaining() - streamLength);
+        validate();
+    }
+
+    /**
+     * Returns a read-only view of part of a buffer.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Walks the whole move stream once, so that a cursor can never run off it or land on a
+     * tile outside the board, and checks that every keyframe points where it says it does.
+     */
+    private void validate() throws IOException
+    {
+        if (keyframeMoves[0] != 0 || keyframeOffsets[0] != 0 || keyframeCells[0] != 0 || keyframeTimes[0] != 0)
+        {
+            throw new InvalidObjectException("The Replay Does Not Start With A Keyframe");
+        }
+        int tiles = rows * columns;
+        long boardSize = SaveFormat.HEADER_SIZE + 2L * ((tiles + 7) >>> 3) + ((tiles + 3) >>> 2);
+        for (int k = 0; k < keyframeMoves.length; k++)
+        {
+            if ((k > 0 && keyframeMoves[k] <= keyframeMoves[k - 1]) || keyframeMoves[k] > moves
+                || boardOffsets[k] < 0 || boardLengths[k] < 0 || boardSizes[k] != boardSize
+                || (long)boardOffsets[k] + boardLengths[k] > boards.capacity())
+            {
+                throw new InvalidObjectException("Invalid Keyframe " + k);
+            }
+        }
+
+        Cursor cursor = new Cursor(0);
+        int k = 1;
+        try
+        {
+            while (cursor.position < moves)
+            {
+                cursor.next();
+                if (k < keyframeMoves.length && keyframeMoves[k] == cursor.position)
+                {
+                    if (keyframeOffsets[k] != cursor.in.position() || keyframeCells[k] != cursor.cell || keyframeTimes[k] != cursor.time)
+                    {
+                        throw new InvalidObjectException("Invalid Keyframe " + k);
+                    }
+                    k++;
+                }
+            }
+        }
+        catch (IndexOutOfBoundsException | BufferUnderflowException ex)
+        {
+            throw new InvalidObjectException("The Move Stream Is Truncated");
+        }
+        if (k != keyframeMoves.length || cursor.in.hasRemaining() || cursor.time != duration)
+        {
+            throw new InvalidObjectException("The Move Stream Does Not Match The Header");
+        }
+    }
+
+    /**
+     * Decodes a replay.
+     * @param buffer The encoded replay, positioned at its start. It must not change afterwards.
+     * @return The replay.
+     * @throws InvalidObjectException If the buffer does not hold a valid replay.
+     */
+    public static Replay decode(ByteBuffer buffer) throws IOException
+    {
+        return new Replay(buffer);
+    }
+
+    /**
+     * Reads a replay from a file.
+     * @param path The file to read.
+     * @return The replay.
+     */
+    public static Replay read(Path path) throws IOException
+    {
+        return decode(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    /**
+     * Reads the moves of a replay one at a time, without touching a board.
+     */
+    public class Cursor
+    {
+        private final ByteBuffer in;
+        private int position, time, cell;
+        private byte move;
+
+        /**
+         * Starts at a keyframe, before the first move after it.
+         */
+        private Cursor(int keyframe)
+        {
+            in = stream.duplicate();
+            in.position(keyframeOffsets[keyframe]);
+            position = keyframeMoves[keyframe];
+            time = keyframeTimes[keyframe];
+            cell = keyframeCells[keyframe];
+        }
+
+        /**
+         * Reads the next move.
+         * @return False if every move has been read.
+         */
+        public boolean next()
+        {
+            if (position >= moves) {return false;}
+            long head = readVarint(in);
+            move = (byte)(head & 3);
+            time += (int)(head >>> 2);
+            long delta = readVarint(in);
+            cell += (int)((delta >>> 1) ^ -(delta & 1));
+            if (cell < 0 || cell >= rows * columns) {throw new IndexOutOfBoundsException("Tile " + cell);}
+            position++;
+            return true;
+        }
+
+        /**
+         * Returns the number of moves read so far, which is also the number of the last one.
+         */
+        public int getPosition() {return position;}
+
+        /**
+         * Returns the type of the last move read, one of the MoveJournal moves.
+         */
+        public byte getMove() {return move;}
+
+        public int getRow() {return cell / columns;}
+
+        public int getColumn() {return cell % columns;}
+
+        /**
+         * Returns the time of the last move read, in milliseconds since the start of the game.
+         */
+        public int getTime() {return time;}
+    }
+
+    /**
+     * Returns a cursor placed so that the next move it reads is the given one, found from
+     * the last keyframe before it.
+     * @param move The number of moves to skip, from 0 to getMoves().
+     */
+    public Cursor cursor(int move)
+    {
+        if (move < 0 || move > moves) {throw new IndexOutOfBoundsException("Move " + move + " of " + moves);}
+        Cursor cursor = new Cursor(keyframeBefore(move));
+        while (cursor.position < move) {cursor.next();}
+        return cursor;
+    }
+
+    /**
+     * Returns the board as it was after the given number of moves. The board is rebuilt from
+     * the last keyframe before it, so no more than a keyframe interval of moves is replayed.
+     * @param move The number of moves made, from 0 to getMoves().
+     * @return A new board, not shared with the replay.
+     * @throws InvalidObjectException If the keyframe is corrupt.
+     */
+    public MineBoard boardAt(int move) throws IOException
+    {
+        if (move < 0 || move > moves) {throw new IndexOutOfBoundsException("Move " + move + " of " + moves);}
+        int keyframe = keyframeBefore(move);
+        MineBoard board = keyframe(keyframe);
+        Cursor cursor = new Cursor(keyframe);
+        while (cursor.position < move)
+        {
+            cursor.next();
+            MoveJournal.apply(board, cursor.move, cursor.getRow(), cursor.getColumn());
+        }
+        return board;
+    }
+
+    /**
+     * Returns the index of the last keyframe at or before a move.
+     */
+    private int keyframeBefore(int move)
+    {
+        int found = Arrays.binarySearch(keyframeMoves, move);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    /**
+     * Inflates and decodes the board of a keyframe.
+     */
+    private MineBoard keyframe(int keyframe) throws IOException
+    {
+        byte[] compressed = new byte[boardLengths[keyframe]];
+        ByteBuffer source = boards.duplicate();
+        source.position(boardOffsets[keyframe]);
+        source.get(compressed);
+
+        byte[] encoded = new byte[boardSizes[keyframe]];
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(compressed);
+            if (inflater.inflate(encoded) != encoded.length) {throw new InvalidObjectException("Keyframe " + keyframe + " is truncated");}
+        }
+        catch (DataFormatException ex)
+        {
+            throw new InvalidObjectException("Keyframe " + keyframe + " is corrupt");
+        }
+        finally
+        {
+            inflater.end();
+        }
+        MineBoard board = SaveFormat.decode(ByteBuffer.wrap(encoded));
+        if (board.getRows() != rows || board.getColumns() != columns)
+        {
+            throw new InvalidObjectException("Keyframe " + keyframe + " does not match the replay");
+        }
+        return board;
+    }
+
+    /**
+     * Reads a number written seven bits per byte, lowest first.
+     */
+    private static long readVarint(ByteBuffer in)
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = in.get();
+            value |= (long)(b & 0x7F) << shift;
+            if (b >= 0) {return value;}
+        }
+        throw new IndexOutOfBoundsException("Number too long");
+    }
+
+    public int getRows() {return rows;}
+
+    public int getColumns() {return columns;}
+
+    /**
+     * Returns the number of moves recorded.
+     */
+    public int getMoves() {return moves;}
+
+    /**
+     * Returns the number of keyframes, including the one before the first move.
+     */
+    public int getKeyframes() {return keyframeMoves.length;}
+
+    /**
+     * Returns the start of the game, in milliseconds since the epoch.
+     */
+    public long getStartTime() {return startTime;}
+
+    /**
+     * Returns the time of the last move, in milliseconds since the start of the game.
+     */
+    public int getDuration() {return duration;}
+
+    /**
+     * Decodes every replay in a directory, replays each to its end from its last keyframe,
+     * and prints how the games went and how fast they were decoded and seeked.
+     *
+     * Usage: java Replay [directory]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        Path directory = args.length > 0 ? Paths.get(args[0]) : ReplayRecorder.DEFAULT_DIRECTORY;
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> found = Files.newDirectoryStream(directory, "*." + EXTENSION))
+        {
+            for (Path file : found) {files.add(file);}
+        }
+
+        int games = 0, invalid = 0, won = 0, lost = 0;
+        long moves = 0, bytes = 0, playedMillis = 0, seeks = 0, seekNanos = 0, worstSeek = 0;
+        long[] types = new long[4];
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (Path file : files)
+        {
+            try
+            {
+                byte[] data = Files.readAllBytes(file);
+                Replay replay = decode(ByteBuffer.wrap(data));
+                Cursor cursor = replay.cursor(0);
+                while (cursor.next()) {types[cursor.getMove()]++;}
+
+                MineBoard end = replay.boardAt(replay.getMoves());
+                if (end.isGameOver() && end.getMineCount() == 0) {won++;}
+                else if (end.isGameOver()) {lost++;}
+
+                //A few seeks to random moves, which is what scrubbing does
+                for (int i = 0; i < 4 && replay.getMoves() > 0; i++)
+                {
+                    long seek = System.nanoTime();
+                    replay.boardAt(1 + random.nextInt(replay.getMoves()));
+                    seek = System.nanoTime() - seek;
+                    seeks++;
+                    seekNanos += seek;
+                    worstSeek = Math.max(worstSeek, seek);
+                }
+
+                games++;
+                moves += replay.getMoves();
+                bytes += data.length;
+                playedMillis += replay.getDuration();
+            }
+            catch (IOException ex)
+            {
+                invalid++;
+                System.err.println(file.getFileName() + ": " + ex.getMessage());
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d replays, %d invalid: %d won, %d lost, %d unfinished%n", games + invalid, invalid, won, lost, games - won - lost);
+        System.out.printf("%d moves: %d reveals, %d flags, %d question marks, %d hidden again%n", moves, types[0], types[1], types[2], types[3]);
+        if (games == 0) {return;}
+        System.out.printf("%.1f moves and %.1f s of play per game, %.2f bytes per move%n",
+            (double)moves / games, playedMillis / 1000.0 / games, moves == 0 ? 0.0 : (double)bytes / moves);
+        System.out.printf("Decoded in %.2f s, %.0f moves/s; seek mean %.3f ms, max %.3f ms%n",
+            seconds, moves / seconds, seeks == 0 ? 0.0 : seekNanos / 1e6 / seeks, worstSeek / 1e6);
+    }
+}
@@ -0,0 +1,198 @@
+import java.awt.*;
+import java.io.IOException;
+import javax.swing.*;
+
+/**
+ * Plays a Replay back in a MineFrame, with controls to pause, change the speed from 1x to
+ * 1000x and scrub to any move. Playback runs on the event dispatch thread with a timer
+ * ticking once per frame: each tick applies every move whose time has come to a board of
+ * its own and hands the result to the panel, which repaints once for the whole tick.
+ * Scrubbing rebuilds the board from the nearest keyframe instead of replaying the game.
+ */
+public class ReplayPlayer extends JPanel
+{
+    private static final long serialVersionUID = 1L;
+    private static final int[] SPEEDS = {1, 2, 5, 10, 100, 1000};
+
+    private final MineFrame frame;
+    private final Replay replay;
+    private final Timer timer;
+    private final JButton playButton;
+    private final JSlider slider;
+    private final JComboBox<String> speedBox;
+    private final JLabel timeLabel;
+    private MineBoard board;
+    private Replay.Cursor cursor;
+    //True while the cursor holds a move read but not yet due
+    private boolean pending;
+    //The playback time, in milliseconds since the start of the game
+    private double time;
+    private long lastTick;
+    //True while the slider is moved by playback rather than by the player
+    private boolean updating;
+
+    /**
+     * Creates the player and its controls. Nothing is shown until start is called.
+     * @param frame The frame to play the replay in.
+     * @param replay The replay to play.
+     */
+    public ReplayPlayer(MineFrame frame, Replay replay)
+    {
+        super(new FlowLayout(FlowLayout.LEFT));
+        this.frame = frame;
+        this.replay = replay;
+        timer = new Timer(MinePanel.FRAME_MILLIS, e -> tick());
+
+        playButton = new JButton("Pause");
+        playButton.addActionListener(e -> setPlaying(!timer.isRunning()));
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(e -> frame.stopReplay());
+
+        String[] speeds = new String[SPEEDS.length];
+        for (int i = 0; i < SPEEDS.length; i++) {speeds[i] = SPEEDS[i] + "x";}
+        speedBox = new JComboBox<>(speeds);
+
+        slider = new JSlider(0, replay.getMoves(), 0);
+        slider.addChangeListener(e ->
+        {
+            if (!updating) {seek(slider.getValue());}
+        });
+        timeLabel = new JLabel();
+
+        add(playButton);
+        add(speedBox);
+        add(slider);
+        add(timeLabel);
+        add(closeButton);
+    }
+
+    /**
+     * Shows the board before the first move and starts playing.
+     * @return False if the replay cannot be played, which the player has been told.
+     */
+    public boolean start()
+    {
+        if (!seek(0)) {return false;}
+        setPlaying(true);
+        return true;
+    }
+
+    /**
+     * Stops playing for good.
+     */
+    public void stop()
+    {
+        timer.stop();
+    }
+
+    /**
+     * Returns the board being played back.
+     */
+    public MineBoard getBoard() {return board;}
+
+    /**
+     * Pauses or resumes playback. Resuming at the end starts over.
+     */
+    private void setPlaying(boolean playing)
+    {
+        if (playing)
+        {
+            if (cursor.getPosition() == replay.getMoves() && !pending) {seek(0);}
+            lastTick = System.nanoTime();
+            timer.start();
+        }
+        else
+        {
+            timer.stop();
+        }
+        playButton.setText(playing ? "Pause" : "Play");
+    }
+
+    /**
+     * Shows the board after the given number of moves, rebuilt from the nearest keyframe.
+     * @return False if its keyframe is corrupt, which the player has been told.
+     */
+    private boolean seek(int move)
+    {
+        try
+        {
+            board = replay.boardAt(move);
+        }
+        catch (IOException ex)
+        {
+            setPlaying(false);
+            JOptionPane.showMessageDialog(null, "This Replay Cannot Be Played: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        cursor = replay.cursor(move);
+        pending = false;
+        time = cursor.getTime();
+        frame.showReplayBoard(board);
+        showPosition();
+        return true;
+    }
+
+    /**
+     * Advances the playback time by the time since the last tick, times the speed, and
+     * applies every move made by then.
+     */
+    private void tick()
+    {
+        long now = System.nanoTime();
+        time += (now - lastTick) / 1e6 * SPEEDS[speedBox.getSelectedIndex()];
+        lastTick = now;
+
+        while (timer.isRunning())
+        {
+            if (!pending && !cursor.next())
+            {
+                setPlaying(false);
+                break;
+            }
+            pending = true;
+            if (cursor.getTime() > time) {break;}
+            pending = false;
+
+            //The first click is taken from the keyframe after it, rather than laying out the mines again
+            if (board.isFirstClick() && cursor.getMove() == MoveJournal.REVEAL)
+            {
+                double played = time;
+                if (!seek(cursor.getPosition())) {break;}
+                time = played;
+                continue;
+            }
+            showMove(cursor.getMove(), cursor.getRow(), cursor.getColumn());
+        }
+        showPosition();
+    }
+
+    /**
+     * Makes a move on the board and shows what it changed.
+     */
+    private void showMove(byte move, int row, int col)
+    {
+        TileChanges[] changes = new TileChanges[1];
+        TileListener capture = delta -> changes[0] = delta;
+        board.addTileListener(capture);
+        MoveJournal.apply(board, move, row, col);
+        board.removeTileListener(capture);
+
+        //Playback stops before the panel shows how the game ended, or the timer would keep ticking under the dialog
+        if (board.isGameOver()) {setPlaying(false);}
+        frame.getPanel().showMove(new MoveResult(board, row, col, changes[0], board.getFlagCount(),
+            board.getMineCount(), board.isGameOver(), move));
+    }
+
+    /**
+     * Moves the slider to the current move and shows the playback time.
+     */
+    private void showPosition()
+    {
+        int move = cursor.getPosition() - (pending ? 1 : 0);
+        updating = true;
+        slider.setValue(move);
+        updating = false;
+        int shown = (int)Math.min(time, replay.getDuration());
+        timeLabel.setText(String.format("%d / %d   %d:%02d", move, replay.getMoves(), shown / 60000, shown / 1000 % 60));
+    }
+}
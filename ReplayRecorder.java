@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Records how each game is played, in the Replay format. Every move is appended to the move
+ * stream as it is made, and a compressed copy of the board is kept every KEYFRAME_INTERVAL
+ * moves and right after the mines are laid out. When a game ends, or another one starts,
+ * the replay is written to its own file in the replay directory.
+ *
+ * A recorder is not thread safe. The game records from the model thread only.
+ */
+public class ReplayRecorder
+{
+    public static final int KEYFRAME_INTERVAL = 256;
+    public static final Path DEFAULT_DIRECTORY = Paths.get("Saves", "replays");
+    private static final String REPLAY = "replay-%d." + Replay.EXTENSION;
+
+    private final Path directory;
+    private final int keyframeInterval;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final List<int[]> keyframes = new ArrayList<>();
+    private final List<byte[]> boards = new ArrayList<>();
+    private MineBoard board;
+    private long startTime, startNanos;
+    private byte[] stream = new byte[1024];
+    private int streamLength, moves, lastTime, lastCell, lastKeyframe;
+    private boolean laidOut;
+
+    /**
+     * Creates a recorder that keeps a keyframe every KEYFRAME_INTERVAL moves.
+     * @param directory The directory the replays are written to.
+     */
+    public ReplayRecorder(Path directory)
+    {
+        this(directory, KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Creates a recorder.
+     * @param directory The directory the replays are written to, or null to keep them in memory only.
+     * @param keyframeInterval The most moves between two keyframes.
+     */
+    public ReplayRecorder(Path directory, int keyframeInterval)
+    {
+        if (keyframeInterval <= 0) {throw new IllegalArgumentException("The keyframe interval must be positive");}
+        this.directory = directory;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Writes out the game being recorded, if any, and starts recording a new one from the
+     * current state of its board.
+     * @param board The board of the new game.
+     */
+    public void startGame(MineBoard board)
+    {
+        finish();
+        this.board = board;
+        startTime = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        laidOut = !board.isFirstClick();
+        keyframe();
+    }
+
+    /**
+     * Records a move that has just been applied to the current board. The game is written
+     * out as soon as the move ends it.
+     * @param move One of the MoveJournal moves.
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     */
+    public void record(byte move, int row, int col)
+    {
+        if (board == null) {return;}
+
+        int time = (int)Math.min((System.nanoTime() - startNanos) / 1000000, Integer.MAX_VALUE);
+        int cell = row * board.getColumns() + col, delta = cell - lastCell;
+        writeVarint(((long)(time - lastTime) << 2) | move);
+        writeVarint((delta << 1 ^ delta >> 31) & 0xFFFFFFFFL);
+        moves++;
+        lastTime = time;
+        lastCell = cell;
+
+        if (board.isGameOver())
+        {
+            finish();
+        }
+        else if (moves - lastKeyframe >= keyframeInterval || (!laidOut && !board.isFirstClick()))
+        {
+            laidOut = true;
+            keyframe();
+        }
+    }
+
+    /**
+     * Writes out the game being recorded, unless no move has been made in it, and stops
+     * recording. A replay that cannot be written is reported and dropped.
+     * @return The file written, or null if none was.
+     */
+    public Path finish()
+    {
+        Path written = null;
+        if (board != null && moves > 0 && directory != null)
+        {
+            try
+            {
+                Files.createDirectories(directory);
+                //Named after the start of the game, moved on a millisecond if two games share one
+                Path file = directory.resolve(String.format(REPLAY, startTime));
+                for (long name = startTime + 1; Files.exists(file); name++) {file = directory.resolve(String.format(REPLAY, name));}
+                ByteBuffer replay = encode();
+                Files.write(file, Arrays.copyOfRange(replay.array(), replay.position(), replay.limit()));
+                written = file;
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Replay not saved: " + ex.getMessage());
+            }
+        }
+        board = null;
+        keyframes.clear();
+        boards.clear();
+        streamLength = moves = lastTime = lastCell = lastKeyframe = 0;
+        return written;
+    }
+
+    /**
+     * Encodes the game recorded so far.
+     * @return The encoded replay, positioned at its start.
+     * @throws IllegalStateException If no game is being recorded.
+     */
+    public ByteBuffer encode()
+    {
+        if (board == null) {throw new IllegalStateException("No game is being recorded");}
+
+        int boardBytes = 0;
+        for (byte[] compressed : boards) {boardBytes += compressed.length;}
+        ByteBuffer buffer = ByteBuffer.allocate(Replay.HEADER_SIZE + keyframes.size() * Replay.KEYFRAME_SIZE + streamLength + boardBytes);
+        buffer.putInt(Replay.MAGIC).putShort(Replay.VERSION).putShort((short)0);
+        buffer.putInt(board.getRows()).putInt(board.getColumns()).putLong(startTime);
+        buffer.putInt(moves).putInt(lastTime).putInt(keyframes.size()).putInt(streamLength);
+
+        int offset = 0;
+        for (int k = 0; k < keyframes.size(); k++)
+        {
+            int[] keyframe = keyframes.get(k);
+            buffer.putInt(keyframe[0]).putInt(keyframe[1]).putInt(keyframe[2]).putInt(keyframe[3]);
+            buffer.putInt(offset).putInt(boards.get(k).length).putInt(keyframe[4]);
+            offset += boards.get(k).length;
+        }
+        buffer.put(stream, 0, streamLength);
+        for (byte[] compressed : boards) {buffer.put(compressed);}
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the number of moves recorded in the current game.
+     */
+    public int getMoves() {return moves;}
+
+    /**
+     * Keeps a compressed copy of the board as it is now.
+     */
+    private void keyframe()
+    {
+        ByteBuffer encoded = SaveFormat.encode(board);
+        keyframes.add(new int[] {moves, lastTime, streamLength, lastCell, encoded.remaining()});
+        lastKeyframe = moves;
+
+        deflater.reset();
+        deflater.setInput(encoded);
+        deflater.finish();
+        byte[] bytes = new byte[encoded.remaining() / 8 + 64];
+        int size = 0;
+        while (!deflater.finished())
+        {
+            if (size == bytes.length) {bytes = Arrays.copyOf(bytes, bytes.length * 2);}
+            size += deflater.deflate(bytes, size, bytes.length - size);
+        }
+        boards.add(Arrays.copyOf(bytes, size));
+    }
+
+    /**
+     * Appends a number seven bits per byte, lowest first.
+     */
+    private void writeVarint(long value)
+    {
+        if (streamLength + 10 > stream.length) {stream = Arrays.copyOf(stream, stream.length * 2);}
+        while ((value & ~0x7FL) != 0)
+        {
+            stream[streamLength++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream[streamLength++] = (byte)value;
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves and loads games in a compact binary format. All numbers are big-endian.
+ *
+ * <pre>
+ * offset size  field
+ *  0      4    magic, the ASCII characters "MSWP"
+ *  4      2    format version, currently 1
+ *  6      1    flags: bit 0 game over, bit 1 mines not generated yet, bit 2 BITBOARD engine,
+ *              bit 3 no-guess layout
+ *  7      1    reserved, 0
+ *  8      4    rows
+ * 12      4    columns
+ * 16      4    mines the board was created with
+ * 20      4    unflagged mines remaining
+ * 24      4    flags available
+ * 28      8    seed of the mine layout
+ * 36      n/8  mine plane, one bit per tile in row-major order, lowest bit first
+ *   ...   n/8  opened plane, laid out like the mine plane
+ *   ...   n/4  mark plane, two bits per tile: 0 none, 1 flag, 2 question
+ * </pre>
+ *
+ * Each plane is rounded up to whole bytes. Adjacency counts are not stored; they are
+ * recomputed from the mines on load. Files written by the old ObjectOutputStream saves
+ * are recognised and imported through a deserialization filter that only admits the board.
+ */
+public class SaveFormat
+{
+    public static final int MAGIC = 0x4D535750;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 36;
+    private static final short SERIALIZATION_MAGIC = (short)0xACED;
+    private static final long MAP_THRESHOLD = 1 << 20;
+    //The references of a serialized board besides the rows of its grids
+    private static final long SERIALIZED_REFS = 1000;
+
+    private SaveFormat() {}
+
+    /**
+     * Writes a board to a file, replacing its contents.
+     * @param board The board to save.
+     * @param path The file to write.
+     */
+    public static void save(MineBoard board, Path path) throws IOException
+    {
+        Metrics.Save event = Metrics.begin(new Metrics.Save());
+        ByteBuffer buffer = encode(board);
+        event.rows = board.getRows();
+        event.columns = board.getColumns();
+        event.bytes = buffer.remaining();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (buffer.hasRemaining()) {channel.write(buffer);}
+        }
+        Metrics.end(event);
+    }
+
+    /**
+     * Reads a board from a file in either the binary format or the old serialized format.
+     * Large files are memory mapped instead of copied onto the heap.
+     * @param path The file to read.
+     * @return The loaded board.
+     */
+    public static MineBoard load(Path path) throws IOException
+    {
+        Metrics.Load event = Metrics.begin(new Metrics.Load());
+        MineBoard board;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            event.bytes = size;
+            if (size >= 2 && isSerialized(channel))
+            {
+                board = importSerialized(path);
+            }
+            else
+            {
+                board = decode(read(channel, size));
+            }
+        }
+        event.rows = board.getRows();
+        event.columns = board.getColumns();
+        Metrics.end(event);
+        return board;
+    }
+
+    /**
+     * Reads a whole file, memory mapping it if it is large.
+     */
+    private static ByteBuffer read(FileChannel channel, long size) throws IOException
+    {
+        ByteBuffer buffer;
+        if (size >= MAP_THRESHOLD)
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        else
+        {
+            buffer = ByteBuffer.allocate((int)size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+            buffer.flip();
+        }
+        return buffer;
+    }
+
+    /**
+     * Encodes a board into a buffer ready to be written.
+     * @param board The board to encode.
+     * @return The encoded board, positioned at its start.
+     */
+    public static ByteBuffer encode(MineBoard board)
+    {
+        byte[] cells = board.getCells();
+        int tiles = cells.length, bitPlane = (tiles + 7) >>> 3, markPlane = (tiles + 3) >>> 2;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 2 * bitPlane + markPlane).order(ByteOrder.BIG_ENDIAN);
+
+        int flags = (board.isGameOver() ? 1 : 0) | (board.isFirstClick() ? 2 : 0)
+            | (board.getEngine() == MineBoard.Engine.BITBOARD ? 4 : 0) | (board.isNoGuess() ? 8 : 0);
+        buffer.putInt(MAGIC).putShort(VERSION).put((byte)flags).put((byte)0);
+        buffer.putInt(board.getRows()).putInt(board.getColumns()).putInt(board.getTotalMines());
+        buffer.putInt(board.getMineCount()).putInt(board.getFlagCount()).putLong(board.getSeed());
+
+        byte[] mines = new byte[bitPlane], opened = new byte[bitPlane], marks = new byte[markPlane];
+        for (int cell = 0; cell < tiles; cell += 8)
+        {
+            int mine = 0, open = 0;
+            for (int j = 0, end = Math.min(8, tiles - cell); j < end; j++)
+            {
+                int tile = cells[cell + j];
+                mine |= ((tile & MineBoard.MINE_BIT) >>> 4) << j;
+                open |= ((tile & MineBoard.OPENED_BIT) >>> 5) << j;
+            }
+            mines[cell >>> 3] = (byte)mine;
+            opened[cell >>> 3] = (byte)open;
+        }
+        for (int cell = 0; cell < tiles; cell += 4)
+        {
+            int mark = 0;
+            for (int j = 0, end = Math.min(4, tiles - cell); j < end; j++)
+            {
+                mark |= ((cells[cell + j] & MineBoard.MARK_MASK) >>> 6) << (j << 1);
+            }
+            marks[cell >>> 2] = (byte)mark;
+        }
+        buffer.put(mines).put(opened).put(marks);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a board from a buffer holding the binary format.
+     * @param buffer The encoded board, positioned at its start.
+     * @return The decoded board.
+     * @throws InvalidObjectException If the buffer does not hold a valid board.
+     */
+    public static MineBoard decode(ByteBuffer buffer) throws IOException
+    {
+        return decode(buffer, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Decodes a board from a buffer holding the binary format, refusing one with more tiles
+     * than the limit before anything is allocated for it.
+     * @param buffer The encoded board, positioned at its start.
+     * @param maxTiles The most tiles the board may have.
+     * @return The decoded board.
+     * @throws InvalidObjectException If the buffer does not hold a valid board, or the board
+     * is too large.
+     */
+    public static MineBoard decode(ByteBuffer buffer, int maxTiles) throws IOException
+    {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+        {
+            throw new InvalidObjectException("Valid Game Data Not Found");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION)
+        {
+            throw new InvalidObjectException("Unsupported Save Version " + version);
+        }
+
+        int flags = buffer.get();
+        buffer.get();
+        int rows = buffer.getInt(), columns = buffer.getInt(), totalMines = buffer.getInt();
+        int mineCount = buffer.getInt(), flagCount = buffer.getInt();
+        long seed = buffer.getLong();
+
+        if (rows <= 0 || columns <= 0 || (long)rows * columns > Integer.MAX_VALUE - 8)
+        {
+            throw new InvalidObjectException("Invalid board dimensions");
+        }
+        if ((long)rows * columns > maxTiles)
+        {
+            throw new InvalidObjectException("The board is too large");
+        }
+        int tiles = rows * columns, bitPlane = (tiles + 7) >>> 3, markPlane = (tiles + 3) >>> 2;
+        if (buffer.remaining() < 2L * bitPlane + markPlane)
+        {
+            throw new InvalidObjectException("The Save File Is Truncated");
+        }
+
+        MineBoard board;
+        try
+        {
+            MineBoard.Engine engine = (flags & 4) != 0 ? MineBoard.Engine.BITBOARD : MineBoard.Engine.SCALAR;
+            board = new MineBoard(rows, columns, totalMines, engine, seed);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new InvalidObjectException(ex.getMessage());
+        }
+
+        //The planes are unpacked in one pass straight from the buffer, which may be a mapped
+        //file, into the board's own tiles, eight tiles at a time
+        int minesAt = buffer.position(), openedAt = minesAt + bitPlane, marksAt = openedAt + bitPlane;
+        byte[] cells = board.getCells();
+        for (int cell = 0; cell < tiles; cell += 8)
+        {
+            int mine = buffer.get(minesAt + (cell >>> 3)), open = buffer.get(openedAt + (cell >>> 3));
+            int mark = buffer.get(marksAt + (cell >>> 2)) & 0xFF;
+            if (cell + 4 < tiles) {mark |= (buffer.get(marksAt + (cell >>> 2) + 1) & 0xFF) << 8;}
+            for (int j = 0, end = Math.min(8, tiles - cell); j < end; j++)
+            {
+                cells[cell + j] = (byte)(((mine >>> j) & 1) << 4 | ((open >>> j) & 1) << 5 | ((mark >>> (j << 1)) & 3) << 6);
+            }
+        }
+        buffer.position(marksAt + markPlane);
+        board.restore(cells, mineCount, flagCount, (flags & 1) != 0, (flags & 2) != 0);
+        board.setNoGuess((flags & 8) != 0);
+        return board;
+    }
+
+    /**
+     * Returns True if the file starts with the Java serialization stream magic.
+     */
+    private static boolean isSerialized(FileChannel channel) throws IOException
+    {
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        channel.read(magic, 0);
+        magic.flip();
+        return magic.remaining() == 2 && magic.getShort() == SERIALIZATION_MAGIC;
+    }
+
+    /**
+     * Imports a game saved with ObjectOutputStream. The filter rejects every class except the
+     * board and the arrays it is made of, so a crafted file cannot instantiate anything else.
+     * The oldest saves hold two int[rows][columns] grids with a reference per row, so the
+     * limit on references is raised by the length of each grid as it is read.
+     * @param path The file to read.
+     * @return The imported board.
+     */
+    private static MineBoard importSerialized(Path path) throws IOException
+    {
+        ObjectInputFilter classes = ObjectInputFilter.Config.createFilter(
+            "MineBoard;MineBoard$Engine;java.lang.Enum;[B;[[I;[I;maxdepth=5;!*");
+        long[] maxRefs = {SERIALIZED_REFS};
+        int[] grids = {0};
+        ObjectInputFilter filter = info ->
+        {
+            ObjectInputFilter.Status status = classes.checkInput(info);
+            if (status == ObjectInputFilter.Status.REJECTED) {return status;}
+            if (info.serialClass() == int[][].class && grids[0]++ < 2) {maxRefs[0] += info.arrayLength();}
+            return info.references() > maxRefs[0] ? ObjectInputFilter.Status.REJECTED : status;
+        };
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(path.toFile()))))
+        {
+            in.setObjectInputFilter(filter);
+            return (MineBoard)in.readObject();
+        }
+        catch (ClassNotFoundException | ClassCastException ex)
+        {
+            throw new InvalidObjectException("Valid Game Data Not Found");
+        }
+    }
+}
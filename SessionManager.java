@@ -0,0 +1,398 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps the games of many players within a memory budget. Every live board is charged an
+ * estimate of its heap footprint, and once the total goes over the budget the least recently
+ * used boards are passivated: encoded with SaveFormat, compressed, and either kept on the
+ * heap or spilled to a directory. A passivated board is brought back the next time it is
+ * asked for, so callers only ever see live boards. The board asked for last is never
+ * passivated, so a single board larger than the budget still works.
+ *
+ * Passivation keeps everything SaveFormat keeps, but not the listeners of a board, so a
+ * caller that listens to a board should add its listener around each move.
+ *
+ * A board that cannot be spilled, say because the disk is full, stays live and the budget is
+ * overrun until a later passivation succeeds. A board that cannot be brought back is lost,
+ * and asking for it throws an IOException once and returns null afterwards.
+ */
+public class SessionManager
+{
+    /** The heap charged to a board besides its tiles, covering its fields and buffers. */
+    public static final int BOARD_OVERHEAD = 256;
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final long budget;
+    private final Path directory;
+    private final LinkedHashMap<Integer, MineBoard> live = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, byte[]> compressed = new HashMap<>();
+    private final Set<Integer> spilled = new HashSet<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final long[] passivationTimes = new long[LATENCY_SAMPLES], rehydrationTimes = new long[LATENCY_SAMPLES];
+    private int nextId = 1;
+    private long liveBytes, compressedBytes;
+    private long hits, misses, passivations, rehydrations, failures;
+
+    /**
+     * Creates a manager that keeps passivated boards compressed on the heap. Their
+     * compressed bytes count against the budget as well.
+     * @param budget The heap the boards may use, in bytes.
+     */
+    public SessionManager(long budget)
+    {
+        this(budget, null);
+    }
+
+    /**
+     * Creates a manager that spills passivated boards to a directory.
+     * @param budget The heap the live boards may use, in bytes.
+     * @param directory The directory to spill to, created if needed, or null to keep
+     * passivated boards compressed on the heap.
+     * @throws IllegalArgumentException If the budget is not positive.
+     */
+    public SessionManager(long budget, Path directory)
+    {
+        if (budget <= 0) {throw new IllegalArgumentException("The budget must be positive: " + budget);}
+        this.budget = budget;
+        this.directory = directory;
+        if (directory != null)
+        {
+            try
+            {
+                Files.createDirectories(directory);
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException("Cannot create " + directory, ex);
+            }
+        }
+    }
+
+    /**
+     * Starts managing a board.
+     * @return The id of its session.
+     */
+    public synchronized int add(MineBoard board)
+    {
+        int id = nextId++;
+        live.put(id, board);
+        liveBytes += footprint(board);
+        enforce(id);
+        return id;
+    }
+
+    /**
+     * Returns the board of a session, bringing it back first if it was passivated.
+     * @param id The id of the session.
+     * @return The board, or null if there is no such session.
+     * @throws IOException If the board was passivated and cannot be brought back. The
+     * session is discarded.
+     */
+    public synchronized MineBoard get(int id) throws IOException
+    {
+        MineBoard board = live.get(id);
+        if (board != null)
+        {
+            hits++;
+            return board;
+        }
+        if (!compressed.containsKey(id) && !spilled.contains(id)) {return null;}
+
+        misses++;
+        board = rehydrate(id);
+        live.put(id, board);
+        liveBytes += footprint(board);
+        enforce(id);
+        return board;
+    }
+
+    /**
+     * Stops managing a board, discarding it.
+     * @param id The id of the session.
+     * @return True if there was such a session.
+     * @throws IOException If the board was spilled and its file cannot be deleted. The
+     * session is discarded all the same.
+     */
+    public synchronized boolean remove(int id) throws IOException
+    {
+        MineBoard board = live.remove(id);
+        if (board != null)
+        {
+            liveBytes -= footprint(board);
+            return true;
+        }
+        byte[] bytes = compressed.remove(id);
+        if (bytes != null)
+        {
+            compressedBytes -= bytes.length;
+            return true;
+        }
+        if (!spilled.remove(id)) {return false;}
+        Files.deleteIfExists(spillFile(id));
+        return true;
+    }
+
+    /**
+     * Passivates the least recently used boards until the boards fit in the budget. Stops at
+     * the first board that cannot be spilled, which stays live.
+     * @param keep The board asked for last, which stays live.
+     */
+    private void enforce(int keep)
+    {
+        Iterator<Map.Entry<Integer, MineBoard>> eldest = live.entrySet().iterator();
+        while (liveBytes + compressedBytes > budget && eldest.hasNext())
+        {
+            Map.Entry<Integer, MineBoard> entry = eldest.next();
+            if (entry.getKey() == keep) {continue;}
+            try
+            {
+                passivate(entry.getKey(), entry.getValue());
+            }
+            catch (IOException ex)
+            {
+                failures++;
+                return;
+            }
+            eldest.remove();
+            liveBytes -= footprint(entry.getValue());
+        }
+    }
+
+    private void passivate(int id, MineBoard board) throws IOException
+    {
+        long start = System.nanoTime();
+        ByteBuffer encoded = SaveFormat.encode(board);
+
+        //The encoded length comes first, so the board can be inflated in one go
+        deflater.reset();
+        deflater.setInput(encoded);
+        deflater.finish();
+        byte[] bytes = new byte[4 + encoded.remaining() + 64];
+        ByteBuffer.wrap(bytes).putInt(encoded.remaining());
+        int size = 4;
+        while (!deflater.finished())
+        {
+            if (size == bytes.length) {bytes = Arrays.copyOf(bytes, bytes.length * 2);}
+            size += deflater.deflate(bytes, size, bytes.length - size);
+        }
+        bytes = Arrays.copyOf(bytes, size);
+
+        if (directory == null)
+        {
+            compressed.put(id, bytes);
+            compressedBytes += size;
+        }
+        else
+        {
+            Path file = spillFile(id);
+            try
+            {
+                Files.write(file, bytes);
+            }
+            catch (IOException ex)
+            {
+                //Do not leave half a board behind
+                Files.deleteIfExists(file);
+                throw ex;
+            }
+            spilled.add(id);
+        }
+        passivations++;
+        passivationTimes[(int)((passivations - 1) % LATENCY_SAMPLES)] = System.nanoTime() - start;
+    }
+
+    /**
+     * Brings back a passivated board, forgetting its passivated form whether or not it can
+     * be read.
+     */
+    private MineBoard rehydrate(int id) throws IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            byte[] bytes;
+            if (directory == null)
+            {
+                bytes = compressed.remove(id);
+                compressedBytes -= bytes.length;
+            }
+            else
+            {
+                spilled.remove(id);
+                Path file = spillFile(id);
+                try
+                {
+                    bytes = Files.readAllBytes(file);
+                }
+                finally
+                {
+                    Files.deleteIfExists(file);
+                }
+            }
+
+            byte[] encoded = new byte[ByteBuffer.wrap(bytes).getInt()];
+            inflater.reset();
+            inflater.setInput(bytes, 4, bytes.length - 4);
+            if (inflater.inflate(encoded) != encoded.length) {throw new InvalidObjectException("Session " + id + " is truncated");}
+            MineBoard board = SaveFormat.decode(ByteBuffer.wrap(encoded));
+
+            rehydrations++;
+            rehydrationTimes[(int)((rehydrations - 1) % LATENCY_SAMPLES)] = System.nanoTime() - start;
+            return board;
+        }
+        catch (DataFormatException ex)
+        {
+            failures++;
+            throw new InvalidObjectException("Session " + id + " is corrupt");
+        }
+        catch (IOException ex)
+        {
+            failures++;
+            throw new IOException("Cannot bring back session " + id, ex);
+        }
+    }
+
+    private Path spillFile(int id) {return directory.resolve("session-" + id + ".dat");}
+
+    /**
+     * Returns the estimated heap footprint of a board in bytes.
+     */
+    public static long footprint(MineBoard board)
+    {
+        return BOARD_OVERHEAD + (long)board.getRows() * board.getColumns();
+    }
+
+    /**
+     * Returns the number of sessions, live or passivated.
+     */
+    public synchronized int size() {return live.size() + compressed.size() + spilled.size();}
+
+    /**
+     * Returns the number of boards on the heap.
+     */
+    public synchronized int getLiveCount() {return live.size();}
+
+    /**
+     * Returns the number of passivated boards.
+     */
+    public synchronized int getPassiveCount() {return compressed.size() + spilled.size();}
+
+    /**
+     * Returns the estimated heap used by the live boards, in bytes.
+     */
+    public synchronized long getLiveBytes() {return liveBytes;}
+
+    /**
+     * Returns the heap used by boards passivated in memory, in bytes.
+     */
+    public synchronized long getCompressedBytes() {return compressedBytes;}
+
+    /**
+     * Returns the budget in bytes.
+     */
+    public long getBudget() {return budget;}
+
+    /**
+     * Returns the number of times a board was asked for and was live.
+     */
+    public synchronized long getHits() {return hits;}
+
+    /**
+     * Returns the number of times a board was asked for and had to be brought back.
+     */
+    public synchronized long getMisses() {return misses;}
+
+    /**
+     * Returns the number of boards passivated so far.
+     */
+    public synchronized long getPassivations() {return passivations;}
+
+    /**
+     * Returns the number of boards brought back so far.
+     */
+    public synchronized long getRehydrations() {return rehydrations;}
+
+    /**
+     * Returns the number of boards that could not be passivated or brought back.
+     */
+    public synchronized long getFailures() {return failures;}
+
+    /**
+     * Returns the 99th percentile of the time a passivation took, in milliseconds, over the
+     * most recent LATENCY_SAMPLES passivations.
+     */
+    public synchronized double getP99PassivationLatency() {return p99(passivationTimes, passivations);}
+
+    /**
+     * Returns the 99th percentile of the time bringing a board back took, in milliseconds,
+     * over the most recent LATENCY_SAMPLES of them.
+     */
+    public synchronized double getP99RehydrationLatency() {return p99(rehydrationTimes, rehydrations);}
+
+    private static double p99(long[] latencies, long recorded)
+    {
+        int count = (int)Math.min(recorded, LATENCY_SAMPLES);
+        if (count == 0) {return 0;}
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted[(int)Math.ceil(count * 0.99) - 1] / 1e6;
+    }
+
+    /**
+     * Plays many Expert games in a random order under a budget that only fits some of them,
+     * and prints how often boards had to be brought back and how long it took.
+     * Usage: java SessionManager [games budget-KiB moves spill-directory]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) << 10 : 2L << 20;
+        int moves = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        Path spill = args.length > 3 ? Path.of(args[3]) : null;
+
+        SessionManager manager = new SessionManager(budget, spill);
+        int busy = (int)Math.max(budget / footprint(new MineBoard(16, 30, 99)) / 4, 1);
+        SplittableRandom random = new SplittableRandom(1);
+        int[] ids = new int[games];
+        for (int i = 0; i < games; i++)
+        {
+            MineBoard board = new MineBoard(16, 30, 99, random.nextLong());
+            board.reveal(8, 15);
+            ids[i] = manager.add(board);
+        }
+
+        //Most moves go to a few busy games that fit in the budget, the rest to any game
+        long start = System.nanoTime();
+        for (int i = 0; i < moves; i++)
+        {
+            int game = random.nextInt(10) < 8 ? random.nextInt(busy) : random.nextInt(games);
+            MineBoard board = manager.get(ids[game]);
+            if (!board.isGameOver()) {board.cycleMark(random.nextInt(16), random.nextInt(30));}
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Games:          %d, %d live, %d passivated%n", manager.size(), manager.getLiveCount(), manager.getPassiveCount());
+        System.out.printf("Heap:           %d KiB live, %d KiB compressed, %d KiB budget%n",
+            manager.getLiveBytes() >> 10, manager.getCompressedBytes() >> 10, manager.getBudget() >> 10);
+        System.out.printf("Hit rate:       %.1f%%%n", 100.0 * manager.getHits() / (manager.getHits() + manager.getMisses()));
+        System.out.printf("Moves:          %.0f per second%n", moves / seconds);
+        System.out.printf("Passivations:   %d, p99 %.3f ms%n", manager.getPassivations(), manager.getP99PassivationLatency());
+        System.out.printf("Rehydrations:   %d, p99 %.3f ms%n", manager.getRehydrations(), manager.getP99RehydrationLatency());
+    }
+}
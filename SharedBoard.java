@@ -0,0 +1,325 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A board many players can click at the same time. Tiles are packed exactly like the tiles
+ * of MineBoard, and every change to a tile is a single compare-and-set on its byte, so two
+ * players can never both open, flag or unflag the same tile. The counters are only changed
+ * by the player whose compare-and-set won, so each transition is counted exactly once. The
+ * count of unflagged mines is raised before a flag comes off a mine and lowered after one
+ * goes on, so it never drops below the true count and a win is never declared early.
+ *
+ * The first reveal generates the mines, exactly once: the player who wins the race lays them
+ * out, and every other reveal waits until they are in place. Flood fills from different
+ * players may overlap freely, since a tile is only expanded by the fill that opened it.
+ * Marks placed before the mines exist are refused, because flags are counted against mines,
+ * and so are marks placed once the game is over.
+ */
+public class SharedBoard
+{
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final int NOT_GENERATED = 0, GENERATING = 1, GENERATED = 2;
+
+    private final int rows, columns, totalMines;
+    private final long seed;
+    private final byte[] cells;
+    private final AtomicInteger phase = new AtomicInteger(NOT_GENERATED);
+    private final CountDownLatch generated = new CountDownLatch(1);
+    private final AtomicInteger flagCount, mineCount, openedCount = new AtomicInteger();
+    //The row-major index of the first mine revealed, or -1
+    private final AtomicInteger exploded = new AtomicInteger(-1);
+    private volatile boolean gameOver;
+
+    /**
+     * Creates a shared board. The same dimensions, mines, seed and first click produce the
+     * same layout as a MineBoard.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param mines The number of mines.
+     * @param seed The seed of the mine layout.
+     * @throws IllegalArgumentException If the board is empty or holds too many mines.
+     */
+    public SharedBoard(int rows, int columns, int mines, long seed)
+    {
+        MineBoard.validate(rows, columns, mines);
+        this.rows = rows;
+        this.columns = columns;
+        this.totalMines = mines;
+        this.seed = seed;
+        this.cells = new byte[rows * columns];
+        this.flagCount = new AtomicInteger(mines);
+        this.mineCount = new AtomicInteger(mines);
+    }
+
+    /**
+     * Reveals a tile, flood filling from it if it has no adjacent mines. The first reveal
+     * generates the mines around itself; reveals racing with it wait for the layout.
+     * @param row Designates the row
+     * @param col Designates the column
+     */
+    public void reveal(int row, int col)
+    {
+        if (phase.get() != GENERATED) {generate(row, col);}
+        if (gameOver) {return;}
+
+        int cell = row * columns + col, value = get(cell);
+        if ((value & MineBoard.OPENED_BIT) != 0 || (value & MineBoard.MARK_MASK) == MineBoard.FLAG_MARK) {return;}
+
+        if ((value & MineBoard.MINE_BIT) != 0)
+        {
+            exploded.compareAndSet(-1, cell);
+            gameOver = true;
+            return;
+        }
+        if (!open(cell)) {return;}
+        if ((value & MineBoard.COUNT_MASK) == MineBoard.ZERO_TILE) {revealAll(cell);}
+    }
+
+    /**
+     * Opens every tile reachable through zero-tiles from an opened zero-tile. Only the fill
+     * that wins the compare-and-set on a tile pushes it, so overlapping fills split the area
+     * between them and every tile is expanded once.
+     */
+    private void revealAll(int start)
+    {
+        int[] stack = new int[64];
+        int size = 0;
+        stack[size++] = start;
+
+        while (size > 0)
+        {
+            int cell = stack[--size];
+            int r = cell / columns, c = cell % columns;
+            for (int i = Math.max(r - 1, 0); i <= Math.min(r + 1, rows - 1); i++)
+            {
+                for (int j = Math.max(c - 1, 0); j <= Math.min(c + 1, columns - 1); j++)
+                {
+                    int next = i * columns + j;
+                    if ((get(next) & MineBoard.MINE_BIT) != 0 || !open(next)) {continue;}
+                    if ((get(next) & MineBoard.COUNT_MASK) != MineBoard.ZERO_TILE) {continue;}
+                    if (size == stack.length) {stack = Arrays.copyOf(stack, size * 2);}
+                    stack[size++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a hidden tile, refunding its flag if it had one.
+     * @return True if this call opened the tile, False if it was already open.
+     */
+    private boolean open(int cell)
+    {
+        while (true)
+        {
+            int value = get(cell);
+            if ((value & MineBoard.OPENED_BIT) != 0) {return false;}
+
+            int opened = MineBoard.OPENED_BIT | (value & (MineBoard.MINE_BIT | MineBoard.COUNT_MASK));
+            if (CELLS.compareAndSet(cells, cell, (byte)value, (byte)opened))
+            {
+                //Mines are never opened, so only the flag is returned
+                if ((value & MineBoard.MARK_MASK) == MineBoard.FLAG_MARK) {flagCount.incrementAndGet();}
+                if (openedCount.incrementAndGet() == rows * columns - totalMines) {gameOver = true;}
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Flags a hidden, unmarked tile if a flag is available, otherwise marks it with a
+     * question mark like MineBoard. Flagging the last unflagged mine wins the game.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     * @return True if this call changed the tile.
+     */
+    public boolean flag(int row, int col)
+    {
+        int cell = row * columns + col;
+        if (phase.get() != GENERATED || gameOver) {return false;}
+
+        //Reserve a flag first, so the available flags can never go below zero
+        int flags;
+        do
+        {
+            flags = flagCount.get();
+            if (flags == 0) {return mark(cell, 0, MineBoard.QUESTION_MARK);}
+        }
+        while (!flagCount.compareAndSet(flags, flags - 1));
+
+        if (!mark(cell, 0, MineBoard.FLAG_MARK))
+        {
+            flagCount.incrementAndGet();
+            return false;
+        }
+        if ((get(cell) & MineBoard.MINE_BIT) != 0 && mineCount.decrementAndGet() == 0) {gameOver = true;}
+        return true;
+    }
+
+    /**
+     * Turns a flag into a question mark, returning the flag.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     * @return True if this call changed the tile.
+     */
+    public boolean question(int row, int col)
+    {
+        int cell = row * columns + col;
+        boolean mine = (get(cell) & MineBoard.MINE_BIT) != 0;
+
+        //The mine is counted as unflagged before it is, so the count can never reach zero early
+        if (mine) {mineCount.incrementAndGet();}
+        if (!mark(cell, MineBoard.FLAG_MARK, MineBoard.QUESTION_MARK))
+        {
+            if (mine && mineCount.decrementAndGet() == 0) {gameOver = true;}
+            return false;
+        }
+        flagCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Removes the question mark of a tile.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     * @return True if this call changed the tile.
+     */
+    public boolean hide(int row, int col)
+    {
+        return mark(row * columns + col, MineBoard.QUESTION_MARK, 0);
+    }
+
+    /**
+     * Moves the mark of a tile one step along the right-click cycle: hidden, flagged,
+     * questioned and back to hidden. When players race, exactly one of them moves it.
+     * @param row The row coordinate
+     * @param col The column coordinate
+     * @return True if this call changed the tile.
+     */
+    public boolean cycleMark(int row, int col)
+    {
+        switch (getState(row, col))
+        {
+            case MineBoard.HIDDEN_TILE: return flag(row, col);
+            case MineBoard.FLAGGED: return question(row, col);
+            case MineBoard.QUESTION: return hide(row, col);
+            default: return false;
+        }
+    }
+
+    /**
+     * Replaces one mark of an unopened tile with another in a single compare-and-set.
+     * @return True if the tile had the expected mark and this call replaced it.
+     */
+    private boolean mark(int cell, int expected, int mark)
+    {
+        if (phase.get() != GENERATED || gameOver) {return false;}
+        while (true)
+        {
+            int value = get(cell);
+            if ((value & MineBoard.OPENED_BIT) != 0 || (value & MineBoard.MARK_MASK) != expected) {return false;}
+            if (CELLS.compareAndSet(cells, cell, (byte)value, (byte)((value & ~MineBoard.MARK_MASK) | mark))) {return true;}
+        }
+    }
+
+    /**
+     * Generates the mines around the first click if no other player has, otherwise waits
+     * until the player who is generating them is done.
+     */
+    private void generate(int row, int col)
+    {
+        if (phase.compareAndSet(NOT_GENERATED, GENERATING))
+        {
+            MineBoard layout = new MineBoard(rows, columns, totalMines, seed);
+            layout.generateMines(row, col);
+            byte[] laid = layout.getCells();
+            //Marks cannot be placed yet, so no other bits of the tiles are set
+            for (int cell = 0; cell < laid.length; cell++)
+            {
+                CELLS.setRelease(cells, cell, (byte)(laid[cell] & (MineBoard.MINE_BIT | MineBoard.COUNT_MASK)));
+            }
+            phase.set(GENERATED);
+            generated.countDown();
+            return;
+        }
+
+        try
+        {
+            generated.await();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int get(int cell) {return (byte)CELLS.getAcquire(cells, cell);}
+
+    /**
+     * Returns the state of the specified tile, using the constants of MineBoard.
+     * @param row Designates the row.
+     * @param col Desginates the column.
+     */
+    public int getState(int row, int col)
+    {
+        int cell = get(row * columns + col);
+        if ((cell & MineBoard.OPENED_BIT) != 0) {return cell & MineBoard.COUNT_MASK;}
+
+        switch (cell & MineBoard.MARK_MASK)
+        {
+            case MineBoard.FLAG_MARK: return MineBoard.FLAGGED;
+            case MineBoard.QUESTION_MARK: return MineBoard.QUESTION;
+            default: return MineBoard.HIDDEN_TILE;
+        }
+    }
+
+    /**
+     * Returns True if the specified tile is a mine. Always False before the first reveal.
+     */
+    public boolean isMine(int row, int col) {return (get(row * columns + col) & MineBoard.MINE_BIT) != 0;}
+
+    /**
+     * Returns True if the specified tile has been opened.
+     */
+    public boolean isOpened(int row, int col) {return (get(row * columns + col) & MineBoard.OPENED_BIT) != 0;}
+
+    /**
+     * Returns True once the mines have been generated.
+     */
+    public boolean isGenerated() {return phase.get() == GENERATED;}
+
+    /**
+     * Returns True once a mine has been revealed, every safe tile has been opened or every
+     * mine has been flagged.
+     */
+    public boolean isGameOver() {return gameOver;}
+
+    /**
+     * Returns the row-major index of the first mine revealed, or -1 if none was.
+     */
+    public int getExploded() {return exploded.get();}
+
+    public int getRows() {return rows;}
+
+    public int getColumns() {return columns;}
+
+    public int getTotalMines() {return totalMines;}
+
+    /**
+     * Returns the number of flags available.
+     */
+    public int getFlagCount() {return flagCount.get();}
+
+    /**
+     * Returns the number of mines not flagged yet.
+     */
+    public int getMineCount() {return mineCount.get();}
+
+    /**
+     * Returns the number of tiles opened so far.
+     */
+    public int getOpenedCount() {return openedCount.get();}
+}
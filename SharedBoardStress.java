@@ -0,0 +1,138 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hammers a SharedBoard from many threads at once and then checks that the board and its
+ * counters are still consistent. Every player starts by revealing the same tile, so they
+ * all race to generate the mines, and then reveals safe tiles, marks tiles near a shared
+ * hot spot and cycles marks across the board. The run is repeated with more and more
+ * threads to show how the throughput scales.
+ *
+ * Usage: java SharedBoardStress [rows columns mines moves-per-thread max-threads]
+ */
+public class SharedBoardStress
+{
+    public static void main(String[] args) throws InterruptedException
+    {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int mines = args.length > 2 ? Integer.parseInt(args[2]) : 10485;
+        int moves = args.length > 3 ? Integer.parseInt(args[3]) : 200000;
+        int maxThreads = args.length > 4 ? Integer.parseInt(args[4]) : 2 * Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%d x %d, %d mines, %d moves per thread%n", rows, columns, mines, moves);
+        System.out.printf("%8s %14s %10s%n", "Threads", "moves/s", "Check");
+        //A discarded run first, so the JIT has compiled the board before anything is timed
+        play(new SharedBoard(rows, columns, mines, -1), maxThreads, moves, new LongAdder());
+
+        boolean passed = true;
+        for (int threads = 1; threads <= maxThreads; threads *= 2)
+        {
+            SharedBoard board = new SharedBoard(rows, columns, mines, threads);
+            LongAdder made = new LongAdder();
+            double seconds = play(board, threads, moves, made);
+            String problem = check(board);
+            passed &= problem == null;
+            System.out.printf("%8d %14.0f %10s%n", threads, made.sum() / seconds, problem == null ? "ok" : problem);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Plays the board from the given number of threads, all starting at the same moment.
+     * A thread stops early if the game ends, so only the moves actually made are counted.
+     * @return The time taken in seconds.
+     */
+    static double play(SharedBoard board, int threads, int moves, LongAdder made) throws InterruptedException
+    {
+        CountDownLatch start = new CountDownLatch(1), done = new CountDownLatch(threads);
+        int rows = board.getRows(), columns = board.getColumns();
+
+        for (int t = 0; t < threads; t++)
+        {
+            final SplittableRandom random = new SplittableRandom(t);
+            new Thread(() ->
+            {
+                try
+                {
+                    start.await();
+                    board.reveal(rows / 2, columns / 2);
+                    int i = 0;
+                    for (; i < moves && !board.isGameOver(); i++)
+                    {
+                        int row = random.nextInt(rows), col = random.nextInt(columns);
+                        switch (random.nextInt(4))
+                        {
+                            //Reveal a safe tile; the players peek so the game lasts
+                            case 0: case 1:
+                                if (!board.isMine(row, col)) {board.reveal(row, col);}
+                                break;
+                            //Fight over the marks of a small hot spot
+                            case 2:
+                                board.cycleMark(rows / 2 + random.nextInt(4), random.nextInt(Math.min(columns, 8)));
+                                break;
+                            default:
+                                board.cycleMark(row, col);
+                        }
+                    }
+                    made.add(i);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return (System.nanoTime() - begin) / 1e9;
+    }
+
+    /**
+     * Checks the board against its counters and the rules of the game.
+     * @return A description of the first problem found, or null if there is none.
+     */
+    static String check(SharedBoard board)
+    {
+        int rows = board.getRows(), columns = board.getColumns();
+        int mines = 0, opened = 0, flags = 0, flaggedMines = 0;
+
+        for (int row = 0; row < rows; row++)
+        {
+            for (int col = 0; col < columns; col++)
+            {
+                boolean mine = board.isMine(row, col);
+                int state = board.getState(row, col), adjacent = 0;
+                if (mine) {mines++;}
+                if (state == MineBoard.FLAGGED) {flags++; if (mine) {flaggedMines++;}}
+                if (!board.isOpened(row, col)) {continue;}
+
+                opened++;
+                if (mine) {return "mine opened";}
+                for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, rows - 1); i++)
+                {
+                    for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, columns - 1); j++)
+                    {
+                        if (board.isMine(i, j)) {adjacent++;}
+                        //A flood fill must have opened every neighbour of an opened zero-tile
+                        else if (state == 0 && !board.isOpened(i, j)) {return "unfinished fill";}
+                    }
+                }
+                if (adjacent != state) {return "wrong count";}
+            }
+        }
+
+        if (mines != board.getTotalMines()) {return "mines " + mines;}
+        if (opened != board.getOpenedCount()) {return "opened " + opened;}
+        if (board.getFlagCount() != board.getTotalMines() - flags) {return "flags " + flags;}
+        if (board.getMineCount() != board.getTotalMines() - flaggedMines) {return "unflagged " + flaggedMines;}
+        return null;
+    }
+}
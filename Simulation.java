@@ -0,0 +1,284 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays batches of seeded games without a user interface. The games are split across a
+ * ForkJoinPool, every worker keeps its own results and the results are merged at the end,
+ * so no state is shared between threads while games are running. Only the model is used,
+ * so no AWT classes are ever loaded.
+ */
+public class Simulation
+{
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int GAMES_PER_TASK = 64;
+    private final int rows, columns, mines;
+    private final MovePolicy policy;
+
+    /**
+     * Decides the next move of a simulated player.
+     */
+    public interface MovePolicy
+    {
+        /**
+         * Makes one move on the board.
+         * @param board The board being played.
+         * @param random The generator of the current game.
+         * @return False if the policy has no move left to make.
+         */
+        boolean move(MineBoard board, SplittableRandom random);
+    }
+
+    /**
+     * Reveals a uniformly random hidden, unmarked tile every move.
+     */
+    public static final MovePolicy RANDOM = new MovePolicy()
+    {
+        @Override
+        public boolean move(MineBoard board, SplittableRandom random)
+        {
+            int tiles = board.getRows() * board.getColumns();
+            int start = random.nextInt(tiles);
+
+            //Probe forward from a random tile until a hidden one is found
+            for (int i = 0; i < tiles; i++)
+            {
+                int cell = (start + i) % tiles;
+                int row = cell / board.getColumns(), col = cell % board.getColumns();
+                if (board.getState(row, col) == MineBoard.HIDDEN_TILE)
+                {
+                    board.reveal(row, col);
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Creates a simulation of games on boards of the given size.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param mines The number of mines.
+     * @param policy The policy making the moves.
+     */
+    public Simulation(int rows, int columns, int mines, MovePolicy policy)
+    {
+        //Validates the dimensions up front rather than in every worker
+        MineBoard.validate(rows, columns, mines);
+        this.rows = rows;
+        this.columns = columns;
+        this.mines = mines;
+        this.policy = policy;
+    }
+
+    /**
+     * Plays the specified number of games on the common pool.
+     * @param games The number of games to play.
+     * @param seed The seed of the batch. Game i of a batch is the same on every run.
+     * @return The merged results of every game.
+     */
+    public Result run(long games, long seed)
+    {
+        return run(games, seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Plays the specified number of games on the given pool.
+     * @param games The number of games to play.
+     * @param seed The seed of the batch. Game i of a batch is the same on every run.
+     * @param pool The pool to run the games on.
+     * @return The merged results of every game.
+     */
+    public Result run(long games, long seed, ForkJoinPool pool)
+    {
+        return pool.invoke(new Batch(0, games, seed));
+    }
+
+    /**
+     * Plays a single game to completion.
+     * @param game The index of the game within the batch.
+     * @param seed The seed of the batch.
+     * @param result The results to record the game into.
+     */
+    void play(long game, long seed, Result result)
+    {
+        SplittableRandom random = new SplittableRandom(mix(seed + game * GOLDEN_GAMMA));
+        MineBoard board = new MineBoard(rows, columns, mines, random.nextLong());
+        int safeTiles = rows * columns - mines;
+        int moves = 0;
+        //A policy that only marks tiles could otherwise run forever. Computed in long, since
+        //four moves a tile overflow an int on the largest boards
+        long maxMoves = Math.min(4L * rows * columns, Integer.MAX_VALUE);
+
+        while (!board.isGameOver() && board.getOpenedCount() < safeTiles && moves < maxMoves)
+        {
+            if (!policy.move(board, random)) {break;}
+            moves++;
+        }
+
+        boolean won = board.getOpenedCount() == safeTiles || (board.isGameOver() && board.getMineCount() == 0);
+        result.record(won, moves, board.getOpenedCount());
+    }
+
+    /**
+     * Mixes the bits of a seed so neighbouring games get unrelated generators.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Splits a range of games in half until it is small enough to play on one thread.
+     */
+    private class Batch extends RecursiveTask<Result>
+    {
+        private static final long serialVersionUID = 1L;
+        private final long from, to, seed;
+
+        Batch(long from, long to, long seed)
+        {
+            this.from = from;
+            this.to = to;
+            this.seed = seed;
+        }
+
+        @Override
+        protected Result compute()
+        {
+            if (to - from <= GAMES_PER_TASK)
+            {
+                Result result = new Result(rows * columns);
+                for (long game = from; game < to; game++) {play(game, seed, result);}
+                return result;
+            }
+
+            long middle = (from + to) >>> 1;
+            Batch left = new Batch(from, middle, seed);
+            left.fork();
+            Result result = new Batch(middle, to, seed).compute();
+            result.merge(left.join());
+            return result;
+        }
+    }
+
+    /**
+     * The aggregated outcome of a batch of games.
+     */
+    public static class Result
+    {
+        private long games, wins;
+        private final long[] lengths, opened;
+
+        /**
+         * Creates empty results for boards with the given number of tiles.
+         * @param tiles The number of tiles of the board.
+         */
+        public Result(int tiles)
+        {
+            //Game lengths above the number of tiles share the last bucket
+            lengths = new long[tiles + 1];
+            opened = new long[tiles + 1];
+        }
+
+        /**
+         * Records a finished game.
+         * @param won True if the game was won.
+         * @param moves The number of moves played.
+         * @param openedTiles The number of tiles opened when the game ended.
+         */
+        public void record(boolean won, int moves, int openedTiles)
+        {
+            games++;
+            if (won) {wins++;}
+            lengths[Math.min(moves, lengths.length - 1)]++;
+            opened[openedTiles]++;
+        }
+
+        /**
+         * Adds the games of other results to these.
+         * @param other The results to add.
+         */
+        public void merge(Result other)
+        {
+            games += other.games;
+            wins += other.wins;
+            for (int i = 0; i < lengths.length; i++)
+            {
+                lengths[i] += other.lengths[i];
+                opened[i] += other.opened[i];
+            }
+        }
+
+        /**
+         * Returns the number of games played.
+         */
+        public long getGames() {return games;}
+
+        /**
+         * Returns the number of games won.
+         */
+        public long getWins() {return wins;}
+
+        /**
+         * Returns the fraction of games won.
+         */
+        public double getWinRate() {return games == 0 ? 0 : (double)wins / games;}
+
+        /**
+         * Returns the histogram of game lengths, indexed by the number of moves.
+         */
+        public long[] getLengthHistogram() {return lengths.clone();}
+
+        /**
+         * Returns the histogram of opened tiles, indexed by the number of tiles opened.
+         */
+        public long[] getOpenedHistogram() {return opened.clone();}
+
+        /**
+         * Returns the mean of a histogram.
+         */
+        private double mean(long[] histogram)
+        {
+            double sum = 0;
+            for (int i = 0; i < histogram.length; i++) {sum += (double)i * histogram[i];}
+            return games == 0 ? 0 : sum / games;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d games, win rate %.4f, mean length %.2f moves, mean opened %.2f tiles",
+                games, getWinRate(), mean(lengths), mean(opened));
+        }
+    }
+
+    /**
+     * Runs a batch from the command line.
+     * Usage: java Simulation rows columns mines games [seed] [threads]
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 4)
+        {
+            System.out.println("Usage: java Simulation rows columns mines games [seed] [threads]");
+            return;
+        }
+        int rows = Integer.parseInt(args[0]), columns = Integer.parseInt(args[1]), mines = Integer.parseInt(args[2]);
+        long games = Long.parseLong(args[3]);
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Result result = new Simulation(rows, columns, mines, RANDOM).run(games, seed, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.println(result);
+        System.out.printf("%.0f games/s on %d threads%n", games / seconds, threads);
+    }
+}
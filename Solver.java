@@ -0,0 +1,867 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Works out which hidden tiles are provably safe, which are provably mines and how likely
+ * every other tile is to be a mine, using only what the player can see through getState.
+ *
+ * Every opened tile is a constraint: its hidden neighbours hold exactly its count of mines.
+ * The cheap rules run first. A constraint whose mines are all accounted for makes its other
+ * tiles safe, one with as many mines as hidden tiles makes them all mines, and a constraint
+ * whose tiles are a subset of another's settles the difference when the counts allow. What
+ * is left of the frontier is split into components that share no constraint, and the
+ * configurations of each component are counted exactly by a dynamic program over its tiles,
+ * separately for every number of mines it could hold. The components are then combined with
+ * the tiles away from the frontier, weighting each total by the number of ways to place the
+ * remaining mines of the board. Components are enumerated in parallel, and their counts are
+ * cached by their tiles and constraints, so after a move only the components it touched
+ * are counted again.
+ *
+ * A Solver is not thread-safe; each thread should use its own.
+ */
+public class Solver
+{
+    public static final int CACHE_SIZE = 4096;
+    private static final byte UNKNOWN = 0;
+    private static final byte SAFE = 1;
+    private static final byte MINE = 2;
+
+    private final ForkJoinPool pool;
+    private final LinkedHashMap<Key, Counts> cache;
+    private long hits, misses;
+
+    /**
+     * The result of analyzing a board.
+     */
+    public static class Analysis
+    {
+        private final int columns;
+        private final double[] probabilities;
+        private final byte[] certain;
+        private final int frontier, components;
+
+        Analysis(int columns, double[] probabilities, byte[] certain, int frontier, int components)
+        {
+            this.columns = columns;
+            this.probabilities = probabilities;
+            this.certain = certain;
+            this.frontier = frontier;
+            this.components = components;
+        }
+
+        /**
+         * Returns the chance that a tile is a mine. Opened tiles have a chance of 0.
+         */
+        public double getProbability(int row, int col) {return probabilities[row * columns + col];}
+
+        /**
+         * Returns True if a hidden tile is certainly not a mine.
+         */
+        public boolean isSafe(int row, int col) {return certain[row * columns + col] == SAFE;}
+
+        /**
+         * Returns True if a hidden tile is certainly a mine.
+         */
+        public boolean isMine(int row, int col) {return certain[row * columns + col] == MINE;}
+
+        /**
+         * Returns the row-major indices of every hidden tile that is certainly safe.
+         */
+        public int[] getSafeTiles() {return collect(SAFE);}
+
+        /**
+         * Returns the row-major indices of every hidden tile that is certainly a mine.
+         */
+        public int[] getMineTiles() {return collect(MINE);}
+
+        /**
+         * Returns the row-major index of the hidden tile least likely to be a mine, or -1 if
+         * every tile is opened or a certain mine.
+         */
+        public int getBestGuess()
+        {
+            int best = -1;
+            for (int cell = 0; cell < probabilities.length; cell++)
+            {
+                if (certain[cell] == MINE || (probabilities[cell] == 0 && certain[cell] != SAFE)) {continue;}
+                if (best < 0 || probabilities[cell] < probabilities[best]) {best = cell;}
+            }
+            return best;
+        }
+
+        /**
+         * Returns the number of undecided hidden tiles next to an opened tile.
+         */
+        public int getFrontierSize() {return frontier;}
+
+        /**
+         * Returns the number of independent components the frontier was split into.
+         */
+        public int getComponents() {return components;}
+
+        private int[] collect(byte kind)
+        {
+            int count = 0;
+            for (byte c : certain) {if (c == kind) {count++;}}
+            int[] cells = new int[count];
+            for (int cell = 0, i = 0; cell < certain.length; cell++)
+            {
+                if (certain[cell] == kind) {cells[i++] = cell;}
+            }
+            return cells;
+        }
+    }
+
+    /**
+     * Creates a solver that enumerates components on the common pool.
+     */
+    public Solver()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a solver that enumerates components on the given pool.
+     * @param pool The pool to enumerate components on, or null to enumerate them on the
+     * calling thread.
+     */
+    public Solver(ForkJoinPool pool)
+    {
+        this.pool = pool;
+        this.cache = new LinkedHashMap<Key, Counts>(CACHE_SIZE * 2, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Counts> eldest) {return size() > CACHE_SIZE;}
+        };
+    }
+
+    /**
+     * Returns the number of components whose counts were found in the cache.
+     */
+    public long getCacheHits() {return hits;}
+
+    /**
+     * Returns the number of components that had to be enumerated.
+     */
+    public long getCacheMisses() {return misses;}
+
+    /**
+     * Analyzes the position the player sees on a board. Flags and question marks are the
+     * player's opinion and are treated as hidden tiles.
+     * @param board The board to analyze.
+     * @return The safe tiles, mines and mine probabilities of the position.
+     */
+    public Analysis analyze(MineBoard board)
+    {
+        Constraints constraints = constrain(board);
+        constraints.deduce();
+        return count(board, constraints);
+    }
+
+    /**
+     * Returns the row-major indices of the hidden tiles proven safe. The cheap rules are tried
+     * first and the components are only counted when those decide nothing, so this is much
+     * faster than analyze when all that is needed is a safe move.
+     * @param board The board to analyze.
+     */
+    public int[] findSafeTiles(MineBoard board)
+    {
+        Constraints constraints = constrain(board);
+        constraints.deduce();
+        int count = 0;
+        for (byte k : constraints.known) {if (k == SAFE) {count++;}}
+        if (count == 0) {return count(board, constraints).getSafeTiles();}
+
+        int[] safe = new int[count];
+        for (int cell = 0, i = 0; cell < constraints.known.length; cell++)
+        {
+            if (constraints.known[cell] == SAFE) {safe[i++] = cell;}
+        }
+        return safe;
+    }
+
+    /**
+     * Builds the constraints of the position the player sees.
+     */
+    private static Constraints constrain(MineBoard board)
+    {
+        int rows = board.getRows(), columns = board.getColumns(), tiles = rows * columns;
+        boolean[] hidden = new boolean[tiles];
+        int[] counts = new int[tiles];
+        for (int cell = 0; cell < tiles; cell++)
+        {
+            int state = board.getState(cell / columns, cell % columns);
+            hidden[cell] = state < 0;
+            counts[cell] = state;
+        }
+
+        //Every opened tile with a hidden neighbour constrains its neighbours
+        List<int[]> neighbours = new ArrayList<>();
+        List<Integer> cells = new ArrayList<>();
+        int[] around = new int[8];
+        for (int cell = 0; cell < tiles; cell++)
+        {
+            if (hidden[cell]) {continue;}
+            int row = cell / columns, col = cell % columns, size = 0;
+            for (int i = row - 1; i <= row + 1; i++)
+            {
+                for (int j = col - 1; j <= col + 1; j++)
+                {
+                    if (i >= 0 && j >= 0 && i < rows && j < columns && hidden[i * columns + j]) {around[size++] = i * columns + j;}
+                }
+            }
+            if (size > 0)
+            {
+                neighbours.add(Arrays.copyOf(around, size));
+                cells.add(cell);
+            }
+        }
+
+        return new Constraints(hidden, neighbours, cells, counts);
+    }
+
+    /**
+     * Counts the configurations of the frontier left undecided by the cheap rules and
+     * combines them into the analysis of the position.
+     */
+    private Analysis count(MineBoard board, Constraints constraints)
+    {
+        int columns = board.getColumns(), tiles = constraints.known.length;
+        boolean[] hidden = constraints.hidden;
+        byte[] known = constraints.known;
+
+        //Split the undecided frontier into components joined by shared constraints
+        int[] parent = new int[tiles];
+        for (int cell = 0; cell < tiles; cell++) {parent[cell] = cell;}
+        boolean[] frontier = new boolean[tiles];
+        for (int c = 0; c < constraints.size; c++)
+        {
+            int[] vars = constraints.unknowns(c);
+            for (int v : vars)
+            {
+                frontier[v] = true;
+                parent[find(parent, v)] = find(parent, vars[0]);
+            }
+        }
+
+        HashMap<Integer, List<Integer>> varsByRoot = new HashMap<>(), consByRoot = new HashMap<>();
+        List<Integer> roots = new ArrayList<>();
+        for (int cell = 0; cell < tiles; cell++)
+        {
+            if (!frontier[cell]) {continue;}
+            int root = find(parent, cell);
+            if (!varsByRoot.containsKey(root))
+            {
+                roots.add(root);
+                varsByRoot.put(root, new ArrayList<>());
+                consByRoot.put(root, new ArrayList<>());
+            }
+            varsByRoot.get(root).add(cell);
+        }
+        for (int c = 0; c < constraints.size; c++)
+        {
+            int[] vars = constraints.unknowns(c);
+            if (vars.length > 0) {consByRoot.get(find(parent, vars[0])).add(c);}
+        }
+
+        //Build every component and look its counts up, enumerating the ones not cached
+        int n = roots.size();
+        int[][] componentVars = new int[n][];
+        Key[] keys = new Key[n];
+        Counts[] results = new Counts[n];
+        List<Callable<Counts>> work = new ArrayList<>();
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+        {
+            int[] vars = varsByRoot.get(roots.get(i)).stream().mapToInt(Integer::intValue).toArray();
+            List<Integer> cons = consByRoot.get(roots.get(i));
+            componentVars[i] = vars;
+
+            int[][] members = new int[cons.size()][];
+            int[] values = new int[cons.size()];
+            int[] key = new int[vars.length + 1 + 2 * cons.size()];
+            System.arraycopy(vars, 0, key, 0, vars.length);
+            key[vars.length] = -1;
+            for (int j = 0; j < cons.size(); j++)
+            {
+                int c = cons.get(j);
+                int[] unknown = constraints.unknowns(c);
+                members[j] = new int[unknown.length];
+                for (int k = 0; k < unknown.length; k++) {members[j][k] = Arrays.binarySearch(vars, unknown[k]);}
+                values[j] = constraints.remaining(c);
+                key[vars.length + 1 + 2 * j] = constraints.cells[c];
+                key[vars.length + 2 + 2 * j] = values[j];
+            }
+
+            keys[i] = new Key(key);
+            results[i] = cache.get(keys[i]);
+            if (results[i] == null)
+            {
+                misses++;
+                pending.add(i);
+                work.add(() -> Counts.enumerate(vars.length, members, values));
+            }
+            else {hits++;}
+        }
+        runAll(work, pending, results, keys);
+
+        return combine(board, columns, hidden, known, componentVars, results);
+    }
+
+    /**
+     * Enumerates the components missing from the cache, in parallel when there are several.
+     */
+    private void runAll(List<Callable<Counts>> work, List<Integer> pending, Counts[] results, Key[] keys)
+    {
+        try
+        {
+            if (work.size() == 1 || pool == null)
+            {
+                for (int i = 0; i < work.size(); i++) {results[pending.get(i)] = work.get(i).call();}
+            }
+            else if (work.size() > 1)
+            {
+                List<Future<Counts>> futures = pool.invokeAll(work);
+                for (int i = 0; i < futures.size(); i++) {results[pending.get(i)] = futures.get(i).get();}
+            }
+        }
+        catch (ExecutionException ex)
+        {
+            throw new IllegalStateException(ex.getCause());
+        }
+        catch (Exception ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+        for (int i : pending) {cache.put(keys[i], results[i]);}
+    }
+
+    /**
+     * Combines the counts of the components with the tiles off the frontier into the chance
+     * of every tile being a mine.
+     */
+    private static Analysis combine(MineBoard board, int columns, boolean[] hidden, byte[] known,
+        int[][] componentVars, Counts[] results)
+    {
+        int tiles = hidden.length, n = results.length;
+        double[] probabilities = new double[tiles];
+        byte[] certain = Arrays.copyOf(known, tiles);
+
+        int knownMines = 0, interior = 0, frontierSize = 0;
+        boolean[] onFrontier = new boolean[tiles];
+        for (int[] vars : componentVars)
+        {
+            for (int v : vars) {onFrontier[v] = true;}
+            frontierSize += vars.length;
+        }
+        for (int cell = 0; cell < tiles; cell++)
+        {
+            if (known[cell] == MINE) {knownMines++; probabilities[cell] = 1;}
+            else if (hidden[cell] && known[cell] == UNKNOWN && !onFrontier[cell]) {interior++;}
+        }
+        int remaining = board.getTotalMines() - knownMines;
+
+        //prefix[i] and suffix[i] are the combined counts of the components before and after i
+        double[][] prefix = new double[n + 1][], suffix = new double[n + 1][];
+        prefix[0] = new double[] {1};
+        suffix[n] = new double[] {1};
+        for (int i = 0; i < n; i++) {prefix[i + 1] = convolve(prefix[i], results[i].ways);}
+        for (int i = n - 1; i >= 0; i--) {suffix[i] = convolve(results[i].ways, suffix[i + 1]);}
+        double[] all = prefix[n];
+
+        //weight[K] is the number of ways to place the other mines off the frontier, relative to the largest
+        double[] logFactorial = new double[interior + 1];
+        for (int i = 1; i <= interior; i++) {logFactorial[i] = logFactorial[i - 1] + Math.log(i);}
+        double[] logWeight = new double[all.length];
+        double largest = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < all.length; k++)
+        {
+            int rest = remaining - k;
+            logWeight[k] = rest < 0 || rest > interior ? Double.NEGATIVE_INFINITY
+                : logFactorial[interior] - logFactorial[rest] - logFactorial[interior - rest];
+            largest = Math.max(largest, logWeight[k]);
+        }
+        double[] weight = new double[all.length];
+        for (int k = 0; k < all.length && largest > Double.NEGATIVE_INFINITY; k++) {weight[k] = Math.exp(logWeight[k] - largest);}
+
+        double total = 0, interiorMines = 0;
+        boolean interiorSafe = true, interiorMine = true;
+        for (int k = 0; k < all.length; k++)
+        {
+            double w = all[k] * weight[k];
+            if (w == 0) {continue;}
+            total += w;
+            interiorMines += w * (remaining - k);
+            interiorSafe &= remaining - k == 0;
+            interiorMine &= remaining - k == interior;
+        }
+
+        for (int i = 0; i < n && total > 0; i++)
+        {
+            double[] others = convolve(prefix[i], suffix[i + 1]);
+            Counts counts = results[i];
+
+            //context[k] is the weight of every completion of the board where the component holds k mines
+            double[] context = new double[counts.ways.length];
+            for (int k = 0; k < context.length; k++)
+            {
+                for (int j = 0; j < others.length; j++) {context[k] += others[j] * weight[k + j];}
+            }
+
+            for (int v = 0; v < counts.mines.length; v++)
+            {
+                double mines = 0;
+                boolean safe = true, mine = true;
+                for (int k = 0; k < context.length; k++)
+                {
+                    if (context[k] == 0 || counts.ways[k] == 0) {continue;}
+                    mines += counts.mines[v][k] * context[k];
+                    safe &= counts.mines[v][k] == 0;
+                    mine &= counts.mines[v][k] == counts.ways[k];
+                }
+                int cell = componentVars[i][v];
+                probabilities[cell] = safe ? 0 : mine ? 1 : mines / total;
+                if (safe) {certain[cell] = SAFE;}
+                else if (mine) {certain[cell] = MINE;}
+            }
+        }
+
+        if (interior > 0 && total > 0)
+        {
+            double chance = interiorSafe ? 0 : interiorMine ? 1 : interiorMines / total / interior;
+            for (int cell = 0; cell < tiles; cell++)
+            {
+                if (!hidden[cell] || known[cell] != UNKNOWN || onFrontier[cell]) {continue;}
+                probabilities[cell] = chance;
+                if (interiorSafe) {certain[cell] = SAFE;}
+                else if (interiorMine) {certain[cell] = MINE;}
+            }
+        }
+        return new Analysis(columns, probabilities, certain, frontierSize, n);
+    }
+
+    /**
+     * Multiplies two polynomials given by their coefficients.
+     */
+    private static double[] convolve(double[] a, double[] b)
+    {
+        double[] result = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++)
+        {
+            if (a[i] == 0) {continue;}
+            for (int j = 0; j < b.length; j++) {result[i + j] += a[i] * b[j];}
+        }
+        return result;
+    }
+
+    /**
+     * Finds the root of a tile in the union-find forest, halving the path on the way.
+     */
+    private static int find(int[] parent, int cell)
+    {
+        while (parent[cell] != cell)
+        {
+            parent[cell] = parent[parent[cell]];
+            cell = parent[cell];
+        }
+        return cell;
+    }
+
+    /**
+     * The constraints of a position and the tiles the cheap rules have decided.
+     */
+    private static class Constraints
+    {
+        final int size;
+        final int[] cells, values;
+        final int[][] vars;
+        //The constraints each tile belongs to, as a compressed index
+        final int[] start, members;
+        final boolean[] hidden;
+        final byte[] known;
+        //The constraints waiting to be checked, as a ring buffer
+        private final int[] queue;
+        private final boolean[] queued;
+        private int head, pending;
+
+        Constraints(boolean[] hidden, List<int[]> neighbours, List<Integer> cells, int[] counts)
+        {
+            int tiles = hidden.length;
+            this.hidden = hidden;
+            size = neighbours.size();
+            this.cells = cells.stream().mapToInt(Integer::intValue).toArray();
+            vars = neighbours.toArray(new int[size][]);
+            values = new int[size];
+            for (int c = 0; c < size; c++) {values[c] = counts[this.cells[c]];}
+            known = new byte[tiles];
+            queue = new int[size];
+            queued = new boolean[size];
+
+            start = new int[tiles + 1];
+            for (int[] v : vars) {for (int cell : v) {start[cell + 1]++;}}
+            for (int cell = 0; cell < tiles; cell++) {start[cell + 1] += start[cell];}
+            members = new int[start[tiles]];
+            int[] next = Arrays.copyOf(start, tiles);
+            for (int c = 0; c < size; c++) {for (int cell : vars[c]) {members[next[cell]++] = c;}}
+        }
+
+        /**
+         * Returns the undecided tiles of a constraint.
+         */
+        int[] unknowns(int c)
+        {
+            int count = 0;
+            for (int cell : vars[c]) {if (known[cell] == UNKNOWN) {count++;}}
+            int[] result = new int[count];
+            for (int cell : vars[c]) {if (known[cell] == UNKNOWN) {result[--count] = cell;}}
+            Arrays.sort(result);
+            return result;
+        }
+
+        /**
+         * Returns the number of mines among the undecided tiles of a constraint.
+         */
+        int remaining(int c)
+        {
+            int value = values[c];
+            for (int cell : vars[c]) {if (known[cell] == MINE) {value--;}}
+            return value;
+        }
+
+        /**
+         * Applies the single-point and subset rules until neither decides another tile. Every
+         * constraint is checked once, and then again whenever one of its tiles is decided.
+         */
+        void deduce()
+        {
+            for (int c = 0; c < size; c++) {enqueue(c);}
+            while (pending > 0)
+            {
+                int a = queue[head];
+                head = (head + 1) % size;
+                pending--;
+                queued[a] = false;
+
+                int[] tilesA = unknowns(a);
+                if (tilesA.length == 0) {continue;}
+                int valueA = remaining(a);
+                if (valueA == 0) {mark(tilesA, SAFE); continue;}
+                if (valueA == tilesA.length) {mark(tilesA, MINE); continue;}
+
+                //Compare with every constraint sharing a tile, whichever of the two is the subset
+                search:
+                for (int tile : tilesA)
+                {
+                    for (int i = start[tile]; i < start[tile + 1]; i++)
+                    {
+                        int b = members[i];
+                        if (b == a) {continue;}
+                        int[] tilesB = unknowns(b);
+                        int[] small = tilesA, large = tilesB;
+                        int value = remaining(b) - valueA;
+                        if (tilesB.length < tilesA.length)
+                        {
+                            small = tilesB;
+                            large = tilesA;
+                            value = -value;
+                        }
+                        if (large.length == small.length || !containsAll(large, small)) {continue;}
+
+                        int[] difference = new int[large.length - small.length];
+                        for (int j = 0, k = 0; j < large.length; j++)
+                        {
+                            if (Arrays.binarySearch(small, large[j]) < 0) {difference[k++] = large[j];}
+                        }
+                        if (value == 0) {mark(difference, SAFE);}
+                        else if (value == difference.length) {mark(difference, MINE);}
+                        else {continue;}
+
+                        //The tiles of a are stale once anything is decided, so it is checked again later
+                        enqueue(a);
+                        break search;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Decides tiles and queues every constraint they belong to.
+         */
+        private void mark(int[] cells, byte kind)
+        {
+            for (int cell : cells)
+            {
+                known[cell] = kind;
+                for (int i = start[cell]; i < start[cell + 1]; i++) {enqueue(members[i]);}
+            }
+        }
+
+        private void enqueue(int c)
+        {
+            if (queued[c]) {return;}
+            queued[c] = true;
+            queue[(head + pending) % size] = c;
+            pending++;
+        }
+
+        private static boolean containsAll(int[] large, int[] small)
+        {
+            for (int cell : small) {if (Arrays.binarySearch(large, cell) < 0) {return false;}}
+            return true;
+        }
+    }
+
+    /**
+     * The configurations of one component: ways[k] is the number with k mines, and
+     * mines[v][k] the number of those where tile v is a mine.
+     */
+    private static class Counts
+    {
+        final double[] ways;
+        final double[][] mines;
+
+        Counts(double[] ways, double[][] mines)
+        {
+            this.ways = ways;
+            this.mines = mines;
+        }
+
+        /**
+         * Counts the configurations of a component with a forward and a backward pass over
+         * its tiles. The state between two tiles is the number of mines still owed by each
+         * constraint that has tiles on both sides, so configurations that agree on those
+         * share the work, and the cost grows with the width of the frontier rather than
+         * with the number of configurations.
+         * @param count The number of tiles in the component.
+         * @param members The tiles of each constraint, as indices into the component.
+         * @param values The number of mines each constraint still needs.
+         */
+        static Counts enumerate(int count, int[][] members, int[] values)
+        {
+            int m = members.length;
+            int[] order = order(count, members);
+            int[] position = new int[count];
+            for (int p = 0; p < count; p++) {position[order[p]] = p;}
+
+            //first and last are the positions of the first and last tile of each constraint
+            int[] first = new int[m], last = new int[m];
+            int[][] positions = new int[m][];
+            for (int c = 0; c < m; c++)
+            {
+                positions[c] = new int[members[c].length];
+                for (int j = 0; j < members[c].length; j++) {positions[c][j] = position[members[c][j]];}
+                Arrays.sort(positions[c]);
+                first[c] = positions[c][0];
+                last[c] = positions[c][positions[c].length - 1];
+            }
+
+            //active[p] holds the constraints with tiles both before and from position p
+            List<List<Integer>> activeLists = new ArrayList<>();
+            for (int p = 0; p <= count; p++) {activeLists.add(new ArrayList<>());}
+            List<List<Integer>> touching = new ArrayList<>();
+            for (int p = 0; p < count; p++) {touching.add(new ArrayList<>());}
+            for (int c = 0; c < m; c++)
+            {
+                for (int p = first[c] + 1; p <= last[c]; p++) {activeLists.get(p).add(c);}
+                for (int p : positions[c]) {touching.get(p).add(c);}
+            }
+            int[][] active = new int[count + 1][];
+            for (int p = 0; p <= count; p++) {active[p] = activeLists.get(p).stream().mapToInt(Integer::intValue).toArray();}
+
+            //Forward pass: the configurations of the tiles before each position, by state
+            List<LinkedHashMap<State, Node>> layers = new ArrayList<>();
+            LinkedHashMap<State, Node> layer = new LinkedHashMap<>();
+            layer.put(new State(new byte[0]), new Node(new double[] {1}));
+            layers.add(layer);
+
+            int[] slot = new int[m];
+            Arrays.fill(slot, -1);
+            byte[] owed = new byte[m];
+            for (int p = 0; p < count; p++)
+            {
+                for (int i = 0; i < active[p + 1].length; i++) {slot[active[p + 1][i]] = i;}
+
+                LinkedHashMap<State, Node> next = new LinkedHashMap<>();
+                for (Map.Entry<State, Node> entry : layer.entrySet())
+                {
+                    Node node = entry.getValue();
+                    for (int x = 0; x <= 1; x++)
+                    {
+                        State to = step(entry.getKey(), x, p, active, touching.get(p), positions, values, slot, owed);
+                        node.next[x] = to;
+                        if (to == null) {continue;}
+                        Node target = next.get(to);
+                        if (target == null)
+                        {
+                            target = new Node(new double[p + 2]);
+                            next.put(to, target);
+                        }
+                        for (int k = 0; k < node.forward.length; k++) {target.forward[k + x] += node.forward[k];}
+                    }
+                }
+                for (int c : active[p + 1]) {slot[c] = -1;}
+                layers.add(next);
+                layer = next;
+            }
+
+            //Backward pass: the configurations of the tiles from each position on, by state
+            for (Node node : layers.get(count).values()) {node.backward = new double[] {1};}
+            for (int p = count - 1; p >= 0; p--)
+            {
+                LinkedHashMap<State, Node> after = layers.get(p + 1);
+                for (Node node : layers.get(p).values())
+                {
+                    node.backward = new double[count - p + 1];
+                    for (int x = 0; x <= 1; x++)
+                    {
+                        if (node.next[x] == null) {continue;}
+                        double[] b = after.get(node.next[x]).backward;
+                        for (int k = 0; k < b.length; k++) {node.backward[k + x] += b[k];}
+                    }
+                }
+            }
+
+            double[] ways = layers.get(0).values().iterator().next().backward;
+            double[][] mines = new double[count][count + 1];
+            for (int p = 0; p < count; p++)
+            {
+                LinkedHashMap<State, Node> after = layers.get(p + 1);
+                double[] sum = mines[order[p]];
+                for (Node node : layers.get(p).values())
+                {
+                    if (node.next[1] == null) {continue;}
+                    double[] b = after.get(node.next[1]).backward;
+                    for (int i = 0; i < node.forward.length; i++)
+                    {
+                        if (node.forward[i] == 0) {continue;}
+                        for (int j = 0; j < b.length; j++) {sum[i + j + 1] += node.forward[i] * b[j];}
+                    }
+                }
+            }
+            return new Counts(ways, mines);
+        }
+
+        /**
+         * Returns the state after deciding the tile at position p, or null if that breaks a
+         * constraint.
+         */
+        private static State step(State from, int x, int p, int[][] active, List<Integer> touching,
+            int[][] positions, int[] values, int[] slot, byte[] owed)
+        {
+            //Start from the mines still owed before this tile, including constraints starting here
+            for (int i = 0; i < active[p].length; i++) {owed[active[p][i]] = from.owed[i];}
+            for (int c : touching) {if (positions[c][0] == p) {owed[c] = (byte)values[c];}}
+            for (int c : touching) {owed[c] -= x;}
+
+            for (int c : touching)
+            {
+                int left = positions[c].length - 1 - Arrays.binarySearch(positions[c], p);
+                if (owed[c] < 0 || owed[c] > left) {return null;}
+            }
+
+            byte[] next = new byte[active[p + 1].length];
+            for (int c : active[p + 1]) {next[slot[c]] = owed[c];}
+            return new State(next);
+        }
+
+        /**
+         * Orders the tiles breadth first from a tile with the fewest neighbours, so tiles that
+         * share constraints are close together and few constraints are open at a time.
+         */
+        private static int[] order(int count, int[][] members)
+        {
+            List<List<Integer>> byTile = new ArrayList<>();
+            for (int v = 0; v < count; v++) {byTile.add(new ArrayList<>());}
+            for (int c = 0; c < members.length; c++) {for (int v : members[c]) {byTile.get(v).add(c);}}
+
+            int startTile = 0;
+            for (int v = 1; v < count; v++)
+            {
+                if (byTile.get(v).size() < byTile.get(startTile).size()) {startTile = v;}
+            }
+
+            int[] order = new int[count];
+            boolean[] seen = new boolean[count];
+            int head = 0, tail = 0;
+            order[tail++] = startTile;
+            seen[startTile] = true;
+            while (head < tail)
+            {
+                int v = order[head++];
+                for (int c : byTile.get(v))
+                {
+                    for (int u : members[c])
+                    {
+                        if (!seen[u]) {seen[u] = true; order[tail++] = u;}
+                    }
+                }
+            }
+            return order;
+        }
+    }
+
+    /**
+     * The mines still owed by the open constraints between two tiles of a component.
+     */
+    private static final class State
+    {
+        final byte[] owed;
+        final int hash;
+
+        State(byte[] owed)
+        {
+            this.owed = owed;
+            this.hash = Arrays.hashCode(owed);
+        }
+
+        @Override
+        public int hashCode() {return hash;}
+
+        @Override
+        public boolean equals(Object other) {return other instanceof State && Arrays.equals(owed, ((State)other).owed);}
+    }
+
+    /**
+     * One state of the dynamic program: the counts of the configurations leading to it and
+     * away from it, indexed by their number of mines, and the states each choice leads to.
+     */
+    private static final class Node
+    {
+        final double[] forward;
+        double[] backward;
+        final State[] next = new State[2];
+
+        Node(double[] forward) {this.forward = forward;}
+    }
+
+    /**
+     * Identifies a component by its tiles and its constraints with the mines they still need.
+     */
+    private static final class Key
+    {
+        final int[] data;
+        final int hash;
+
+        Key(int[] data)
+        {
+            this.data = data;
+            this.hash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public int hashCode() {return hash;}
+
+        @Override
+        public boolean equals(Object other) {return other instanceof Key && Arrays.equals(data, ((Key)other).data);}
+    }
+}
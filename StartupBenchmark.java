@@ -0,0 +1,65 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how long the game takes to start, from launching a fresh JVM until the window is
+ * shown and until the board is first painted with its images and can be played. Every run
+ * starts a new JVM with -Dminesweeper.startup=exit, so each one is a cold start of the
+ * classes, though the operating system may have the files cached. Needs a display.
+ *
+ * Usage: java StartupBenchmark [runs]
+ */
+public class StartupBenchmark
+{
+    private static final Pattern TIMES = Pattern.compile("Startup: main (\\d+) ms, shown (\\d+) ms, interactive (\\d+) ms");
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        long[] main = new long[runs], shown = new long[runs], interactive = new long[runs];
+
+        for (int run = 0; run < runs; run++)
+        {
+            Process game = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Dminesweeper.startup=exit", "Minesweeper").redirectErrorStream(true).start();
+            Matcher times = null;
+            StringBuilder output = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(game.getInputStream())))
+            {
+                for (String line; (line = reader.readLine()) != null;)
+                {
+                    output.append(line).append(System.lineSeparator());
+                    Matcher match = TIMES.matcher(line);
+                    if (match.find()) {times = match;}
+                }
+            }
+            game.waitFor();
+            if (times == null)
+            {
+                System.err.print("The game did not report its startup:" + System.lineSeparator() + output);
+                System.exit(1);
+            }
+            main[run] = Long.parseLong(times.group(1));
+            shown[run] = Long.parseLong(times.group(2));
+            interactive[run] = Long.parseLong(times.group(3));
+        }
+
+        System.out.printf("%-14s %8s %8s %8s%n", "ms after JVM", "min", "median", "max");
+        print("main", main);
+        print("shown", shown);
+        print("interactive", interactive);
+    }
+
+    private static void print(String name, long[] times)
+    {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-14s %8d %8d %8d%n", name, sorted[0], sorted[sorted.length / 2], sorted[sorted.length - 1]);
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Measures a StatsStore holding millions of games: how fast games are appended, how long a
+ * cold open takes from the checkpoint, after a crash that left games past it, and with no
+ * checkpoint at all, and how long the queries of the statistics dialog take. The store is
+ * made in a temporary directory that is deleted afterwards.
+ *
+ * Usage: java StatsBenchmark [games]
+ */
+public class StatsBenchmark
+{
+    private static final int[][] DIFFICULTIES = {{10, 10, 10}, {16, 16, 40}, {16, 30, 99}, {256, 256, 10240}, {1024, 1024, 163840}};
+    private static final double[] WIN_RATES = {0.9, 0.75, 0.4, 0.05, 0.01};
+    private static final int QUERIES = 100000;
+
+    public static void main(String[] args) throws IOException
+    {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        Path directory = Files.createTempDirectory("minesweeper-stats");
+        SplittableRandom random = new SplittableRandom(1);
+        long time = System.currentTimeMillis() - 1000L * games;
+
+        try
+        {
+            StatsStore store = new StatsStore(directory);
+            long start = System.nanoTime();
+            time = append(store, games, time, random);
+            store.flush();
+            double appendSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            store.close();
+            System.out.printf("Appended %d games in %.2f s, %.0f per second; checkpoint on close %.1f ms%n", games,
+                appendSeconds, games / appendSeconds, (System.nanoTime() - start) / 1e6);
+            System.out.printf("On disk: %.1f MB of segments, %.1f MB of checkpoint%n", size(directory, ".seg") / 1e6,
+                size(directory, ".checkpoint") / 1e6);
+
+            store = new StatsStore(directory);
+            System.out.printf("Open from the checkpoint: %.1f ms, %d games%n", store.getOpenNanos() / 1e6, store.size());
+            query(store, time);
+
+            //A crash: games appended and flushed after the checkpoint, but the store never closed
+            int tail = Math.min(games / 10, StatsStore.CHECKPOINT_INTERVAL - 1);
+            append(store, tail, time, random);
+            store.flush();
+            store.abandon();
+            store = new StatsStore(directory);
+            System.out.printf("Open after a crash, %d games past the checkpoint: %.1f ms, %d games%n", tail,
+                store.getOpenNanos() / 1e6, store.size());
+            store.close();
+
+            Files.delete(directory.resolve("stats.checkpoint"));
+            store = new StatsStore(directory);
+            System.out.printf("Open with no checkpoint, reading every game: %.1f ms, %d games%n", store.getOpenNanos() / 1e6, store.size());
+            store.close();
+        }
+        finally
+        {
+            try (Stream<Path> files = Files.walk(directory))
+            {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Appends games on random difficulties, about a second apart.
+     * @return The end time of the last game.
+     */
+    private static long append(StatsStore store, int games, long time, SplittableRandom random) throws IOException
+    {
+        for (int i = 0; i < games; i++)
+        {
+            int kind = random.nextInt(DIFFICULTIES.length);
+            int[] difficulty = DIFFICULTIES[kind];
+            time += random.nextInt(2000);
+            store.append(new GameRecord(time, random.nextLong(), 1000 + random.nextInt(600000), difficulty[0], difficulty[1],
+                difficulty[2], 1 + random.nextInt(400), random.nextDouble() < WIN_RATES[kind], random.nextBoolean()));
+        }
+        return time;
+    }
+
+    /**
+     * Times the queries of the statistics dialog, and a win rate over a day of games.
+     */
+    private static void query(StatsStore store, long last) throws IOException
+    {
+        LatencyHistogram best = new LatencyHistogram("best 10"), recent = new LatencyHistogram("win rate 10000");
+        LatencyHistogram expert = new LatencyHistogram("Expert 10000"), day = new LatencyHistogram("last day");
+        double sink = 0;
+        for (int i = 0; i < QUERIES; i++)
+        {
+            long start = System.nanoTime();
+            sink += store.getBestTimes(16, 30, 99, 10).get(0).getDuration();
+            long end = System.nanoTime();
+            best.record(end - start);
+
+            start = end;
+            sink += store.getWinRate(10000);
+            end = System.nanoTime();
+            recent.record(end - start);
+
+            start = end;
+            sink += store.getWinRate(16, 30, 99, 10000);
+            end = System.nanoTime();
+            expert.record(end - start);
+
+            start = end;
+            int from = store.findTime(last - 86400000L);
+            sink += (double)store.getWins(from, store.size()) / (store.size() - from);
+            end = System.nanoTime();
+            day.record(end - start);
+        }
+        System.out.println("Query latency over " + QUERIES + " runs each (checksum " + (long)sink + "):");
+        for (LatencyHistogram histogram : new LatencyHistogram[] {best, recent, expert, day}) {System.out.println("  " + histogram);}
+        System.out.println("Fastest Expert wins:");
+        for (GameRecord game : store.getBestTimes(16, 30, 99, 3)) {System.out.println("  " + game);}
+    }
+
+    private static long size(Path directory, String suffix) throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory))
+        {
+            return files.filter(file -> file.toString().endsWith(suffix)).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,646 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the outcome of every finished game on disk, and answers questions about them from
+ * indexes kept in memory.
+ *
+ * Records are GameRecords of a fixed size, appended to segment files of SEGMENT_RECORDS
+ * records each and never changed, so record n is always at the same place in the same
+ * segment. Appends are buffered and written together by flush. Records are kept in the order
+ * the games ended; a clock that goes backwards is clamped, so the end times never decrease.
+ *
+ * The indexes hold a few numbers per record: the end times, which are searched by time, and
+ * running counts of wins, so the win rate of any run of games is one subtraction. Each
+ * difficulty, a board size and mine count, has the same for its own games, plus its
+ * LEADERBOARD_SIZE fastest wins. A query never reads more than the records it returns.
+ *
+ * Opening a store does not read every record. A checkpoint keeps just what the indexes are
+ * built from, about four bytes a game: the time since the game before and the difficulty and
+ * result, as varints, plus the leaderboards. It is written when the store is closed, and while
+ * appending once the records not covered by it pass a quarter of those that are, or
+ * CHECKPOINT_INTERVAL. Opening rebuilds the indexes from the checkpoint and then reads only
+ * the records after it. A record left half written by a crash ends the store there, and a
+ * checkpoint that does not match the segments is ignored and the indexes are rebuilt from
+ * the records.
+ *
+ * The methods are synchronized, so games can be recorded on one thread and queried on another.
+ * Only one store may be open on a directory at a time, in any process, since each appends at
+ * its own idea of the end; the directory is locked until the store is closed.
+ */
+public class StatsStore implements Closeable
+{
+    public static final Path DEFAULT_DIRECTORY = Paths.get("Saves", "stats");
+    public static final int SEGMENT_RECORDS = 1 << 20;
+    public static final int LEADERBOARD_SIZE = 100;
+    public static final int CHECKPOINT_INTERVAL = 1 << 16;
+
+    private static final String SEGMENT = "stats-%06d.seg";
+    private static final String CHECKPOINT = "stats.checkpoint";
+    private static final String LOCK = "stats.lock";
+    private static final int MAGIC = 0x4D535354, VERSION = 1;
+    private static final int RECORD_SIZE = GameRecord.RECORD_SIZE;
+    //The records read from the segments at a time when opening
+    private static final int SCAN_RECORDS = 4096;
+
+    //The directories of the stores open in this process. Closing any channel to a file drops
+    //every lock the process holds on it, so a second open must not even try the lock file
+    private static final Set<Path> OPEN = new HashSet<>();
+
+    private final Path directory;
+    //Holds the lock on the directory while the store is open
+    private final FileChannel lockChannel;
+    private final List<FileChannel> segments = new ArrayList<>();
+    private final ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 256);
+    private final HashMap<String, Difficulty> difficulties = new HashMap<>();
+    //The difficulties by number, in the order of their first game
+    private final List<Difficulty> kinds = new ArrayList<>();
+
+    //The number of records, and how many of them are on disk and in the checkpoint
+    private int size, written, checkpointed;
+    //The end time of every record, and wins[n] is the number of wins among the first n records
+    private long[] times = new long[1024];
+    private int[] wins = new int[1025];
+    private long openNanos;
+
+    /**
+     * The index of the games of one board size and mine count.
+     */
+    private static final class Difficulty
+    {
+        final int number, rows, columns, mines;
+        //The records of the games, and wins[n] is the number of wins among the first n of them
+        int[] records = new int[16];
+        int[] wins = new int[17];
+        int count;
+        //The fastest wins, each as its duration and record, fastest first
+        long[] leaders = new long[0];
+
+        Difficulty(int number, int rows, int columns, int mines)
+        {
+            this.number = number;
+            this.rows = rows;
+            this.columns = columns;
+            this.mines = mines;
+        }
+
+        void add(int record, boolean won)
+        {
+            if (count == records.length)
+            {
+                records = Arrays.copyOf(records, count * 2);
+                wins = Arrays.copyOf(wins, count * 2 + 1);
+            }
+            records[count] = record;
+            wins[count + 1] = wins[count] + (won ? 1 : 0);
+            count++;
+        }
+
+        /**
+         * Puts a win on the leaderboard if it is one of the fastest. Ties go to the earlier game.
+         */
+        void lead(long leader)
+        {
+            int length = leaders.length;
+            if (length == LEADERBOARD_SIZE && leader >= leaders[length - 1]) {return;}
+            int at = -Arrays.binarySearch(leaders, leader) - 1;
+            long[] grown = length < LEADERBOARD_SIZE ? Arrays.copyOf(leaders, length + 1) : leaders;
+            System.arraycopy(leaders, at, grown, at + 1, Math.min(length, LEADERBOARD_SIZE - 1) - at);
+            grown[at] = leader;
+            leaders = grown;
+        }
+    }
+
+    /**
+     * Opens the store in a directory, creating it if needed.
+     * @param directory The directory holding the segments and the checkpoint.
+     * @throws IOException If the store cannot be read, a segment other than the last is
+     *         incomplete, or the store is already open, in this process or another.
+     */
+    public StatsStore(Path directory) throws IOException
+    {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        this.directory = directory.toRealPath();
+        synchronized (OPEN)
+        {
+            if (!OPEN.add(this.directory)) {throw new IOException(directory + " is already open");}
+        }
+        try
+        {
+            lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        catch (IOException ex)
+        {
+            synchronized (OPEN) {OPEN.remove(this.directory);}
+            throw ex;
+        }
+        try
+        {
+            if (lockChannel.tryLock() == null) {throw new IOException(directory + " is in use by another process");}
+            open();
+        }
+        catch (IOException ex)
+        {
+            release();
+            throw ex;
+        }
+        openNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Reads the checkpoint and the records after it.
+     */
+    private void open() throws IOException
+    {
+        for (int segment = 0; Files.exists(segmentPath(segment)); segment++)
+        {
+            segments.add(FileChannel.open(segmentPath(segment), StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        long records = 0;
+        for (int segment = 0; segment < segments.size(); segment++)
+        {
+            long length = segments.get(segment).size() / RECORD_SIZE;
+            if (segment < segments.size() - 1 && length != SEGMENT_RECORDS) {throw new IOException(segmentPath(segment) + " is incomplete");}
+            records += length;
+        }
+
+        if (!readCheckpoint(records)) {clearIndexes();}
+        scan(records);
+        written = size;
+        //Whatever a crash left after the last whole record is dropped
+        if (!segments.isEmpty())
+        {
+            segments.get(segments.size() - 1).truncate((long)(size - (segments.size() - 1) * SEGMENT_RECORDS) * RECORD_SIZE);
+        }
+    }
+
+    /**
+     * Closes the segments and lets go of the directory, writing nothing.
+     */
+    private void release() throws IOException
+    {
+        try
+        {
+            for (FileChannel segment : segments) {segment.close();}
+            segments.clear();
+        }
+        finally
+        {
+            //Closing the channel releases the lock
+            try
+            {
+                lockChannel.close();
+            }
+            finally
+            {
+                synchronized (OPEN) {OPEN.remove(directory);}
+            }
+        }
+    }
+
+    /**
+     * Adds the outcome of a game. It is written at the next flush, or once enough have been
+     * added, but can be queried right away.
+     * @param game The outcome of the game.
+     */
+    public synchronized void append(GameRecord game) throws IOException
+    {
+        if (size > 0 && game.getEndTime() < times[size - 1])
+        {
+            game = new GameRecord(times[size - 1], game.getSeed(), game.getDuration(), game.getRows(), game.getColumns(),
+                game.getMines(), game.getClicks(), game.isWon(), game.isNoGuess());
+        }
+        if (!pending.hasRemaining()) {flush();}
+        game.write(pending);
+        index(game);
+        if (size - checkpointed >= Math.max(CHECKPOINT_INTERVAL, checkpointed / 4)) {checkpoint();}
+    }
+
+    /**
+     * Writes the records added since the last flush to the segments.
+     */
+    public synchronized void flush() throws IOException
+    {
+        pending.flip();
+        try
+        {
+            while (pending.hasRemaining())
+            {
+                int segment = written / SEGMENT_RECORDS, offset = written % SEGMENT_RECORDS;
+                int records = Math.min(pending.remaining() / RECORD_SIZE, SEGMENT_RECORDS - offset);
+                if (segment == segments.size())
+                {
+                    segments.add(FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE));
+                }
+
+                ByteBuffer slice = pending.duplicate();
+                slice.limit(slice.position() + records * RECORD_SIZE);
+                long position = (long)offset * RECORD_SIZE;
+                while (slice.hasRemaining()) {position += segments.get(segment).write(slice, position);}
+                pending.position(slice.limit());
+                written += records;
+            }
+        }
+        finally
+        {
+            //Anything not written is kept for the next flush
+            pending.compact();
+        }
+    }
+
+    /**
+     * Writes every record to disk and saves the indexes in a checkpoint, so the next open
+     * only reads the records added after it.
+     */
+    public synchronized void checkpoint() throws IOException
+    {
+        flush();
+        for (FileChannel segment : segments) {segment.force(false);}
+
+        int length = 16;
+        for (Difficulty difficulty : kinds) {length += 20 + 8 * difficulty.leaders.length;}
+        ByteBuffer header = ByteBuffer.allocate(length);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(kinds.size());
+        int[] numbers = new int[size];
+        for (Difficulty difficulty : kinds)
+        {
+            header.putInt(difficulty.rows).putInt(difficulty.columns).putInt(difficulty.mines).putInt(difficulty.count)
+                .putInt(difficulty.leaders.length);
+            for (long leader : difficulty.leaders) {header.putLong(leader);}
+            for (int i = 0; i < difficulty.count; i++) {numbers[difficulty.records[i]] = difficulty.number;}
+        }
+
+        byte[] games = new byte[Math.max(64, 4 * size)];
+        int gamesLength = 0;
+        long time = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (gamesLength + 20 > games.length) {games = Arrays.copyOf(games, games.length * 2);}
+            gamesLength = putVarint(games, gamesLength, times[i] - time);
+            gamesLength = putVarint(games, gamesLength, (long)numbers[i] << 1 | (wins[i + 1] - wins[i]));
+            time = times[i];
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, length);
+        crc.update(games, 0, gamesLength);
+        ByteBuffer check = ByteBuffer.allocate(8).putLong(0, crc.getValue());
+        ByteBuffer[] buffers = {header.flip(), ByteBuffer.wrap(games, 0, gamesLength), check};
+
+        //The old checkpoint stays whole until the new one is safely written
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (check.hasRemaining()) {channel.write(buffers);}
+            channel.force(false);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointed = size;
+    }
+
+    /**
+     * Writes everything, checkpoints if anything was added since the last checkpoint, and
+     * closes the segments.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            if (size != checkpointed) {checkpoint();}
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /**
+     * Closes the store as a crash would, without flushing or checkpointing, so the records
+     * added since the last checkpoint are read again on the next open.
+     */
+    synchronized void abandon() throws IOException
+    {
+        release();
+    }
+
+    /**
+     * Returns the number of games recorded.
+     */
+    public synchronized int size() {return size;}
+
+    /**
+     * Returns how long it took to open the store, in nanoseconds.
+     */
+    public long getOpenNanos() {return openNanos;}
+
+    /**
+     * Reads a record.
+     * @param index The number of the record, from 0 for the first game recorded.
+     * @return The record.
+     * @throws IOException If it cannot be read or is corrupt.
+     */
+    public synchronized GameRecord get(int index) throws IOException
+    {
+        if (index < 0 || index >= size) {throw new IndexOutOfBoundsException("No record " + index);}
+
+        ByteBuffer record;
+        if (index >= written)
+        {
+            record = pending.duplicate();
+            record.position((index - written) * RECORD_SIZE);
+        }
+        else
+        {
+            record = ByteBuffer.allocate(RECORD_SIZE);
+            FileChannel segment = segments.get(index / SEGMENT_RECORDS);
+            long position = (long)(index % SEGMENT_RECORDS) * RECORD_SIZE;
+            while (record.hasRemaining())
+            {
+                if (segment.read(record, position + record.position()) < 0) {throw new IOException("Record " + index + " is missing");}
+            }
+            record.flip();
+        }
+        GameRecord game = GameRecord.read(record);
+        if (game == null) {throw new IOException("Record " + index + " is corrupt");}
+        return game;
+    }
+
+    /**
+     * Returns the fastest wins of a difficulty, fastest first. Ties go to the earlier game.
+     * @param count The most to return, up to LEADERBOARD_SIZE.
+     */
+    public synchronized List<GameRecord> getBestTimes(int rows, int columns, int mines, int count) throws IOException
+    {
+        List<GameRecord> best = new ArrayList<>();
+        Difficulty difficulty = difficulties.get(key(rows, columns, mines));
+        for (int i = 0; difficulty != null && i < Math.min(count, difficulty.leaders.length); i++)
+        {
+            best.add(get((int)difficulty.leaders[i]));
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of games played on a difficulty.
+     */
+    public synchronized int getGames(int rows, int columns, int mines)
+    {
+        Difficulty difficulty = difficulties.get(key(rows, columns, mines));
+        return difficulty == null ? 0 : difficulty.count;
+    }
+
+    /**
+     * Returns the share of the last games that were won.
+     * @param last The number of games, counting back from the last one.
+     * @return The win rate from 0 to 1, or NaN if no games were played.
+     */
+    public synchronized double getWinRate(int last)
+    {
+        int from = Math.max(0, size - Math.max(0, last));
+        return (double)getWins(from, size) / (size - from);
+    }
+
+    /**
+     * Returns the share of the last games on a difficulty that were won.
+     * @param last The number of games, counting back from the last one on the difficulty.
+     * @return The win rate from 0 to 1, or NaN if no games were played on it.
+     */
+    public synchronized double getWinRate(int rows, int columns, int mines, int last)
+    {
+        Difficulty difficulty = difficulties.get(key(rows, columns, mines));
+        if (difficulty == null) {return Double.NaN;}
+        int from = Math.max(0, difficulty.count - Math.max(0, last));
+        return (double)(difficulty.wins[difficulty.count] - difficulty.wins[from]) / (difficulty.count - from);
+    }
+
+    /**
+     * Returns the number of games won among a run of records.
+     * @param from The first record.
+     * @param to The record after the last one.
+     */
+    public synchronized int getWins(int from, int to)
+    {
+        if (from < 0 || to > size || from > to) {throw new IndexOutOfBoundsException("No records " + from + " to " + to);}
+        return wins[to] - wins[from];
+    }
+
+    /**
+     * Returns the first record of a game that ended at or after a time, so the games between
+     * two times are the records from findTime(start) up to findTime(end).
+     * @param time The time, in milliseconds since the epoch.
+     * @return The record, or size() if every game ended before the time.
+     */
+    public synchronized int findTime(long time)
+    {
+        int low = 0, high = size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {low = middle + 1;}
+            else {high = middle;}
+        }
+        return low;
+    }
+
+    /**
+     * Adds a record to the indexes.
+     */
+    private void index(GameRecord game)
+    {
+        if (size == times.length)
+        {
+            times = Arrays.copyOf(times, size * 2);
+            wins = Arrays.copyOf(wins, size * 2 + 1);
+        }
+        times[size] = game.getEndTime();
+        wins[size + 1] = wins[size] + (game.isWon() ? 1 : 0);
+        Difficulty difficulty = difficulties.computeIfAbsent(key(game.getRows(), game.getColumns(), game.getMines()), key ->
+        {
+            Difficulty added = new Difficulty(kinds.size(), game.getRows(), game.getColumns(), game.getMines());
+            kinds.add(added);
+            return added;
+        });
+        difficulty.add(size, game.isWon());
+        if (game.isWon()) {difficulty.lead((long)game.getDuration() << 32 | size);}
+        size++;
+    }
+
+    private void clearIndexes()
+    {
+        size = 0;
+        checkpointed = 0;
+        times = new long[1024];
+        wins = new int[1025];
+        difficulties.clear();
+        kinds.clear();
+    }
+
+    /**
+     * Loads the indexes from the checkpoint.
+     * @param records The number of whole records in the segments.
+     * @return False if there is no checkpoint, or it is corrupt or covers records that are
+     *         not in the segments.
+     */
+    private boolean readCheckpoint(long records)
+    {
+        byte[] data;
+        try
+        {
+            data = Files.readAllBytes(directory.resolve(CHECKPOINT));
+        }
+        catch (IOException ex)
+        {
+            return false;
+        }
+        if (data.length < 24) {return false;}
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, data.length - 8);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (ByteBuffer.wrap(data).getLong(data.length - 8) != crc.getValue()) {return false;}
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {return false;}
+        int count = buffer.getInt(), number = buffer.getInt();
+        if (count < 0 || count > records || number < 0) {return false;}
+
+        try
+        {
+            for (int i = 0; i < number; i++)
+            {
+                Difficulty difficulty = new Difficulty(i, buffer.getInt(), buffer.getInt(), buffer.getInt());
+                //Sized for its games up front, as growing millions of them is most of the work
+                difficulty.records = new int[Math.max(16, buffer.getInt())];
+                difficulty.wins = new int[difficulty.records.length + 1];
+                difficulty.leaders = new long[buffer.getInt()];
+                for (int j = 0; j < difficulty.leaders.length; j++) {difficulty.leaders[j] = buffer.getLong();}
+                kinds.add(difficulty);
+                difficulties.put(key(difficulty.rows, difficulty.columns, difficulty.mines), difficulty);
+            }
+
+            times = new long[Math.max(1024, count)];
+            wins = new int[times.length + 1];
+            long time = 0;
+            int[] at = {buffer.position()};
+            for (int i = 0; i < count; i++)
+            {
+                time += getVarint(data, at);
+                long game = getVarint(data, at);
+                int won = (int)(game & 1);
+                times[i] = time;
+                wins[i + 1] = wins[i] + won;
+                kinds.get((int)(game >>> 1)).add(i, won != 0);
+            }
+            if (at[0] != data.length - 8) {return false;}
+        }
+        catch (RuntimeException ex)
+        {
+            //A checkpoint whose numbers do not add up
+            return false;
+        }
+        size = count;
+        checkpointed = count;
+        return true;
+    }
+
+    /**
+     * Writes a number seven bits per byte, lowest first.
+     * @return The position after it.
+     */
+    private static int putVarint(byte[] bytes, int at, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            bytes[at++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[at++] = (byte)value;
+        return at;
+    }
+
+    /**
+     * Reads a number written seven bits per byte, lowest first, and moves the position past it.
+     */
+    private static long getVarint(byte[] bytes, int[] at)
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = bytes[at[0]++];
+            value |= (long)(b & 0x7F) << shift;
+            if (b >= 0) {return value;}
+        }
+        throw new IndexOutOfBoundsException("Number too long");
+    }
+
+    /**
+     * Adds the records after the indexed ones to the indexes, stopping at the first corrupt one.
+     * @param records The number of whole records in the segments.
+     */
+    private void scan(long records) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_RECORDS * RECORD_SIZE);
+        while (size < records)
+        {
+            FileChannel segment = segments.get(size / SEGMENT_RECORDS);
+            long position = (long)(size % SEGMENT_RECORDS) * RECORD_SIZE;
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), (records - size) * RECORD_SIZE));
+            buffer.limit(Math.min(buffer.limit(), (int)(segment.size() - position)));
+            while (buffer.hasRemaining())
+            {
+                if (segment.read(buffer, position + buffer.position()) < 0) {throw new IOException("The segment ended early");}
+            }
+            buffer.flip();
+
+            while (buffer.hasRemaining())
+            {
+                GameRecord game = GameRecord.read(buffer);
+                if (game == null)
+                {
+                    if (size / SEGMENT_RECORDS < segments.size() - 1) {throw new IOException("Record " + size + " is corrupt");}
+                    return;
+                }
+                index(game);
+            }
+        }
+    }
+
+    private Path segmentPath(int segment) {return directory.resolve(String.format(SEGMENT, segment));}
+
+    private static String key(int rows, int columns, int mines) {return rows + "x" + columns + "/" + mines;}
+
+    /**
+     * Prints what a store holds: the games and win rate of every difficulty and its best times.
+     *
+     * Usage: java StatsStore [directory]
+     */
+    public static void main(String[] args) throws IOException
+    {
+        try (StatsStore store = new StatsStore(args.length > 0 ? Paths.get(args[0]) : DEFAULT_DIRECTORY))
+        {
+            System.out.printf("%d games, opened in %.2f ms%n", store.size(), store.getOpenNanos() / 1e6);
+            if (store.size() > 0) {System.out.printf("%.1f%% won, %.1f%% of the last 10000%n", 100 * store.getWinRate(store.size()),
+                100 * store.getWinRate(10000));}
+            for (Difficulty difficulty : store.difficulties.values())
+            {
+                System.out.printf("%s: %d games, %.1f%% won%n", key(difficulty.rows, difficulty.columns, difficulty.mines),
+                    difficulty.count, 100 * store.getWinRate(difficulty.rows, difficulty.columns, difficulty.mines, difficulty.count));
+                for (GameRecord game : store.getBestTimes(difficulty.rows, difficulty.columns, difficulty.mines, 3))
+                {
+                    System.out.println("  " + game);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Measures what a TerminalView writes to the terminal and how long it takes, on Expert and on
+ * large custom boards in small and large terminals. Nothing is shown; the output is counted
+ * and thrown away.
+ *
+ * Each game is played by a player who knows where the mines are, flagging or revealing every
+ * tile. The player works through the board a block of 16 x 16 tiles at a time, taking the
+ * blocks row by row and the tiles of each block in a random order, so the cursor jumps around
+ * within an area and the view scrolls as a person's would. The frame after each move is
+ * timed. The cursor is then walked over the whole board one arrow key at a time, which is what
+ * a player pays for moving around. A full frame, as drawn after a resize, is shown for
+ * comparison.
+ *
+ * Usage: java TerminalBenchmark [games] [seed]
+ */
+public class TerminalBenchmark
+{
+    private static final int[][] BOARDS = {{16, 30, 99}, {256, 256, 10240}, {1000, 1000, 150000}};
+    private static final int[][] TERMINALS = {{24, 80}, {60, 200}};
+
+    /**
+     * Counts the bytes written and forgets them.
+     */
+    private static final class CountingStream extends OutputStream
+    {
+        long bytes;
+
+        @Override
+        public void write(int b) {bytes++;}
+
+        @Override
+        public void write(byte[] b, int off, int len) {bytes += len;}
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        //Once through everything so the frames are compiled before they are timed
+        for (int[] size : BOARDS) {run(size, TERMINALS[0], 1, seed, false);}
+        System.out.printf("%-18s %-8s %7s %9s %9s %7s %9s %9s %9s %9s%n", "Board", "Terminal", "Full", "Moves",
+            "B/move", "p99 B", "B/step", "p50 ms", "p99 ms", "max ms");
+        for (int[] size : BOARDS)
+        {
+            for (int[] terminal : TERMINALS) {run(size, terminal, size[0] * size[1] > 100000 ? Math.max(1, games / 10) : games, seed, true);}
+        }
+    }
+
+    private static void run(int[] size, int[] terminal, int games, long seed, boolean print) throws IOException
+    {
+        CountingStream out = new CountingStream();
+        TerminalView view = new TerminalView(out, terminal[0], terminal[1]);
+        LatencyHistogram latency = new LatencyHistogram("render");
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] moveBytes = new int[1 << 16];
+        int moves = 0;
+        long steps = 0, stepBytes = 0, full = 0;
+
+        for (int game = 0; game < games; game++)
+        {
+            MineBoard board = new MineBoard(size[0], size[1], size[2], random.nextLong());
+            view.setBoard(board);
+            view.setCursor(size[0] / 2, size[1] / 2);
+            view.render();
+
+            int[] order = order(size[0], size[1], random);
+            board.reveal(size[0] / 2, size[1] / 2);
+            for (int i = -1; i < order.length && !board.isGameOver(); i++)
+            {
+                int row = i < 0 ? size[0] / 2 : order[i] / size[1], column = i < 0 ? size[1] / 2 : order[i] % size[1];
+                if (i >= 0)
+                {
+                    if (board.isOpened(row, column)) {continue;}
+                    if (board.isMine(row, column)) {board.flag(row, column);}
+                    else {board.reveal(row, column);}
+                }
+                view.setCursor(row, column);
+                view.setStatus(String.format(" Flags %d  (%d, %d)", board.getFlagCount(), row + 1, column + 1));
+
+                long start = System.nanoTime();
+                int bytes = view.render();
+                latency.record(System.nanoTime() - start);
+                if (moves == moveBytes.length) {moveBytes = Arrays.copyOf(moveBytes, moves * 2);}
+                moveBytes[moves++] = bytes;
+            }
+
+            //Walk the cursor back and forth over every row, one arrow key at a time
+            view.setCursor(0, 0);
+            view.render();
+            for (int row = 0; row < size[0]; row++)
+            {
+                for (int step = 0; step < size[1]; step++)
+                {
+                    int column = row % 2 == 0 ? step : size[1] - 1 - step;
+                    if (step == 0 && row == 0) {continue;}
+                    view.setCursor(row, column);
+                    stepBytes += view.render();
+                    steps++;
+                }
+            }
+
+            view.redraw();
+            full = view.render();
+        }
+
+        if (!print) {return;}
+        Arrays.sort(moveBytes, 0, moves);
+        long total = 0;
+        for (int i = 0; i < moves; i++) {total += moveBytes[i];}
+        System.out.printf("%-18s %-8s %7d %9d %9.1f %7d %9.1f %9.4f %9.4f %9.3f%n",
+            size[0] + "x" + size[1] + "/" + size[2], terminal[0] + "x" + terminal[1], full, moves,
+            (double)total / moves, moveBytes[(int)(moves * 0.99)], (double)stepBytes / steps,
+            latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getMax() / 1e6);
+    }
+
+    /**
+     * Returns every tile of a board, block by block, in a random order within each block.
+     */
+    private static int[] order(int rows, int columns, SplittableRandom random)
+    {
+        int[] order = new int[rows * columns];
+        int size = 0;
+        for (int top = 0; top < rows; top += 16)
+        {
+            for (int left = 0; left < columns; left += 16)
+            {
+                int start = size;
+                for (int row = top; row < Math.min(top + 16, rows); row++)
+                {
+                    for (int column = left; column < Math.min(left + 16, columns); column++) {order[size++] = row * columns + column;}
+                }
+                for (int i = size - 1; i > start; i--)
+                {
+                    int j = start + random.nextInt(i - start + 1), swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                }
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,463 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A view of a MineBoard or an endless InfiniteBoard for ANSI terminals. The top line shows
+ * the status and the rest shows as much of the board as fits, two columns per tile, scrolled
+ * so the cursor stays in view.
+ *
+ * The view keeps a shadow copy of what the terminal shows, one int per character holding
+ * its glyph and colour. A frame only compares the tiles changed by the moves since the last
+ * one, which a MineBoard reports as a TileListener, or every tile in view after scrolling,
+ * and writes just the characters that differ. An endless board has no listeners, so every
+ * tile in view is compared at every frame; the shadow still keeps the output down to the
+ * characters that changed. Changes are written in screen order, moving
+ * the cursor only over the gaps between them and setting the colour only when it changes,
+ * so a move costs bytes in proportion to the tiles it changed on screen. The whole screen is
+ * only drawn for the first frame and after a resize or redraw.
+ *
+ * Scrolling up and down uses the terminal's own scrolling within the lines below the status,
+ * so only the lines scrolled into view are drawn. Scrolling sideways jumps half a screen.
+ *
+ * The output is plain ASCII with ANSI escape sequences, and each frame is written with a
+ * single write.
+ */
+public class TerminalView implements TileListener
+{
+    private static final String ESC = "\033[";
+
+    //The colours of the characters. Every one of them can also be shown in reverse video for the cursor.
+    private static final int PLAIN = 0, HIDDEN = 1, FLAG = 2, QUESTION = 3, MINE = 4, EXPLODED = 5, WRONG = 6, STATUS = 7;
+    private static final int NUMBERS = 8;
+    private static final String[] COLOURS = {"0", "0;2", "0;1;91", "0;93", "0;1", "0;1;97;41", "0;1;95", "0;7",
+        "0", "0;94", "0;32", "0;91", "0;34", "0;31", "0;36", "0;35", "0;90"};
+    private static final int CURSOR = COLOURS.length;
+    private static final byte[][] SGR = new byte[2 * COLOURS.length][];
+    static
+    {
+        for (int i = 0; i < COLOURS.length; i++)
+        {
+            SGR[i] = (ESC + COLOURS[i] + "m").getBytes(StandardCharsets.US_ASCII);
+            SGR[CURSOR + i] = (ESC + COLOURS[i] + ";7m").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+    private static final int BLANK = PLAIN << 16 | ' ';
+
+    private final OutputStream out;
+    private MineBoard board;
+    private InfiniteBoard endless;
+    private int screenRows, screenColumns, viewRows, viewColumns;
+    private int top, left, cursorRow, cursorColumn;
+    //The first row and column of the board on the terminal
+    private int shownTop, shownLeft;
+    private boolean exploded;
+    private int explodedRow, explodedColumn;
+    private String status = "";
+
+    //What the terminal shows, one glyph and colour per character
+    private int[] shadow;
+    //The tiles to compare at the next frame, as row-major indices within the view
+    private int[] dirty = new int[64];
+    private int dirtyCount;
+    private boolean scrolled, cleared;
+
+    //The frame being written, and where the terminal's cursor and colour are while writing it
+    private byte[] frame = new byte[4096];
+    private int frameLength, atRow, atColumn, colour;
+    private long bytesWritten;
+
+    /**
+     * Creates a view.
+     * @param out The terminal.
+     * @param rows The number of lines of the terminal.
+     * @param columns The number of columns of the terminal.
+     */
+    public TerminalView(OutputStream out, int rows, int columns)
+    {
+        this.out = out;
+        resize(rows, columns);
+    }
+
+    /**
+     * Shows another board, and listens to it from now on.
+     * @param board The board to show.
+     */
+    public void setBoard(MineBoard board)
+    {
+        if (this.board != null) {this.board.removeTileListener(this);}
+        this.board = board;
+        endless = null;
+        board.addTileListener(this);
+        cursorRow = Math.max(0, Math.min(cursorRow, board.getRows() - 1));
+        cursorColumn = Math.max(0, Math.min(cursorColumn, board.getColumns() - 1));
+        exploded = false;
+        scroll();
+        scrolled = true;
+    }
+
+    /**
+     * Shows an endless board, with the cursor where it is.
+     * @param board The board to show.
+     */
+    public void setBoard(InfiniteBoard board)
+    {
+        if (this.board != null) {this.board.removeTileListener(this);}
+        this.board = null;
+        endless = board;
+        exploded = false;
+        scroll();
+        scrolled = true;
+    }
+
+    /**
+     * Changes the size of the terminal. The next frame clears it and draws everything.
+     * @param rows The number of lines.
+     * @param columns The number of columns.
+     */
+    public void resize(int rows, int columns)
+    {
+        screenRows = Math.max(rows, 2);
+        screenColumns = Math.max(columns, 2);
+        viewRows = screenRows - 1;
+        viewColumns = screenColumns / 2;
+        shadow = new int[screenRows * screenColumns];
+        cleared = false;
+        scrolled = true;
+        if (board != null || endless != null) {scroll();}
+    }
+
+    /**
+     * Forgets what the terminal shows, so the next frame draws everything again.
+     */
+    public void redraw()
+    {
+        resize(screenRows, screenColumns);
+    }
+
+    @Override
+    public void tilesChanged(TileChanges changes)
+    {
+        int columns = board.getColumns();
+        for (int i = 0; i < changes.size(); i++) {markDirty(changes.getCell(i) / columns, changes.getCell(i) % columns);}
+    }
+
+    /**
+     * Moves the cursor to a tile, scrolling the board if it goes out of view. The cursor
+     * stays on a MineBoard, but goes anywhere on an endless board.
+     * @param row The row of the tile.
+     * @param column The column of the tile.
+     */
+    public void setCursor(int row, int column)
+    {
+        if (board != null)
+        {
+            row = Math.max(0, Math.min(row, board.getRows() - 1));
+            column = Math.max(0, Math.min(column, board.getColumns() - 1));
+        }
+        markDirty(cursorRow, cursorColumn);
+        cursorRow = row;
+        cursorColumn = column;
+        markDirty(row, column);
+        scroll();
+    }
+
+    public int getCursorRow() {return cursorRow;}
+
+    public int getCursorColumn() {return cursorColumn;}
+
+    /**
+     * Marks the mine that lost the game, which is drawn on red.
+     * @param row The row of the mine.
+     * @param column The column of the mine.
+     */
+    public void setExploded(int row, int column)
+    {
+        if (exploded) {markDirty(explodedRow, explodedColumn);}
+        exploded = true;
+        explodedRow = row;
+        explodedColumn = column;
+        markDirty(row, column);
+    }
+
+    /**
+     * Changes the status line. It is cut to the width of the terminal.
+     * @param status The text to show.
+     */
+    public void setStatus(String status) {this.status = status;}
+
+    /**
+     * Returns the number of bytes written to the terminal so far.
+     */
+    public long getBytesWritten() {return bytesWritten;}
+
+    /**
+     * Scrolls the board, if needed, so the cursor is in view with a margin of a few tiles.
+     * A MineBoard is not scrolled past its edges.
+     */
+    private void scroll()
+    {
+        int newTop = scrollTo(top, cursorRow, viewRows, false), newLeft = scrollTo(left, cursorColumn, viewColumns, true);
+        if (board != null)
+        {
+            newTop = Math.max(0, Math.min(newTop, board.getRows() - viewRows));
+            newLeft = Math.max(0, Math.min(newLeft, board.getColumns() - viewColumns));
+        }
+        if (newTop != top || newLeft != left)
+        {
+            top = newTop;
+            left = newLeft;
+            scrolled = true;
+        }
+    }
+
+    /**
+     * Returns the first tile in view along one axis once the cursor is in view.
+     * @param centre True to scroll the cursor to the middle of the view, rather than just
+     *        back inside the margin. Terminals cannot scroll sideways, so every column scrolled
+     *        is a full frame; jumping half a view at a time makes that rare.
+     */
+    private static int scrollTo(int first, int cursor, int view, boolean centre)
+    {
+        int margin = Math.min(3, (view - 1) / 2);
+        if (cursor < first + margin) {return centre ? cursor - view / 2 : cursor - margin;}
+        if (cursor >= first + view - margin) {return centre ? cursor - view / 2 : cursor - view + margin + 1;}
+        return first;
+    }
+
+    /**
+     * Marks a tile to be compared at the next frame, if it is in view.
+     */
+    private void markDirty(int row, int column)
+    {
+        row -= top;
+        column -= left;
+        if (row < 0 || row >= viewRows || column < 0 || column >= viewColumns) {return;}
+        if (dirtyCount == dirty.length) {dirty = Arrays.copyOf(dirty, dirtyCount * 2);}
+        dirty[dirtyCount++] = row * viewColumns + column;
+    }
+
+    /**
+     * Returns the number of rows of tiles in view, which is fewer than fit for a small board.
+     */
+    private int shownRows() {return board == null ? viewRows : Math.min(viewRows, board.getRows() - top);}
+
+    /**
+     * Returns the number of columns of tiles in view, which is fewer than fit for a small board.
+     */
+    private int shownColumns() {return board == null ? viewColumns : Math.min(viewColumns, board.getColumns() - left);}
+
+    /**
+     * Brings the terminal up to date, writing only the characters that changed.
+     * @return The number of bytes written.
+     */
+    public int render() throws IOException
+    {
+        frameLength = 0;
+        if (!cleared)
+        {
+            //Hide the cursor and clear the screen, which leaves every character blank
+            append(ESC + "?25l" + ESC + "0m" + ESC + "2J");
+            Arrays.fill(shadow, BLANK);
+            shownTop = top;
+            shownLeft = left;
+            atRow = -1;
+            colour = PLAIN;
+            cleared = true;
+        }
+        else
+        {
+            //Another program may have moved the cursor since the last frame
+            atRow = -1;
+        }
+
+        //The changed characters, each as its screen position and glyph, sorted into screen order
+        long[] changes = new long[16];
+        int count = 0;
+
+        String line = status.length() > screenColumns ? status.substring(0, screenColumns) : status;
+        for (int column = 0; column < screenColumns; column++)
+        {
+            int glyph = STATUS << 16 | (column < line.length() ? line.charAt(column) & 0x7F : ' ');
+            if (shadow[column] != glyph)
+            {
+                if (count == changes.length) {changes = Arrays.copyOf(changes, count * 2);}
+                changes[count++] = (long)column << 32 | glyph;
+            }
+        }
+
+        if (board != null || endless != null)
+        {
+            int rows = shownRows(), columns = shownColumns();
+            if (scrolled)
+            {
+                int lines = top - shownTop;
+                if (left == shownLeft && lines != 0 && Math.abs(lines) < viewRows) {scrollLines(lines);}
+                shownTop = top;
+                shownLeft = left;
+                //The area past the edge of a small board stays blank, but is cleared after scrolling
+                for (int row = 1; row < screenRows; row++)
+                {
+                    for (int column = 0; column < screenColumns; column++)
+                    {
+                        boolean inBoard = row - 1 < rows && column / 2 < columns;
+                        int position = row * screenColumns + column;
+                        if (!inBoard && shadow[position] != BLANK)
+                        {
+                            if (count == changes.length) {changes = Arrays.copyOf(changes, count * 2);}
+                            changes[count++] = (long)position << 32 | BLANK;
+                        }
+                    }
+                }
+            }
+            //Every tile in view may have moved on screen, or, on an endless board, changed
+            if (scrolled || endless != null)
+            {
+                dirtyCount = 0;
+                for (int row = 0; row < rows; row++)
+                {
+                    for (int column = 0; column < columns; column++) {markDirty(top + row, left + column);}
+                }
+                scrolled = false;
+            }
+
+            for (int i = 0; i < dirtyCount; i++)
+            {
+                int row = dirty[i] / viewColumns, column = dirty[i] % viewColumns;
+                int glyph = glyph(top + row, left + column), position = (row + 1) * screenColumns + column * 2;
+                //The second column of a tile is blank, or part of the cursor
+                int pad = (glyph >>> 16) >= CURSOR ? (CURSOR + PLAIN) << 16 | ' ' : BLANK;
+                if (count + 2 > changes.length) {changes = Arrays.copyOf(changes, changes.length * 2);}
+                if (shadow[position] != glyph) {changes[count++] = (long)position << 32 | glyph;}
+                if (shadow[position + 1] != pad) {changes[count++] = (long)(position + 1) << 32 | pad;}
+            }
+            dirtyCount = 0;
+        }
+
+        Arrays.sort(changes, 0, count);
+        for (int i = 0; i < count; i++)
+        {
+            int position = (int)(changes[i] >>> 32), glyph = (int)changes[i];
+            //A tile listed twice is only written once
+            if (shadow[position] == glyph) {continue;}
+            moveTo(position / screenColumns, position % screenColumns);
+            if ((glyph >>> 16) != colour)
+            {
+                colour = glyph >>> 16;
+                append(SGR[colour]);
+            }
+            append((byte)glyph);
+            shadow[position] = glyph;
+            atColumn++;
+        }
+
+        if (frameLength > 0) {out.write(frame, 0, frameLength);}
+        out.flush();
+        bytesWritten += frameLength;
+        return frameLength;
+    }
+
+    /**
+     * Scrolls the lines of the board on the terminal, leaving the status line alone, so only
+     * the lines scrolled into view need to be drawn.
+     * @param lines The number of lines to scroll up, or down if negative.
+     */
+    private void scrollLines(int lines)
+    {
+        //The lines scrolled in are blanked in the current colour
+        if (colour != PLAIN)
+        {
+            colour = PLAIN;
+            append(SGR[PLAIN]);
+        }
+        append(ESC + "2;" + screenRows + "r" + ESC + Math.abs(lines) + (lines > 0 ? "S" : "T") + ESC + "r");
+        atRow = -1;
+
+        int from = screenColumns, length = (viewRows - Math.abs(lines)) * screenColumns;
+        int shift = Math.abs(lines) * screenColumns;
+        if (lines > 0)
+        {
+            System.arraycopy(shadow, from + shift, shadow, from, length);
+            Arrays.fill(shadow, from + length, shadow.length, BLANK);
+        }
+        else
+        {
+            System.arraycopy(shadow, from, shadow, from + shift, length);
+            Arrays.fill(shadow, from, from + shift, BLANK);
+        }
+    }
+
+    /**
+     * Returns the glyph and colour of a tile, in reverse video under the cursor.
+     */
+    private int glyph(int row, int column)
+    {
+        int state = board != null ? board.getState(row, column) : endless.getState(row, column);
+        //An endless game only ends on a mine
+        boolean lost = board != null ? board.isGameOver() && board.getMineCount() > 0 : endless.isGameOver();
+        boolean mine = lost && (board != null ? board.isMine(row, column) : endless.isMine(row, column));
+        int glyph;
+
+        if (lost && exploded && row == explodedRow && column == explodedColumn) {glyph = EXPLODED << 16 | '*';}
+        else if (mine && state != MineBoard.FLAGGED) {glyph = MINE << 16 | '*';}
+        else if (lost && !mine && state == MineBoard.FLAGGED) {glyph = WRONG << 16 | 'X';}
+        else
+        {
+            switch (state)
+            {
+                case MineBoard.HIDDEN_TILE: glyph = HIDDEN << 16 | '.';
+                    break;
+                case MineBoard.FLAGGED: glyph = FLAG << 16 | 'F';
+                    break;
+                case MineBoard.QUESTION: glyph = QUESTION << 16 | '?';
+                    break;
+                case 0: glyph = PLAIN << 16 | ' ';
+                    break;
+                default: glyph = (NUMBERS + state) << 16 | ('0' + state);
+            }
+        }
+        if (row == cursorRow && column == cursorColumn) {glyph += CURSOR << 16;}
+        return glyph;
+    }
+
+    /**
+     * Moves the terminal's cursor with the shortest sequence that gets there.
+     */
+    private void moveTo(int row, int column)
+    {
+        if (row == atRow && column == atColumn) {return;}
+        if (row == atRow && column > atColumn) {append(ESC + (column - atColumn) + "C");}
+        else {append(ESC + (row + 1) + ";" + (column + 1) + "H");}
+        atRow = row;
+        atColumn = column;
+    }
+
+    /**
+     * Leaves the terminal as it was found: default colours, the cursor shown and below the board.
+     */
+    public void close() throws IOException
+    {
+        frameLength = 0;
+        append(ESC + "0m" + ESC + "?25h" + ESC + screenRows + ";1H\r\n");
+        out.write(frame, 0, frameLength);
+        out.flush();
+        if (board != null) {board.removeTileListener(this);}
+    }
+
+    private void append(String text)
+    {
+        for (int i = 0; i < text.length(); i++) {append((byte)text.charAt(i));}
+    }
+
+    private void append(byte[] bytes)
+    {
+        for (byte b : bytes) {append(b);}
+    }
+
+    private void append(byte b)
+    {
+        if (frameLength == frame.length) {frame = Arrays.copyOf(frame, frameLength * 2);}
+        frame[frameLength++] = b;
+    }
+}
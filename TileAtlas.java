@@ -0,0 +1,216 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * The tile images, loaded once and pre-rendered at every size in use. The sprites of a size
+ * are scaled the first time that size is asked for and are then shared, so painting the
+ * board never scales or allocates images. Sizes are in device pixels, so a HiDPI screen
+ * simply asks for a larger size than the tile takes up in user space.
+ *
+ * The images are read from the classpath, so they can be packaged with the classes, and
+ * from the img directory when they are not there. The shared atlas is loaded in the
+ * background, with the images decoded in parallel on as many threads as there are
+ * processors, so the window can be shown while the
+ * images are still on their way.
+ */
+public class TileAtlas
+{
+    /*
+     * The index of each sprite. The adjacency counts 0-8 map to themselves,
+     * the other images have indices of their own.
+     */
+    public static final int HIDDEN = 9;
+    public static final int FLAGGED = 10;
+    public static final int QUESTION = 11;
+    public static final int MINE = 12;
+    public static final int OPENED_MINE = 13;
+    public static final int FALSELY_FLAGGED = 14;
+    public static final int SPRITES = 15;
+
+    private static final String[] FILES =
+    {
+        "opened", "one", "two", "three", "four", "five", "six", "seven", "eight",
+        "hidden", "flagged", "question", "mine", "openedMine", "falselyFlaggedMine"
+    };
+    private static CompletableFuture<TileAtlas> shared;
+
+    private final BufferedImage[] originals;
+    private final ConcurrentHashMap<Integer, BufferedImage[]> sizes = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the tile images one after the other.
+     * @throws UncheckedIOException If an image cannot be read.
+     */
+    public TileAtlas()
+    {
+        originals = new BufferedImage[SPRITES];
+        for (int i = 0; i < SPRITES; i++) {originals[i] = read(i);}
+    }
+
+    private TileAtlas(BufferedImage[] originals)
+    {
+        this.originals = originals;
+    }
+
+    /**
+     * Starts loading the atlas shared by every board view, unless it already has been.
+     * The images are decoded in parallel, and the sprites are rendered at the default tile
+     * size before the atlas is handed out. A load that failed is started over.
+     * @return The shared atlas, once it is loaded.
+     */
+    public static synchronized CompletableFuture<TileAtlas> load()
+    {
+        if (shared != null && !shared.isCompletedExceptionally()) {return shared;}
+
+        //Decoding from memory is faster than through a temporary file
+        ImageIO.setUseCache(false);
+        //One thread per processor at most; more would only fight over the decoders
+        int threads = Math.min(SPRITES, Runtime.getRuntime().availableProcessors());
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService loaders = Executors.newFixedThreadPool(threads, task ->
+        {
+            Thread thread = new Thread(task, "minesweeper-assets-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[SPRITES];
+        BufferedImage[] images = new BufferedImage[SPRITES];
+        for (int i = 0; i < SPRITES; i++)
+        {
+            final int sprite = i;
+            reads[i] = CompletableFuture.runAsync(() -> images[sprite] = read(sprite), loaders);
+        }
+        shared = CompletableFuture.allOf(reads).thenApplyAsync(done ->
+        {
+            TileAtlas atlas = new TileAtlas(images);
+            atlas.getSprite(0, MinePanel.IMAGE_SIZE);
+            return atlas;
+        }, loaders);
+        shared.whenComplete((atlas, ex) -> loaders.shutdown());
+        return shared;
+    }
+
+    /**
+     * Returns the atlas shared by every board view, waiting for it to load if needed.
+     * @throws UncheckedIOException If an image cannot be read.
+     */
+    public static TileAtlas getShared()
+    {
+        try
+        {
+            return load().join();
+        }
+        catch (CompletionException ex)
+        {
+            if (ex.getCause() instanceof UncheckedIOException) {throw (UncheckedIOException)ex.getCause();}
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads one tile image from the classpath, or from the img directory if it is not there.
+     * @throws UncheckedIOException If the image cannot be read.
+     */
+    private static BufferedImage read(int sprite)
+    {
+        String name = "img/" + FILES[sprite] + ".png";
+        try
+        {
+            URL resource = TileAtlas.class.getResource(name);
+            BufferedImage image = resource != null ? ImageIO.read(resource) : ImageIO.read(new File(name));
+            if (image == null) {throw new IOException("Unknown image format");}
+            return image;
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException("Cannot load " + name, ex);
+        }
+    }
+
+    /**
+     * Returns a sprite rendered at the specified size. The returned image is shared and
+     * must not be drawn on.
+     * @param sprite The index of the sprite.
+     * @param size The width and height of the sprite in device pixels.
+     */
+    public BufferedImage getSprite(int sprite, int size)
+    {
+        BufferedImage[] sprites = sizes.get(size);
+        if (sprites == null)
+        {
+            sprites = sizes.computeIfAbsent(size, this::render);
+        }
+        return sprites[sprite];
+    }
+
+    /**
+     * Renders every sprite at one size.
+     * @param size The width and height of the sprites in device pixels.
+     */
+    private BufferedImage[] render(int size)
+    {
+        Metrics.RenderSprites event = Metrics.begin(new Metrics.RenderSprites());
+        BufferedImage[] sprites = new BufferedImage[SPRITES];
+        for (int i = 0; i < SPRITES; i++)
+        {
+            sprites[i] = scale(originals[i], size);
+        }
+        event.size = size;
+        Metrics.end(event);
+        return sprites;
+    }
+
+    /**
+     * Scales an image to a square of the given size. Large reductions are done in halving
+     * steps so the result stays smooth, enlargements keep the pixels sharp.
+     */
+    private static BufferedImage scale(BufferedImage image, int size)
+    {
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= size)
+        {
+            current = draw(current, current.getWidth() / 2, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        Object interpolation = current.getWidth() < size
+            ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR : RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+        return draw(current, size, interpolation);
+    }
+
+    /**
+     * Draws an image into a new compatible image of the given size.
+     */
+    private static BufferedImage draw(BufferedImage image, int size, Object interpolation)
+    {
+        BufferedImage result = createImage(size);
+        Graphics2D g = result.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        g.drawImage(image, 0, 0, size, size, null);
+        g.dispose();
+        return result;
+    }
+
+    /**
+     * Creates an image in the format of the screen, so drawing it needs no conversion.
+     */
+    private static BufferedImage createImage(int size)
+    {
+        if (GraphicsEnvironment.isHeadless())
+        {
+            return new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+            .getDefaultConfiguration().createCompatibleImage(size, size, Transparency.TRANSLUCENT);
+    }
+}
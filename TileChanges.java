@@ -0,0 +1,55 @@
+/**
+ * The tiles changed by a single move, along with their new states. When a move loses the
+ * game, the mines and flagged tiles are included as well so they can be shown.
+ */
+public class TileChanges
+{
+    private final int columns;
+    private final int[] cells, states;
+    private final boolean gameOver;
+
+    /**
+     * Creates a change set.
+     * @param columns The number of columns of the board.
+     * @param cells The row-major indices of the changed tiles.
+     * @param states The new states of the changed tiles.
+     * @param gameOver True if the game ended with this move.
+     */
+    public TileChanges(int columns, int[] cells, int[] states, boolean gameOver)
+    {
+        this.columns = columns;
+        this.cells = cells;
+        this.states = states;
+        this.gameOver = gameOver;
+    }
+
+    /**
+     * Returns the number of changed tiles.
+     */
+    public int size() {return cells.length;}
+
+    /**
+     * Returns the row-major index of the i-th changed tile.
+     */
+    public int getCell(int i) {return cells[i];}
+
+    /**
+     * Returns the row of the i-th changed tile.
+     */
+    public int getRow(int i) {return cells[i] / columns;}
+
+    /**
+     * Returns the column of the i-th changed tile.
+     */
+    public int getColumn(int i) {return cells[i] % columns;}
+
+    /**
+     * Returns the new state of the i-th changed tile.
+     */
+    public int getState(int i) {return states[i];}
+
+    /**
+     * Returns True if the game ended with this move.
+     */
+    public boolean isGameOver() {return gameOver;}
+}
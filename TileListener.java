@@ -0,0 +1,13 @@
+import java.util.EventListener;
+
+/**
+ * Receives the tiles changed by each move on a MineBoard.
+ */
+public interface TileListener extends EventListener
+{
+    /**
+     * Called once at the end of every move that changed at least one tile.
+     * @param changes The changed tiles and their new states.
+     */
+    void tilesChanged(TileChanges changes);
+}
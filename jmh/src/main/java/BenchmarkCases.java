@@ -0,0 +1,25 @@
+import minesweeper.jmh.Workload;
+
+/**
+ * Hands the cases of Benchmark to the JMH benchmarks, which cannot import the default package.
+ */
+public class BenchmarkCases
+{
+    /**
+     * Finds a case of Benchmark as a Workload.
+     * @param name The name of the case, such as reveal.cascade.
+     * @param board The board, as rows x columns / mines, such as 16x30/99.
+     */
+    public static Workload find(String name, String board) throws Exception
+    {
+        Benchmark.Case c = Benchmark.find(name, board);
+        return new Workload()
+        {
+            @Override
+            public void setup() throws Exception {c.setup();}
+
+            @Override
+            public Object run() throws Exception {return c.run();}
+        };
+    }
+}
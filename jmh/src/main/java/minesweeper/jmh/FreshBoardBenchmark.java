@@ -0,0 +1,55 @@
+package minesweeper.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cases that use up their board, such as generating mines or the first reveal, and the
+ * saves and loads. Each invocation gets a new board in an untimed setup. Even the smallest of
+ * these takes microseconds, well above the cost JMH adds for a per-invocation setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreshBoardBenchmark
+{
+    @Param({"10x10/10", "16x16/40", "16x30/99", "256x256/10240", "1024x1024/163840", "1024x1024/10485"})
+    public String board;
+
+    @Param({"generateMines", "reveal.cascade", "serialization.save", "serialization.load", "saveFormat.save",
+        "saveFormat.load", "Solver.analyze"})
+    public String operation;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void find() throws Exception
+    {
+        workload = Workload.find(operation, board);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() throws Exception
+    {
+        workload.setup();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public Object run() throws Exception
+    {
+        return workload.run();
+    }
+}
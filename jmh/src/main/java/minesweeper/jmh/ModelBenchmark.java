@@ -0,0 +1,48 @@
+package minesweeper.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The model cases that can run again on the same board: sweeps, flag cycles and the cached
+ * solver. Each is set up once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark
+{
+    @Param({"10x10/10", "16x16/40", "16x30/99", "256x256/10240", "1024x1024/163840", "1024x1024/10485"})
+    public String board;
+
+    @Param({"determineAdjacent.sweep", "flag.cycle", "flag.cycle.listened", "flag.cycle.batch", "Solver.analyze.cached"})
+    public String operation;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void prepare() throws Exception
+    {
+        workload = Workload.find(operation, board);
+        workload.setup();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public Object run() throws Exception
+    {
+        return workload.run();
+    }
+}
@@ -0,0 +1,81 @@
+package minesweeper.jmh;
+
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The view cases on the three presets, painting into an image without a display. Swing wants
+ * its components on the event dispatch thread, so every invocation is handed to it and waited
+ * for. The time includes that handoff, a few microseconds, and the GC profiler counts the
+ * allocation of every thread, so the EDT's share is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ViewBenchmark
+{
+    @Param({"10x10/10", "16x16/40", "16x30/99"})
+    public String board;
+
+    @Param({"MinePanel.showMove", "MinePanel.refresh", "MinePanel.paint"})
+    public String operation;
+
+    private Workload workload;
+    private Object result;
+    private Exception failure;
+
+    @Setup(Level.Trial)
+    public void find() throws Exception
+    {
+        workload = Workload.find(operation, board);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() throws Exception
+    {
+        onEventThread(true);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public Object run() throws Exception
+    {
+        return onEventThread(false);
+    }
+
+    /**
+     * Sets up or runs the workload on the event dispatch thread and waits for it.
+     */
+    private Object onEventThread(boolean setup) throws Exception
+    {
+        result = null;
+        failure = null;
+        SwingUtilities.invokeAndWait(() ->
+        {
+            try
+            {
+                if (setup) {workload.setup();}
+                else {result = workload.run();}
+            }
+            catch (Exception ex)
+            {
+                failure = ex;
+            }
+        });
+        if (failure != null) {throw failure;}
+        return result;
+    }
+}
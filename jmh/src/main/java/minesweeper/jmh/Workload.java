@@ -0,0 +1,31 @@
+package minesweeper.jmh;
+
+/**
+ * One case of the game's Benchmark, as the JMH benchmarks drive it. JMH will not run
+ * benchmarks in the default package, and a named package cannot see the game's classes, so
+ * the cases are reached through this interface and the default package BenchmarkCases.
+ */
+public interface Workload
+{
+    /**
+     * Prepares the next invocation.
+     */
+    void setup() throws Exception;
+
+    /**
+     * The measured operation.
+     */
+    Object run() throws Exception;
+
+    /**
+     * Finds a case of the game's Benchmark.
+     * @param name The name of the case, such as reveal.cascade.
+     * @param board The board, as rows x columns / mines, such as 16x30/99.
+     */
+    static Workload find(String name, String board) throws Exception
+    {
+        return (Workload)Class.forName("BenchmarkCases")
+            .getMethod("find", String.class, String.class)
+            .invoke(null, name, board);
+    }
+}